@@ -2,6 +2,7 @@ plugins {
     java
     application
     id("com.github.johnrengelman.shadow") version "6.1.0"
+    id("me.champeau.jmh") version "0.6.6"
 }
 
 group = "org.lostclient.muling"
@@ -11,6 +12,18 @@ repositories {
     mavenCentral()
 }
 
+// headless bot and mule load generator in src/loadgen, run against a running server with ./gradlew loadgen
+val loadgen by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
+configurations {
+    "loadgenImplementation" {
+        extendsFrom(configurations.implementation.get())
+    }
+}
+
 dependencies {
     annotationProcessor(group = "org.projectlombok", name = "lombok", version = "1.18.20")
 
@@ -20,9 +33,35 @@ dependencies {
     //implementation(group = "org.slf4j", name = "slf4j-api", version = "1.7.25")
     implementation(group = "org.slf4j", name = "slf4j-simple", version = "1.7.25")
     implementation(group = "org.java-websocket", name = "Java-WebSocket", version = "1.5.2")
+
+    testImplementation(group = "org.junit.jupiter", name = "junit-jupiter", version = "5.8.2")
+}
+
+// benchmarks in src/jmh, run with ./gradlew jmh or narrow down with e.g. -Pjmh.includes=MatchingBenchmark
+jmh {
+    jmhVersion.set("1.33")
+    warmupIterations.set(3)
+    iterations.set(5)
+    fork.set(1)
+    if (project.hasProperty("jmh.includes")) {
+        includes.add(project.property("jmh.includes").toString())
+    }
 }
 
 tasks {
+    test {
+        useJUnitPlatform()
+    }
+
+    // settings are passed on as system properties, e.g. -Ploadgen.bots=2000 -Ploadgen.duration=120
+    register<JavaExec>("loadgen") {
+        group = "application"
+        description = "Runs the load generator against a running server."
+        classpath = loadgen.runtimeClasspath
+        mainClass.set("org.lostclient.muling.loadgen.LoadGenerator")
+        systemProperties(project.properties.filterKeys { it.startsWith("loadgen.") })
+    }
+
     application {
         mainClass.set("org.lostclient.muling.server.Main")
         mainClassName = "org.lostclient.muling.server.Main"
@@ -0,0 +1,27 @@
+package org.lostclient.muling.server;
+
+import org.lostclient.muling.messages.OwnedItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ClientBenchmark
+{
+	@Benchmark
+	public boolean hasRequiredItems(Fleet fleet)
+	{
+		return fleet.sampleMule.hasRequiredItems(fleet.itemsRequest.requiredItems);
+	}
+
+	@Benchmark
+	public List<OwnedItem> getRemainingItems(Fleet fleet)
+	{
+		return fleet.sampleMule.getRemainingItems();
+	}
+}
@@ -0,0 +1,148 @@
+package org.lostclient.muling.server;
+
+import org.lostclient.muling.RequiredItem;
+import org.lostclient.muling.messages.AbstractMessage;
+import org.lostclient.muling.messages.FleetEvent;
+import org.lostclient.muling.messages.MessageType;
+import org.lostclient.muling.messages.Mule;
+import org.lostclient.muling.messages.MuleTile;
+import org.lostclient.muling.messages.OwnedItem;
+import org.lostclient.muling.messages.client.FleetSubscribeMessage;
+import org.lostclient.muling.messages.client.FleetUnsubscribeMessage;
+import org.lostclient.muling.messages.client.ListMulesRequestMessage;
+import org.lostclient.muling.messages.client.MetricsRequestMessage;
+import org.lostclient.muling.messages.client.OwnedItemsDeltaMessage;
+import org.lostclient.muling.messages.client.OwnedItemsUpdateMessage;
+import org.lostclient.muling.messages.client.TradeCompletedMessage;
+import org.lostclient.muling.messages.client.TradeRequestMessage;
+import org.lostclient.muling.messages.client.UnknownTraderMessage;
+import org.lostclient.muling.messages.codec.JsonCodec;
+import org.lostclient.muling.messages.server.FleetEventsMessage;
+import org.lostclient.muling.messages.server.ListMulesResponseMessage;
+import org.lostclient.muling.messages.server.MetricsResponseMessage;
+import org.lostclient.muling.messages.server.MuleResponseMessage;
+import org.lostclient.muling.messages.server.OwnedItemsResyncMessage;
+import org.lostclient.muling.messages.server.RateLimitedMessage;
+import org.lostclient.muling.messages.server.SessionMessage;
+import org.lostclient.muling.messages.server.TradeResponseMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON decode and encode of every message type. Only the mule lists and fleet events grow with the fleet, the
+ * other messages are the same at every fleet size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CodecBenchmark
+{
+	@State(Scope.Benchmark)
+	public static class Message
+	{
+		@Param({
+				"MULE_REQUEST", "MULE_RESPONSE", "TRADE_REQUEST", "TRADE_RESPONSE", "TRADE_COMPLETED",
+				"OWNED_ITEMS_UPDATE", "UNKNOWN_TRADER", "LIST_MULES_REQUEST", "LIST_MULES_RESPONSE",
+				"OWNED_ITEMS_DELTA", "OWNED_ITEMS_RESYNC", "FLEET_SUBSCRIBE", "FLEET_UNSUBSCRIBE", "FLEET_EVENTS",
+				"METRICS_REQUEST", "METRICS_RESPONSE", "SESSION", "RATE_LIMITED"
+		})
+		public MessageType type;
+
+		AbstractMessage message;
+		String json;
+
+		@Setup(Level.Trial)
+		public void setup(Fleet fleet)
+		{
+			message = create(type, fleet);
+			json = JsonCodec.encode(message);
+		}
+	}
+
+	@Benchmark
+	public AbstractMessage decode(Message message) throws IOException
+	{
+		return JsonCodec.decode(message.json);
+	}
+
+	@Benchmark
+	public String encode(Message message)
+	{
+		return JsonCodec.encode(message.message);
+	}
+
+	private static AbstractMessage create(MessageType type, Fleet fleet)
+	{
+		MuleTile tile = new MuleTile(3164, 3487, 0);
+		switch (type)
+		{
+			case MULE_REQUEST:
+				return fleet.itemsRequest;
+			case MULE_RESPONSE:
+				return new MuleResponseMessage(true, null, 301, tile);
+			case TRADE_REQUEST:
+				return new TradeRequestMessage("req-1");
+			case TRADE_RESPONSE:
+				return new TradeResponseMessage(true, null, "req-1", "Mule1");
+			case TRADE_COMPLETED:
+				return new TradeCompletedMessage(true, null, "req-1");
+			case OWNED_ITEMS_UPDATE:
+				return new OwnedItemsUpdateMessage(fleet.sampleMule.getOwnedItems(), 1L);
+			case UNKNOWN_TRADER:
+				return new UnknownTraderMessage("Bot1");
+			case LIST_MULES_REQUEST:
+				return new ListMulesRequestMessage("main", 0, null, 1,
+						Arrays.asList(new RequiredItem(Fleet.COINS, 100_000)), false, 0L, 100);
+			case LIST_MULES_RESPONSE:
+				return fleet.server.buildListMulesResponse().getMessage();
+			case OWNED_ITEMS_DELTA:
+				return new OwnedItemsDeltaMessage(2L, Arrays.asList(new OwnedItem(Fleet.COINS, 1_500_000), new OwnedItem(1007, 0)));
+			case OWNED_ITEMS_RESYNC:
+				return new OwnedItemsResyncMessage(3L, 5L);
+			case FLEET_SUBSCRIBE:
+				return new FleetSubscribeMessage();
+			case FLEET_UNSUBSCRIBE:
+				return new FleetUnsubscribeMessage();
+			case FLEET_EVENTS:
+			{
+				// one flush window's worth of changes, at most a tenth of the fleet
+				List<Mule> mules = ((ListMulesResponseMessage) fleet.server.buildListMulesResponse().getMessage()).mules;
+				List<FleetEvent> events = new ArrayList<>();
+				for (int i = 0; i < Math.max(1, mules.size() / 10); i++)
+				{
+					events.add(new FleetEvent(FleetEvent.Type.UPDATED, mules.get(i).getPlayerName(), mules.get(i)));
+				}
+				return new FleetEventsMessage(events);
+			}
+			case METRICS_REQUEST:
+				return new MetricsRequestMessage();
+			case METRICS_RESPONSE:
+			{
+				StringBuilder metrics = new StringBuilder();
+				for (MessageType messageType : MessageType.values())
+				{
+					metrics.append("lostmule_messages_received_total{type=\"").append(messageType).append("\"} 12345\n");
+				}
+				return new MetricsResponseMessage(metrics.toString());
+			}
+			case SESSION:
+				return new SessionMessage("9f86d081884c7d659a2feaa0c55ad015", true);
+			case RATE_LIMITED:
+				return new RateLimitedMessage(MessageType.MULE_REQUEST, 250L, "Too many MULE_REQUEST messages");
+			default:
+				throw new IllegalArgumentException("No sample message for " + type);
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package org.lostclient.muling.server;
+
+import org.lostclient.muling.Client;
+import org.lostclient.muling.GroupIndex;
+import org.lostclient.muling.RequiredItem;
+import org.lostclient.muling.messages.MuleTile;
+import org.lostclient.muling.messages.OwnedItem;
+import org.lostclient.muling.messages.client.MuleRequestMessage;
+import org.lostclient.muling.messages.client.OwnedItemsUpdateMessage;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A server with a synthetic fleet: mules spread over a few groups, each with a full inventory of coins and common
+ * items and a partly filled request queue. Seeded, so every run benchmarks the same fleet.
+ */
+@State(Scope.Benchmark)
+public class Fleet
+{
+	static final int COINS = 995;
+	static final String[] GROUPS = {"main", "alt", "pvm", "skilling"};
+	// item ids of the tradeable items mules carry besides coins
+	private static final int FIRST_ITEM = 1000;
+	private static final int ITEM_KINDS = 500;
+	private static final int INVENTORY_SLOTS = 27;
+
+	@Param({"10", "100", "1000", "10000"})
+	public int mules;
+
+	Server server;
+	final List<Client> muleClients = new ArrayList<>();
+	Client bot;
+	// a typical mule in the middle of the fleet
+	Client sampleMule;
+	MuleRequestMessage coinsRequest;
+	MuleRequestMessage itemsRequest;
+	MuleRequestMessage anyRequest;
+
+	private int nextConnIndex;
+	private int nextRequestId;
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		Random random = new Random(42);
+		server = new Server(0);
+		muleClients.clear();
+
+		for (int m = 0; m < mules; m++)
+		{
+			String groups = GROUPS[m % GROUPS.length] + (m % 5 == 0 ? "," + GROUPS[(m + 1) % GROUPS.length] : "");
+			int queueSize = 5 + random.nextInt(16);
+			Client mule = newClient("Mule" + m, groups, queueSize, true);
+			mule.setWorldId(301 + random.nextInt(200));
+			mule.setTile(new MuleTile(3164 + random.nextInt(10), 3487 + random.nextInt(10), 0));
+			server.addClient(mule);
+			server.handleMessage(mule, new OwnedItemsUpdateMessage(randomInventory(random), 0L));
+			muleClients.add(mule);
+		}
+
+		bot = newClient("Bot", GROUPS[0], 0, false);
+		server.addClient(bot);
+
+		// fill every mule's queue up to half way with requests for a bit of what it holds
+		for (Client mule : muleClients)
+		{
+			int openRequests = random.nextInt(mule.getQueueSize() / 2 + 1);
+			for (int r = 0; r < openRequests; r++)
+			{
+				Client requester = newClient("Requester" + nextConnIndex, mule.getGroups()[0], 0, false);
+				server.addClient(requester);
+				server.assignRequest(requester, mule, newRequest(requester.getPlayerName(),
+						Collections.singletonList(new RequiredItem(COINS, 1000 + random.nextInt(10000)))));
+			}
+		}
+
+		sampleMule = muleClients.get(mules / 2);
+		coinsRequest = newRequest("Bot", Collections.singletonList(new RequiredItem(COINS, 250_000)));
+		List<RequiredItem> items = new ArrayList<>();
+		items.add(new RequiredItem(COINS, 100_000));
+		items.add(new RequiredItem(FIRST_ITEM + 7, 50));
+		itemsRequest = newRequest("Bot", items);
+		anyRequest = newRequest("Bot", Collections.emptyList());
+	}
+
+	private Client newClient(String playerName, String groups, int queueSize, boolean isMule)
+	{
+		int connIndex = nextConnIndex++;
+		return new Client(StubWebSocket.create(connIndex), connIndex, System.currentTimeMillis(), "bench",
+				GroupIndex.normalizeGroups(groups), queueSize, playerName, isMule, true);
+	}
+
+	private MuleRequestMessage newRequest(String playerName, List<RequiredItem> requiredItems)
+	{
+		return new MuleRequestMessage("req-" + nextRequestId++, System.currentTimeMillis(), playerName, true,
+				requiredItems, Collections.emptyList(), null);
+	}
+
+	private static List<OwnedItem> randomInventory(Random random)
+	{
+		List<OwnedItem> inventory = new ArrayList<>(INVENTORY_SLOTS + 1);
+		inventory.add(new OwnedItem(COINS, 100_000 + random.nextInt(20_000_000)));
+		for (int slot = 0; slot < INVENTORY_SLOTS; slot++)
+		{
+			// skewed towards the low ids, so some items are common and some are rare
+			int item = FIRST_ITEM + (int) (ITEM_KINDS * Math.pow(random.nextDouble(), 3));
+			inventory.add(new OwnedItem(item, 1 + random.nextInt(5000)));
+		}
+		return inventory;
+	}
+}
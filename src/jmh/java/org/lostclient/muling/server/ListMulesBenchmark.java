@@ -0,0 +1,35 @@
+package org.lostclient.muling.server;
+
+import org.lostclient.muling.messages.codec.EncodedMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a LIST_MULES_RESPONSE after the fleet changed, when the cached one can't be reused.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ListMulesBenchmark
+{
+	@Benchmark
+	public EncodedMessage build(Fleet fleet)
+	{
+		return fleet.server.buildListMulesResponse();
+	}
+
+	@Benchmark
+	public byte[] buildAndEncodeJson(Fleet fleet)
+	{
+		return fleet.server.buildListMulesResponse().getJson();
+	}
+
+	@Benchmark
+	public byte[] buildAndEncodeBinary(Fleet fleet)
+	{
+		return fleet.server.buildListMulesResponse().getBinary();
+	}
+}
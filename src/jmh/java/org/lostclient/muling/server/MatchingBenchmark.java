@@ -0,0 +1,32 @@
+package org.lostclient.muling.server;
+
+import org.lostclient.muling.Client;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MatchingBenchmark
+{
+	@Benchmark
+	public Client findMuleForCoins(Fleet fleet)
+	{
+		return fleet.server.findMuleForRequest(fleet.bot.getGroups(), fleet.coinsRequest);
+	}
+
+	@Benchmark
+	public Client findMuleForItems(Fleet fleet)
+	{
+		return fleet.server.findMuleForRequest(fleet.bot.getGroups(), fleet.itemsRequest);
+	}
+
+	@Benchmark
+	public Client findMuleWithoutItems(Fleet fleet)
+	{
+		return fleet.server.findMuleForRequest(fleet.bot.getGroups(), fleet.anyRequest);
+	}
+}
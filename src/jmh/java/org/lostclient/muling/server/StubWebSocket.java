@@ -0,0 +1,46 @@
+package org.lostclient.muling.server;
+
+import org.java_websocket.WebSocket;
+
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+
+/**
+ * An always open connection that drops everything sent to it.
+ */
+final class StubWebSocket
+{
+	private StubWebSocket()
+	{
+	}
+
+	static WebSocket create(int index)
+	{
+		InetSocketAddress address = InetSocketAddress.createUnresolved("bench", 10000 + index % 50000);
+		return (WebSocket) Proxy.newProxyInstance(WebSocket.class.getClassLoader(), new Class<?>[]{WebSocket.class}, (proxy, method, args) ->
+		{
+			switch (method.getName())
+			{
+				case "getRemoteSocketAddress":
+				case "getLocalSocketAddress":
+					return address;
+				case "isOpen":
+					return true;
+				case "isClosed":
+				case "isClosing":
+				case "isFlushAndClose":
+				case "hasBufferedData":
+				case "hasSSLSupport":
+					return false;
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "equals":
+					return proxy == args[0];
+				case "toString":
+					return "StubWebSocket-" + index;
+				default:
+					return null;
+			}
+		});
+	}
+}
@@ -0,0 +1,262 @@
+package org.lostclient.muling.loadgen;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.framing.CloseFrame;
+import org.lostclient.muling.Log;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless load generator that opens thousands of simulated mule and bot connections against a running server,
+ * lets the bots run mule request, trade request and trade completed cycles while the mules churn their
+ * inventories, and reports throughput and latency percentiles of every phase.
+ * <p>
+ * Configured with system properties, run with {@code ./gradlew loadgen -Ploadgen.bots=2000}:
+ * <ul>
+ *     <li>{@code loadgen.url} - server to connect to, defaults to ws://localhost:42067</li>
+ *     <li>{@code loadgen.mules} - number of mules, defaults to 200</li>
+ *     <li>{@code loadgen.bots} - number of bots, defaults to 1000</li>
+ *     <li>{@code loadgen.groups} - number of groups the mules and bots are spread over, defaults to 4</li>
+ *     <li>{@code loadgen.queueSize} - queue size of every mule, defaults to 10</li>
+ *     <li>{@code loadgen.tradeMillis} - time a trade takes in game, defaults to 0</li>
+ *     <li>{@code loadgen.waitMillis} - wait timeout of the bots' mule requests, defaults to 0</li>
+ *     <li>{@code loadgen.churnMillis} - interval of every mule's inventory changes, 0 for none, defaults to 5000</li>
+ *     <li>{@code loadgen.connectRate} - connections opened per second, defaults to 500</li>
+ *     <li>{@code loadgen.duration} - seconds to run for once everything connected, defaults to 60</li>
+ *     <li>{@code loadgen.reportSeconds} - interval of the reports, defaults to 5</li>
+ * </ul>
+ */
+public class LoadGenerator
+{
+	private final URI uri = URI.create(System.getProperty("loadgen.url", "ws://localhost:42067"));
+	private final int muleCount = Integer.getInteger("loadgen.mules", 200);
+	private final int botCount = Integer.getInteger("loadgen.bots", 1000);
+	private final int groupCount = Integer.getInteger("loadgen.groups", 4);
+	private final int queueSize = Integer.getInteger("loadgen.queueSize", 10);
+	private final long tradeMillis = Long.getLong("loadgen.tradeMillis", 0L);
+	private final long waitMillis = Long.getLong("loadgen.waitMillis", 0L);
+	private final long churnMillis = Long.getLong("loadgen.churnMillis", 5000L);
+	private final int connectRate = Integer.getInteger("loadgen.connectRate", 500);
+	private final long durationSeconds = Long.getLong("loadgen.duration", 60L);
+	private final long reportSeconds = Long.getLong("loadgen.reportSeconds", 5L);
+
+	private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+			Math.max(2, Runtime.getRuntime().availableProcessors()), r ->
+			{
+				Thread thread = new Thread(r, "LoadGenerator");
+				thread.setDaemon(true);
+				return thread;
+			});
+	private final Map<String, SimulatedMule> mules = new ConcurrentHashMap<>();
+	private final List<WebSocketClient> clients = new CopyOnWriteArrayList<>();
+	private final AtomicInteger connected = new AtomicInteger();
+	private final AtomicInteger disconnected = new AtomicInteger();
+	private final AtomicLong errors = new AtomicLong();
+	private volatile boolean stopping = false;
+
+	private final PhaseStats muleRequests = new PhaseStats("MULE_REQUEST", true);
+	private final PhaseStats tradeRequests = new PhaseStats("TRADE_REQUEST", true);
+	private final PhaseStats tradesCompleted = new PhaseStats("TRADE_COMPLETED", true);
+	private final PhaseStats cycles = new PhaseStats("cycle", true);
+	private final PhaseStats inventoryUpdates = new PhaseStats("OWNED_ITEMS", false);
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		new LoadGenerator().run();
+	}
+
+	private void run() throws InterruptedException
+	{
+		Log.info("LoadGenerator", "Connecting %d mules and %d bots in %d groups to %s", muleCount, botCount, groupCount, uri);
+
+		// mules first so the bots' first requests have somewhere to go
+		long connectStart = System.nanoTime();
+		for (int i = 0; i < muleCount; i++)
+		{
+			SimulatedMule mule = new SimulatedMule(this, uri, i, headers("LoadMule" + i, true, i));
+			mules.put(mule.getPlayerName(), mule);
+			connect(mule, i);
+		}
+		awaitConnected(muleCount);
+		List<SimulatedBot> bots = new ArrayList<>(botCount);
+		for (int i = 0; i < botCount; i++)
+		{
+			SimulatedBot bot = new SimulatedBot(this, uri, headers("LoadBot" + i, false, i));
+			bots.add(bot);
+			connect(bot, muleCount + i);
+		}
+		awaitConnected(muleCount + botCount);
+		Log.info("LoadGenerator", "%d connections open after %d ms", connected.get(),
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectStart));
+
+		for (SimulatedBot bot : bots)
+		{
+			bot.start();
+		}
+
+		long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds);
+		long lastReport = System.nanoTime();
+		while (System.nanoTime() < end)
+		{
+			Thread.sleep(TimeUnit.SECONDS.toMillis(reportSeconds));
+			long now = System.nanoTime();
+			report((now - lastReport) / 1e9);
+			lastReport = now;
+		}
+
+		stopping = true;
+		for (WebSocketClient client : clients)
+		{
+			client.close();
+		}
+		scheduler.shutdownNow();
+		System.exit(0);
+	}
+
+	private Map<String, String> headers(String playerName, boolean isMule, int index)
+	{
+		Map<String, String> headers = new HashMap<>();
+		headers.put("clientUsername", "loadgen");
+		headers.put("playerName", playerName);
+		headers.put("isMule", String.valueOf(isMule));
+		headers.put("isMember", "true");
+		headers.put("groups", "load" + index % groupCount);
+		headers.put("protocol", "json");
+		if (isMule)
+		{
+			headers.put("queueSize", String.valueOf(queueSize));
+			headers.put("worldId", String.valueOf(301 + index % 100));
+			headers.put("tileX", String.valueOf(3164 + index % 10));
+			headers.put("tileY", String.valueOf(3487 + index / 10 % 10));
+			headers.put("tileZ", "0");
+		}
+		return headers;
+	}
+
+	private void connect(WebSocketClient client, int index) throws InterruptedException
+	{
+		clients.add(client);
+		client.connect();
+		if (connectRate > 0 && (index + 1) % Math.max(1, connectRate / 10) == 0)
+		{
+			Thread.sleep(100);
+		}
+	}
+
+	private void awaitConnected(int expected) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+		while (connected.get() + disconnected.get() < expected && System.nanoTime() < deadline)
+		{
+			Thread.sleep(50);
+		}
+		if (connected.get() < expected)
+		{
+			Log.severe("LoadGenerator", "Only %d of %d connections are open", connected.get(), expected);
+		}
+	}
+
+	private void report(double intervalSeconds)
+	{
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("connections %d, disconnects %d, errors %d", connected.get(), disconnected.get(), errors.get()));
+		for (PhaseStats phase : new PhaseStats[]{muleRequests, tradeRequests, tradesCompleted, cycles, inventoryUpdates})
+		{
+			report.append(System.lineSeparator()).append(phase.report(intervalSeconds));
+		}
+		Log.info("LoadGenerator", report);
+	}
+
+	void onConnected(WebSocketClient client)
+	{
+		connected.incrementAndGet();
+	}
+
+	void onDisconnected(WebSocketClient client, int code, String reason)
+	{
+		if (stopping)
+		{
+			return;
+		}
+		disconnected.incrementAndGet();
+		if (code != CloseFrame.NEVER_CONNECTED)
+		{
+			connected.decrementAndGet();
+		}
+		Log.info("LoadGenerator", "%s closed with %d %s", client.getClass().getSimpleName(), code, reason);
+	}
+
+	void onError(Exception ex)
+	{
+		if (errors.incrementAndGet() <= 10)
+		{
+			Log.severe("LoadGenerator", ex);
+		}
+	}
+
+	SimulatedMule getMule(String playerName)
+	{
+		return mules.get(playerName);
+	}
+
+	ScheduledExecutorService getScheduler()
+	{
+		return scheduler;
+	}
+
+	boolean isStopping()
+	{
+		return stopping;
+	}
+
+	long getTradeMillis()
+	{
+		return tradeMillis;
+	}
+
+	long getWaitMillis()
+	{
+		return waitMillis;
+	}
+
+	long getChurnMillis()
+	{
+		return churnMillis;
+	}
+
+	PhaseStats getMuleRequests()
+	{
+		return muleRequests;
+	}
+
+	PhaseStats getTradeRequests()
+	{
+		return tradeRequests;
+	}
+
+	PhaseStats getTradesCompleted()
+	{
+		return tradesCompleted;
+	}
+
+	PhaseStats getCycles()
+	{
+		return cycles;
+	}
+
+	PhaseStats getInventoryUpdates()
+	{
+		return inventoryUpdates;
+	}
+}
@@ -0,0 +1,74 @@
+package org.lostclient.muling.loadgen;
+
+import java.util.Arrays;
+
+/**
+ * Completions and end-to-end latencies of one phase of the trade cycle, collected between two reports.
+ */
+class PhaseStats
+{
+	private final String name;
+	// whether the phase has latencies, fire and forget messages only have a rate
+	private final boolean timed;
+	private long[] latencies = new long[1024];
+	private int count;
+	private long failures;
+	private long totalCount;
+
+	PhaseStats(String name, boolean timed)
+	{
+		this.name = name;
+		this.timed = timed;
+	}
+
+	synchronized void record(long nanos)
+	{
+		if (count == latencies.length)
+		{
+			latencies = Arrays.copyOf(latencies, count * 2);
+		}
+		latencies[count++] = nanos;
+		totalCount++;
+	}
+
+	synchronized void recordFailure()
+	{
+		failures++;
+	}
+
+	/**
+	 * @return one report line for the interval since the last report, and starts a new interval
+	 */
+	String report(double intervalSeconds)
+	{
+		long[] sorted;
+		long intervalFailures;
+		long total;
+		synchronized (this)
+		{
+			sorted = Arrays.copyOf(latencies, count);
+			intervalFailures = failures;
+			total = totalCount;
+			count = 0;
+			failures = 0;
+		}
+		if (!timed)
+		{
+			return String.format("%-16s %9.1f/s  total %9d", name, sorted.length / intervalSeconds, total);
+		}
+		Arrays.sort(sorted);
+		return String.format("%-16s %9.1f/s  p50 %8.2fms  p90 %8.2fms  p99 %8.2fms  max %8.2fms  failed %6d  total %9d",
+				name, sorted.length / intervalSeconds, percentile(sorted, 0.50), percentile(sorted, 0.90),
+				percentile(sorted, 0.99), percentile(sorted, 1.0), intervalFailures, total);
+	}
+
+	private static double percentile(long[] sorted, double percentile)
+	{
+		if (sorted.length == 0)
+		{
+			return 0D;
+		}
+		int index = (int) Math.ceil(percentile * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+	}
+}
@@ -0,0 +1,161 @@
+package org.lostclient.muling.loadgen;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.lostclient.muling.RequiredItem;
+import org.lostclient.muling.messages.AbstractMessage;
+import org.lostclient.muling.messages.client.MuleRequestMessage;
+import org.lostclient.muling.messages.client.TradeCompletedMessage;
+import org.lostclient.muling.messages.client.TradeRequestMessage;
+import org.lostclient.muling.messages.codec.JsonCodec;
+import org.lostclient.muling.messages.server.MuleResponseMessage;
+import org.lostclient.muling.messages.server.TradeResponseMessage;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bot that runs MULE_REQUEST, TRADE_REQUEST and TRADE_COMPLETED cycles back to back, timing every phase from
+ * the message it sent to the answer it waited for.
+ */
+class SimulatedBot extends WebSocketClient
+{
+	private final LoadGenerator generator;
+	private final String playerName;
+	private int cycle = 0;
+	private String requestId;
+	private long cycleStart;
+	private long phaseStart;
+
+	SimulatedBot(LoadGenerator generator, URI uri, Map<String, String> headers)
+	{
+		super(uri, headers);
+		this.generator = generator;
+		this.playerName = headers.get("playerName");
+	}
+
+	@Override
+	public void onOpen(ServerHandshake handshake)
+	{
+		generator.onConnected(this);
+	}
+
+	/**
+	 * Starts cycling once every connection is open, so the ramp up doesn't show in the numbers.
+	 */
+	void start()
+	{
+		// spread the first requests out instead of having every bot ask at once
+		generator.getScheduler().schedule(this::startCycle, ThreadLocalRandom.current().nextLong(1000), TimeUnit.MILLISECONDS);
+	}
+
+	private synchronized void startCycle()
+	{
+		if (!isOpen() || generator.isStopping())
+		{
+			return;
+		}
+		requestId = playerName + "-" + cycle++;
+		cycleStart = phaseStart = System.nanoTime();
+		int coins = 1000 + ThreadLocalRandom.current().nextInt(100_000);
+		send(JsonCodec.encode(new MuleRequestMessage(requestId, System.currentTimeMillis(), playerName, true,
+				Collections.singletonList(new RequiredItem(995, coins)), Collections.emptyList(), null, generator.getWaitMillis())));
+	}
+
+	@Override
+	public synchronized void onMessage(String message)
+	{
+		try
+		{
+			AbstractMessage decoded = JsonCodec.decode(message);
+			if (decoded == null)
+			{
+				return;
+			}
+			long now = System.nanoTime();
+			switch (decoded.type)
+			{
+				case MULE_RESPONSE:
+				{
+					if (!((MuleResponseMessage) decoded).success)
+					{
+						generator.getMuleRequests().recordFailure();
+						retryLater();
+						return;
+					}
+					generator.getMuleRequests().record(now - phaseStart);
+					phaseStart = System.nanoTime();
+					send(JsonCodec.encode(new TradeRequestMessage(requestId)));
+				}
+				break;
+
+				case TRADE_RESPONSE:
+				{
+					TradeResponseMessage tradeResponse = (TradeResponseMessage) decoded;
+					if (!tradeResponse.success)
+					{
+						generator.getTradeRequests().recordFailure();
+						retryLater();
+						return;
+					}
+					generator.getTradeRequests().record(now - phaseStart);
+					SimulatedMule mule = generator.getMule(tradeResponse.playerName);
+					if (mule == null)
+					{
+						generator.getTradeRequests().recordFailure();
+						retryLater();
+						return;
+					}
+					// the trade itself happens in game, the mule reports it once it's done
+					String tradedRequestId = requestId;
+					phaseStart = System.nanoTime();
+					generator.getScheduler().schedule(() -> mule.completeTrade(tradedRequestId), generator.getTradeMillis(), TimeUnit.MILLISECONDS);
+				}
+				break;
+
+				case TRADE_COMPLETED:
+				{
+					TradeCompletedMessage tradeCompleted = (TradeCompletedMessage) decoded;
+					if (!tradeCompleted.requestId.equals(requestId))
+					{
+						return;
+					}
+					if (!tradeCompleted.success)
+					{
+						generator.getTradesCompleted().recordFailure();
+						retryLater();
+						return;
+					}
+					generator.getTradesCompleted().record(now - phaseStart);
+					generator.getCycles().record(now - cycleStart);
+					generator.getScheduler().execute(this::startCycle);
+				}
+				break;
+			}
+		}
+		catch (Exception ex)
+		{
+			generator.onError(ex);
+		}
+	}
+
+	private void retryLater()
+	{
+		generator.getScheduler().schedule(this::startCycle, 100, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void onClose(int code, String reason, boolean remote)
+	{
+		generator.onDisconnected(this, code, reason);
+	}
+
+	@Override
+	public void onError(Exception ex)
+	{
+		generator.onError(ex);
+	}
+}
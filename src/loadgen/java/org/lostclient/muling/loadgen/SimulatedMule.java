@@ -0,0 +1,173 @@
+package org.lostclient.muling.loadgen;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.lostclient.muling.RequiredItem;
+import org.lostclient.muling.messages.AbstractMessage;
+import org.lostclient.muling.messages.OwnedItem;
+import org.lostclient.muling.messages.client.MuleRequestMessage;
+import org.lostclient.muling.messages.client.OwnedItemsUpdateMessage;
+import org.lostclient.muling.messages.client.TradeCompletedMessage;
+import org.lostclient.muling.messages.codec.JsonCodec;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A mule that hands out whatever it is asked for: it completes a trade as soon as the bot says the trade happened
+ * in game, reports its shrunken inventory and tops its coins back up when they run low.
+ */
+class SimulatedMule extends WebSocketClient
+{
+	private static final int COINS = 995;
+	private static final int STARTING_COINS = 50_000_000;
+
+	private final LoadGenerator generator;
+	private final String playerName;
+	// requests the server assigned to this mule, by request id
+	private final Map<String, MuleRequestMessage> assigned = new HashMap<>();
+	// trades the bot finished before the forwarded request reached this mule
+	private final Set<String> traded = new HashSet<>();
+	private final Map<Integer, Integer> inventory = new HashMap<>();
+	private long sequence = 0L;
+
+	SimulatedMule(LoadGenerator generator, URI uri, int index, Map<String, String> headers)
+	{
+		super(uri, headers);
+		this.generator = generator;
+		this.playerName = headers.get("playerName");
+		inventory.put(COINS, STARTING_COINS);
+		for (int slot = 0; slot < 27; slot++)
+		{
+			inventory.put(1000 + index % 50 + slot * 7, 1 + ThreadLocalRandom.current().nextInt(5000));
+		}
+	}
+
+	String getPlayerName()
+	{
+		return playerName;
+	}
+
+	@Override
+	public void onOpen(ServerHandshake handshake)
+	{
+		sendInventory();
+		generator.onConnected(this);
+		if (generator.getChurnMillis() > 0)
+		{
+			long initialDelay = ThreadLocalRandom.current().nextLong(generator.getChurnMillis());
+			generator.getScheduler().scheduleAtFixedRate(this::churn, initialDelay, generator.getChurnMillis(), TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Override
+	public void onMessage(String message)
+	{
+		try
+		{
+			AbstractMessage decoded = JsonCodec.decode(message);
+			if (decoded instanceof MuleRequestMessage)
+			{
+				onMuleRequest((MuleRequestMessage) decoded);
+			}
+		}
+		catch (Exception ex)
+		{
+			generator.onError(ex);
+		}
+	}
+
+	private synchronized void onMuleRequest(MuleRequestMessage muleRequest)
+	{
+		if (traded.remove(muleRequest.requestId))
+		{
+			completeTrade(muleRequest);
+			return;
+		}
+		assigned.put(muleRequest.requestId, muleRequest);
+	}
+
+	/**
+	 * Called by the bot once it traded with this mule in game.
+	 */
+	synchronized void completeTrade(String requestId)
+	{
+		MuleRequestMessage muleRequest = assigned.remove(requestId);
+		if (muleRequest == null)
+		{
+			traded.add(requestId);
+			return;
+		}
+		completeTrade(muleRequest);
+	}
+
+	private void completeTrade(MuleRequestMessage muleRequest)
+	{
+		if (!isOpen())
+		{
+			return;
+		}
+		for (RequiredItem requiredItem : muleRequest.requiredItems)
+		{
+			inventory.merge(requiredItem.getItemId(), -requiredItem.getQuantity(), Integer::sum);
+		}
+		if (inventory.getOrDefault(COINS, 0) < STARTING_COINS / 10)
+		{
+			inventory.put(COINS, STARTING_COINS);
+		}
+		send(JsonCodec.encode(new TradeCompletedMessage(true, null, muleRequest.requestId)));
+		sendInventory();
+	}
+
+	/**
+	 * Some items come and go like they would while a mule is in use.
+	 */
+	private synchronized void churn()
+	{
+		if (!isOpen())
+		{
+			return;
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		List<Integer> itemIds = new ArrayList<>(inventory.keySet());
+		int itemId = itemIds.get(random.nextInt(itemIds.size()));
+		if (itemId != COINS)
+		{
+			inventory.put(itemId, 1 + random.nextInt(5000));
+		}
+		sendInventory();
+		generator.getInventoryUpdates().record(0L);
+	}
+
+	private synchronized void sendInventory()
+	{
+		List<OwnedItem> ownedItems = new ArrayList<>(inventory.size());
+		inventory.forEach((itemId, quantity) ->
+		{
+			if (quantity > 0)
+			{
+				ownedItems.add(new OwnedItem(itemId, quantity));
+			}
+		});
+		send(JsonCodec.encode(new OwnedItemsUpdateMessage(ownedItems, ++sequence)));
+	}
+
+	@Override
+	public void onClose(int code, String reason, boolean remote)
+	{
+		generator.onDisconnected(this, code, reason);
+	}
+
+	@Override
+	public void onError(Exception ex)
+	{
+		generator.onError(ex);
+	}
+}
@@ -0,0 +1,53 @@
+package org.lostclient.muling;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Picks the eligible mule that would have the least of the required items left over, keeping large stacks free
+ * for large requests. Ties, and requests without required items, go to the least loaded mule.
+ */
+public class BestFitMuleSelector implements MuleSelector
+{
+	private final LoadIndex loadIndex;
+	private final LeastLoadedMuleSelector leastLoaded;
+
+	public BestFitMuleSelector(LoadIndex loadIndex)
+	{
+		this.loadIndex = loadIndex;
+		this.leastLoaded = new LeastLoadedMuleSelector(loadIndex);
+	}
+
+	@Override
+	public Client select(String[] groups, List<RequiredItem> requiredItems, Collection<Client> candidates, Predicate<Client> eligible)
+	{
+		if (requiredItems.size() == 0)
+		{
+			return leastLoaded.select(groups, requiredItems, candidates, eligible);
+		}
+
+		Client best = null;
+		long bestLeftover = Long.MAX_VALUE;
+		for (Client muleClient : candidates)
+		{
+			if (!eligible.test(muleClient))
+			{
+				continue;
+			}
+
+			long leftover = 0L;
+			for (RequiredItem requiredItem : requiredItems)
+			{
+				leftover += muleClient.getAvailableQuantity(requiredItem.getItemId()) - requiredItem.getQuantity();
+			}
+
+			if (leftover < bestLeftover || (leftover == bestLeftover && loadIndex.compare(muleClient, best) < 0))
+			{
+				best = muleClient;
+				bestLeftover = leftover;
+			}
+		}
+		return best;
+	}
+}
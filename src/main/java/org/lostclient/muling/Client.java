@@ -6,9 +6,13 @@ import lombok.ToString;
 import org.java_websocket.WebSocket;
 import org.lostclient.muling.messages.MuleTile;
 import org.lostclient.muling.messages.OwnedItem;
+import org.lostclient.muling.messages.codec.EncodedMessage;
+import org.lostclient.muling.messages.codec.Protocol;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -17,10 +21,11 @@ import java.util.Map;
 @ToString
 public class Client
 {
-	private final WebSocket conn;
+	// null while the client is detached, e.g. recovered from the journal and waiting for the player to reconnect
+	private WebSocket conn;
 	private final long connIndex;
 	private final long connectedAt;
-	private final String address;
+	private String address;
 	private final String clientUsername;
 	private final String[] groups;
 	private final int queueSize;
@@ -29,14 +34,32 @@ public class Client
 	private final boolean isMember;
 	private int worldId;
 	private MuleTile tile;
-	private final List<OwnedItem> ownedItems = new ArrayList<>();
+	private Protocol protocol = Protocol.JSON;
+	// total owned quantity per item id, in the order the mule first reported them
+	private final Map<Integer, Integer> ownedQuantities = new LinkedHashMap<>();
+	// list form of ownedQuantities, built lazily and dropped whenever the inventory changes
+	private List<OwnedItem> ownedItems;
+	// sequence number of the last inventory update applied, deltas must follow it without gaps. A new connection
+	// starts out with a known empty inventory at sequence 0
+	private long inventorySequence;
+	private boolean inventorySynced = true;
+	// when the full inventory was last asked for, deltas are discarded until it arrives
+	private long resyncRequestedAt;
+	// quantity per item id promised to open requests assigned to this mule
+	private final Map<Integer, Integer> reservedQuantities = new HashMap<>();
+	// lets a reconnecting client resume this client, null for clients without a session, e.g. those that didn't ask
+	// for one in their handshake or were recovered from the journal
+	private String sessionToken;
+	// messages sent while the client was detached, in order, replayed once it resumes its session
+	@ToString.Exclude
+	private final List<EncodedMessage> bufferedMessages = new ArrayList<>();
 
 	public Client(WebSocket conn, long connIndex, long connectedAt, String clientUsername, String[] groups, int queueSize, String playerName, boolean isMule, boolean isMember)
 	{
 		this.conn = conn;
 		this.connIndex = connIndex;
 		this.connectedAt = connectedAt;
-		this.address = conn.getRemoteSocketAddress().toString();
+		this.address = conn != null ? conn.getRemoteSocketAddress().toString() : null;
 		this.clientUsername = clientUsername;
 		this.groups = groups;
 		this.queueSize = queueSize;
@@ -45,6 +68,145 @@ public class Client
 		this.isMember = isMember;
 	}
 
+	public boolean isAttached()
+	{
+		return conn != null;
+	}
+
+	public List<OwnedItem> getOwnedItems()
+	{
+		if (ownedItems == null)
+		{
+			List<OwnedItem> items = new ArrayList<>(ownedQuantities.size());
+			ownedQuantities.forEach((itemId, quantity) -> items.add(new OwnedItem(itemId, quantity)));
+			ownedItems = Collections.unmodifiableList(items);
+		}
+		return ownedItems;
+	}
+
+	/**
+	 * Replaces the whole inventory, stacks of the same item are added together.
+	 */
+	public void setOwnedItems(List<OwnedItem> ownedItems)
+	{
+		ownedQuantities.clear();
+		for (OwnedItem ownedItem : ownedItems)
+		{
+			ownedQuantities.merge(ownedItem.getItemId(), ownedItem.getQuantity(), Integer::sum);
+		}
+		this.ownedItems = null;
+	}
+
+	/**
+	 * Sets the new total quantity of each changed item, a quantity of zero or less removes the item.
+	 */
+	public void applyOwnedItemChanges(List<OwnedItem> changedItems)
+	{
+		for (OwnedItem changedItem : changedItems)
+		{
+			if (changedItem.getQuantity() > 0)
+			{
+				ownedQuantities.put(changedItem.getItemId(), changedItem.getQuantity());
+			}
+			else
+			{
+				ownedQuantities.remove(changedItem.getItemId());
+			}
+		}
+		this.ownedItems = null;
+	}
+
+	/**
+	 * Adds the items of a newly assigned request to this mule's reservation ledger.
+	 */
+	public void reserve(List<RequiredItem> requiredItems)
+	{
+		if (requiredItems == null)
+		{
+			return;
+		}
+		for (RequiredItem requiredItem : requiredItems)
+		{
+			reservedQuantities.merge(requiredItem.getItemId(), requiredItem.getQuantity(), Integer::sum);
+		}
+	}
+
+	/**
+	 * Removes the items of a completed or cancelled request from this mule's reservation ledger.
+	 */
+	public void release(List<RequiredItem> requiredItems)
+	{
+		if (requiredItems == null)
+		{
+			return;
+		}
+		for (RequiredItem requiredItem : requiredItems)
+		{
+			reservedQuantities.computeIfPresent(requiredItem.getItemId(), (itemId, quantity) ->
+					quantity - requiredItem.getQuantity() > 0 ? quantity - requiredItem.getQuantity() : null);
+		}
+	}
+
+	public int getReservedQuantity(int itemId)
+	{
+		return reservedQuantities.getOrDefault(itemId, 0);
+	}
+
+	/**
+	 * @return the owned quantity of the item that is not yet reserved by an open request
+	 */
+	public int getAvailableQuantity(int itemId)
+	{
+		return ownedQuantities.getOrDefault(itemId, 0) - getReservedQuantity(itemId);
+	}
+
+	/**
+	 * Several entries for the same item are added together, the way the ledger reserves them.
+	 */
+	public boolean hasRequiredItems(List<RequiredItem> requiredItems)
+	{
+		for (RequiredItem requiredItem : requiredItems)
+		{
+			if (getAvailableQuantity(requiredItem.getItemId()) < getRequiredQuantity(requiredItems, requiredItem.getItemId()))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int getRequiredQuantity(List<RequiredItem> requiredItems, int itemId)
+	{
+		int quantity = 0;
+		for (RequiredItem requiredItem : requiredItems)
+		{
+			if (requiredItem.getItemId() == itemId)
+			{
+				quantity += requiredItem.getQuantity();
+			}
+		}
+		return quantity;
+	}
+
+	public List<OwnedItem> getRemainingItems()
+	{
+		List<OwnedItem> remainingItems = new ArrayList<>();
+
+		for (OwnedItem ownedItem : getOwnedItems())
+		{
+			remainingItems.add(new OwnedItem(
+					ownedItem.getItemId(),
+					ownedItem.getQuantity() - getReservedQuantity(ownedItem.getItemId())
+			));
+		}
+
+		return remainingItems;
+	}
+
+	/**
+	 * Recomputes {@link #hasRequiredItems(List)} from scratch over the given requests, bypassing the reservation
+	 * ledger. Only used to cross-check the ledger.
+	 */
 	public boolean hasRequiredItems(List<RequiredItem> requiredItems, List<Request> requests)
 	{
 		Map<Integer, Integer> requestCounts = new HashMap<>();
@@ -54,13 +216,13 @@ public class Client
 					requestCounts.put(i.getItemId(), i.getQuantity() + requestCounts.getOrDefault(i.getItemId(), 0)));
 		}
 
-		for (RequiredItem requiredItem : requiredItems)
+		Map<Integer, Integer> requiredCounts = new HashMap<>();
+		requiredItems.forEach(i -> requiredCounts.merge(i.getItemId(), i.getQuantity(), Integer::sum));
+
+		for (Map.Entry<Integer, Integer> required : requiredCounts.entrySet())
 		{
-			if (getOwnedItems().stream().noneMatch(ownedItem ->
-			{
-				int ownedQuantity = ownedItem.getQuantity() - requestCounts.getOrDefault(ownedItem.getItemId(), 0);
-				return ownedItem.getItemId() == requiredItem.getItemId() && ownedQuantity >= requiredItem.getQuantity();
-			}))
+			int ownedQuantity = ownedQuantities.getOrDefault(required.getKey(), 0) - requestCounts.getOrDefault(required.getKey(), 0);
+			if (ownedQuantity < required.getValue())
 			{
 				return false;
 			}
@@ -69,6 +231,10 @@ public class Client
 		return true;
 	}
 
+	/**
+	 * Recomputes {@link #getRemainingItems()} from scratch over the given requests, bypassing the reservation
+	 * ledger. Only used to cross-check the ledger.
+	 */
 	public List<OwnedItem> getRemainingItems(List<Request> requests)
 	{
 		Map<Integer, Integer> requestCounts = new HashMap<>();
@@ -97,13 +263,16 @@ public class Client
 		return String.format("Client-%d", connIndex);
 	}
 
+	/**
+	 * Both sides are expected to be normalized with {@link GroupIndex#normalizeGroups(String)}.
+	 */
 	public boolean isInGroup(String[] checkGroups)
 	{
 		for (String group : groups)
 		{
 			for (String checkGroup : checkGroups)
 			{
-				if (group.equalsIgnoreCase(checkGroup))
+				if (group.equals(checkGroup))
 				{
 					return true;
 				}
@@ -117,4 +286,10 @@ public class Client
 	{
 		return other instanceof Client && ((Client) other).connIndex == connIndex;
 	}
+
+	@Override
+	public int hashCode()
+	{
+		return Long.hashCode(connIndex);
+	}
 }
@@ -0,0 +1,102 @@
+package org.lostclient.muling;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index from normalized group name to the mules in that group, so matching only ever looks at the mules of the
+ * requesting bot's groups. Also indexes mules by world for listing. Only used from the server's engine thread.
+ */
+public class GroupIndex
+{
+	public static final String DEFAULT_GROUP = "default";
+
+	private final Map<String, Set<Client>> byGroup = new HashMap<>();
+	private final Map<Integer, Set<Client>> byWorld = new HashMap<>();
+	private final Set<Client> mules = new LinkedHashSet<>();
+
+	/**
+	 * Splits the raw comma separated groups handshake header into trimmed, lower case and interned group names so
+	 * group comparisons never need to ignore case again.
+	 */
+	public static String[] normalizeGroups(String groupsHeader)
+	{
+		Set<String> groups = new LinkedHashSet<>();
+		if (groupsHeader != null)
+		{
+			for (String group : groupsHeader.split(","))
+			{
+				String normalized = group.trim().toLowerCase(Locale.ROOT);
+				if (normalized.length() > 0)
+				{
+					groups.add(normalized.intern());
+				}
+			}
+		}
+		if (groups.isEmpty())
+		{
+			groups.add(DEFAULT_GROUP);
+		}
+		return groups.toArray(new String[0]);
+	}
+
+	public void add(Client mule)
+	{
+		mules.add(mule);
+		for (String group : mule.getGroups())
+		{
+			byGroup.computeIfAbsent(group, g -> new LinkedHashSet<>()).add(mule);
+		}
+		byWorld.computeIfAbsent(mule.getWorldId(), w -> new LinkedHashSet<>()).add(mule);
+	}
+
+	public void remove(Client mule)
+	{
+		mules.remove(mule);
+		for (String group : mule.getGroups())
+		{
+			Set<Client> groupMules = byGroup.get(group);
+			if (groupMules != null && groupMules.remove(mule) && groupMules.isEmpty())
+			{
+				byGroup.remove(group);
+			}
+		}
+		Set<Client> worldMules = byWorld.get(mule.getWorldId());
+		if (worldMules != null && worldMules.remove(mule) && worldMules.isEmpty())
+		{
+			byWorld.remove(mule.getWorldId());
+		}
+	}
+
+	/**
+	 * @return the mules that are in at least one of the given groups
+	 */
+	public Collection<Client> getMules(String[] groups)
+	{
+		if (groups.length == 1)
+		{
+			return Collections.unmodifiableSet(byGroup.getOrDefault(groups[0], Collections.emptySet()));
+		}
+		Set<Client> groupMules = new LinkedHashSet<>();
+		for (String group : groups)
+		{
+			groupMules.addAll(byGroup.getOrDefault(group, Collections.emptySet()));
+		}
+		return groupMules;
+	}
+
+	public Collection<Client> getMulesInWorld(int worldId)
+	{
+		return Collections.unmodifiableSet(byWorld.getOrDefault(worldId, Collections.emptySet()));
+	}
+
+	public Collection<Client> getMules()
+	{
+		return Collections.unmodifiableSet(mules);
+	}
+}
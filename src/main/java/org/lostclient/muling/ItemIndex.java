@@ -0,0 +1,186 @@
+package org.lostclient.muling;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Inverted index from item id to the mules that have some of it available, keyed by available quantity, so that
+ * matching a request only has to look at mules that hold its rarest required item in a large enough quantity.
+ * Only used from the server's engine thread.
+ */
+public class ItemIndex
+{
+	// item id -> available quantity -> mules with exactly that quantity available
+	private final Map<Integer, TreeMap<Integer, Set<Client>>> byItem = new HashMap<>();
+	private final Map<Integer, Integer> holderCounts = new HashMap<>();
+	// mule -> item id -> available quantity the mule is currently indexed under
+	private final Map<Client, Map<Integer, Integer>> indexed = new HashMap<>();
+
+	/**
+	 * Re-indexes every item the mule owns or was indexed under, used after a full inventory update.
+	 */
+	public void update(Client mule)
+	{
+		Set<Integer> itemIds = new HashSet<>(mule.getOwnedQuantities().keySet());
+		itemIds.addAll(indexed.getOrDefault(mule, Collections.emptyMap()).keySet());
+		for (int itemId : itemIds)
+		{
+			update(mule, itemId);
+		}
+	}
+
+	/**
+	 * Re-indexes the given items for the mule, used after its reservations for them changed.
+	 */
+	public void update(Client mule, List<RequiredItem> items)
+	{
+		if (items == null)
+		{
+			return;
+		}
+		for (RequiredItem item : items)
+		{
+			update(mule, item.getItemId());
+		}
+	}
+
+	public void remove(Client mule)
+	{
+		Map<Integer, Integer> quantities = indexed.remove(mule);
+		if (quantities == null)
+		{
+			return;
+		}
+		quantities.forEach((itemId, quantity) -> unindex(mule, itemId, quantity));
+	}
+
+	/**
+	 * @return every mule that has all of the required items available, found by walking the holders of the rarest
+	 * required item and checking the remaining items against each holder's ledger
+	 */
+	public List<Client> findCandidates(List<RequiredItem> requiredItems)
+	{
+		return findCandidates(requiredItems, null);
+	}
+
+	/**
+	 * @param within the mules to choose from, e.g. those of a group, or null for any mule. Whichever of them and the
+	 * holders of the rarest required item is smaller is walked, the other one only filters
+	 * @return every mule among {@code within} that has all of the required items available
+	 */
+	public List<Client> findCandidates(List<RequiredItem> requiredItems, Collection<Client> within)
+	{
+		RequiredItem rarest = null;
+		int rarestCount = Integer.MAX_VALUE;
+		for (RequiredItem requiredItem : requiredItems)
+		{
+			int count = holderCounts.getOrDefault(requiredItem.getItemId(), 0);
+			if (count == 0)
+			{
+				return Collections.emptyList();
+			}
+			if (count < rarestCount)
+			{
+				rarest = requiredItem;
+				rarestCount = count;
+			}
+		}
+
+		if (rarest == null || within != null && within.isEmpty())
+		{
+			return Collections.emptyList();
+		}
+
+		List<Client> candidates = new ArrayList<>();
+		if (within != null && within.size() < rarestCount)
+		{
+			for (Client mule : within)
+			{
+				if (mule.hasRequiredItems(requiredItems))
+				{
+					candidates.add(mule);
+				}
+			}
+			return candidates;
+		}
+
+		NavigableMap<Integer, Set<Client>> holders = byItem.get(rarest.getItemId()).tailMap(rarest.getQuantity(), true);
+		for (Collection<Client> mules : holders.values())
+		{
+			for (Client mule : mules)
+			{
+				if ((within == null || within.contains(mule)) && mule.hasRequiredItems(requiredItems))
+				{
+					candidates.add(mule);
+				}
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * Re-indexes a single item for the mule, used after the mule reported a new quantity for it.
+	 */
+	public void update(Client mule, int itemId)
+	{
+		int available = mule.getAvailableQuantity(itemId);
+		Map<Integer, Integer> quantities = indexed.computeIfAbsent(mule, m -> new HashMap<>());
+		Integer previous = quantities.get(itemId);
+		if (previous != null && previous == available)
+		{
+			return;
+		}
+
+		if (previous != null)
+		{
+			unindex(mule, itemId, previous);
+			quantities.remove(itemId);
+		}
+
+		if (available > 0)
+		{
+			byItem.computeIfAbsent(itemId, i -> new TreeMap<>())
+					.computeIfAbsent(available, q -> new LinkedHashSet<>())
+					.add(mule);
+			holderCounts.merge(itemId, 1, Integer::sum);
+			quantities.put(itemId, available);
+		}
+
+		if (quantities.isEmpty())
+		{
+			indexed.remove(mule);
+		}
+	}
+
+	private void unindex(Client mule, int itemId, int quantity)
+	{
+		TreeMap<Integer, Set<Client>> buckets = byItem.get(itemId);
+		if (buckets == null)
+		{
+			return;
+		}
+		Set<Client> mules = buckets.get(quantity);
+		if (mules == null || !mules.remove(mule))
+		{
+			return;
+		}
+		if (mules.isEmpty())
+		{
+			buckets.remove(quantity);
+		}
+		if (buckets.isEmpty())
+		{
+			byItem.remove(itemId);
+		}
+		holderCounts.computeIfPresent(itemId, (id, count) -> count > 1 ? count - 1 : null);
+	}
+}
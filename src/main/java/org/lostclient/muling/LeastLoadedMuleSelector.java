@@ -0,0 +1,30 @@
+package org.lostclient.muling;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Picks the eligible mule with the emptiest request queue. Without required items this walks the groups' load
+ * order, with them the item index has already narrowed the candidates down and only those are compared.
+ */
+public class LeastLoadedMuleSelector implements MuleSelector
+{
+	private final LoadIndex loadIndex;
+
+	public LeastLoadedMuleSelector(LoadIndex loadIndex)
+	{
+		this.loadIndex = loadIndex;
+	}
+
+	@Override
+	public Client select(String[] groups, List<RequiredItem> requiredItems, Collection<Client> candidates, Predicate<Client> eligible)
+	{
+		if (requiredItems.size() == 0)
+		{
+			return loadIndex.findLeastLoaded(groups, eligible);
+		}
+
+		return loadIndex.findLeastLoaded(candidates, eligible);
+	}
+}
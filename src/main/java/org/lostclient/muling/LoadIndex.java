@@ -0,0 +1,144 @@
+package org.lostclient.muling;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * Orders the mules of every group by how full their request queue is, so the least loaded eligible mule of a group
+ * is found in O(log n) as long as the least loaded ones are eligible. Mules without a queue limit count as empty
+ * and are ordered among themselves by their number of open requests. Only used from the server's engine thread.
+ */
+public class LoadIndex
+{
+	private final Map<String, TreeSet<Load>> byGroup = new HashMap<>();
+	// the key every mule is currently ordered by, it has to be removed with the exact key it was added with
+	private final Map<Client, Load> loads = new HashMap<>();
+
+	private static class Load implements Comparable<Load>
+	{
+		private final Client mule;
+		private final double fill;
+		private final int openRequests;
+
+		private Load(Client mule, int openRequests)
+		{
+			this.mule = mule;
+			this.fill = mule.getQueueSize() > 0 ? (double) openRequests / mule.getQueueSize() : 0D;
+			this.openRequests = openRequests;
+		}
+
+		@Override
+		public int compareTo(Load other)
+		{
+			int byFill = Double.compare(fill, other.fill);
+			if (byFill != 0)
+			{
+				return byFill;
+			}
+			int byRequests = Integer.compare(openRequests, other.openRequests);
+			return byRequests != 0 ? byRequests : Long.compare(mule.getConnIndex(), other.mule.getConnIndex());
+		}
+	}
+
+	public void add(Client mule)
+	{
+		update(mule, 0);
+	}
+
+	public void update(Client mule, int openRequests)
+	{
+		remove(mule);
+		Load load = new Load(mule, openRequests);
+		loads.put(mule, load);
+		for (String group : mule.getGroups())
+		{
+			byGroup.computeIfAbsent(group, g -> new TreeSet<>()).add(load);
+		}
+	}
+
+	public void remove(Client mule)
+	{
+		Load load = loads.remove(mule);
+		if (load == null)
+		{
+			return;
+		}
+		for (String group : mule.getGroups())
+		{
+			TreeSet<Load> groupLoads = byGroup.get(group);
+			if (groupLoads != null && groupLoads.remove(load) && groupLoads.isEmpty())
+			{
+				byGroup.remove(group);
+			}
+		}
+	}
+
+	/**
+	 * @return the least loaded mule of the given groups that is eligible, or null if none is
+	 */
+	public Client findLeastLoaded(String[] groups, Predicate<Client> eligible)
+	{
+		Load best = null;
+		for (String group : groups)
+		{
+			TreeSet<Load> groupLoads = byGroup.get(group);
+			if (groupLoads == null)
+			{
+				continue;
+			}
+			for (Load load : groupLoads)
+			{
+				// the rest of this group is loaded at least as much as the best one found so far
+				if (best != null && load.compareTo(best) >= 0)
+				{
+					break;
+				}
+				if (eligible.test(load.mule))
+				{
+					best = load;
+					break;
+				}
+			}
+		}
+		return best != null ? best.mule : null;
+	}
+
+	/**
+	 * @return the least loaded of the given mules that is eligible, or null if none is. Mules that aren't indexed
+	 * are skipped, like they are when walking the groups
+	 */
+	public Client findLeastLoaded(Collection<Client> candidates, Predicate<Client> eligible)
+	{
+		Load best = null;
+		for (Client mule : candidates)
+		{
+			Load load = loads.get(mule);
+			if (load != null && (best == null || load.compareTo(best) < 0) && eligible.test(mule))
+			{
+				best = load;
+			}
+		}
+		return best != null ? best.mule : null;
+	}
+
+	/**
+	 * Orders mules by load, mules that aren't indexed come after all that are.
+	 */
+	public int compare(Client first, Client second)
+	{
+		Load firstLoad = loads.get(first);
+		Load secondLoad = loads.get(second);
+		if (firstLoad == null || secondLoad == null)
+		{
+			if (firstLoad != secondLoad)
+			{
+				return firstLoad == null ? 1 : -1;
+			}
+			return Long.compare(first.getConnIndex(), second.getConnIndex());
+		}
+		return firstLoad.compareTo(secondLoad);
+	}
+}
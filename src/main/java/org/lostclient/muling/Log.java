@@ -1,31 +1,231 @@
 package org.lostclient.muling;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
+/**
+ * Asynchronous logger. Callers only check the level, format the message if it is enabled and put it in a bounded
+ * ring buffer; a background thread adds the timestamp and writes batches of lines to stdout.
+ * <p>
+ * Configured with system properties:
+ * <ul>
+ *     <li>{@code lostmule.log.level} - lowest level that is logged, defaults to INFO</li>
+ *     <li>{@code lostmule.log.bufferSize} - number of lines the ring buffer holds, defaults to 8192</li>
+ *     <li>{@code lostmule.log.block} - block callers while the buffer is full instead of dropping lines</li>
+ * </ul>
+ */
 public class Log
 {
-	private static final SimpleDateFormat formatter = new SimpleDateFormat("HH:mm:ss");
+	private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneId.systemDefault());
+
+	private static volatile Level level = Level.parse(System.getProperty("lostmule.log.level", "INFO"));
+	private static final boolean blockWhenFull = Boolean.getBoolean("lostmule.log.block");
+	private static final BlockingQueue<Entry> buffer = new ArrayBlockingQueue<>(Integer.getInteger("lostmule.log.bufferSize", 8192));
+	private static final AtomicLong dropped = new AtomicLong();
+	private static final Thread writerThread = new Thread(Log::writeLoop, "LogWriter");
+
+	static
+	{
+		writerThread.setDaemon(true);
+		writerThread.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "LogFlush"));
+	}
+
+	private static class Entry
+	{
+		private final long time;
+		private final Level level;
+		private final String prefix;
+		private final String message;
+		// only set on the marker flush() queues behind the lines it waits for, which isn't written itself
+		private final CountDownLatch flushed;
+
+		private Entry(Level level, String prefix, String message)
+		{
+			this.time = System.currentTimeMillis();
+			this.level = level;
+			this.prefix = prefix;
+			this.message = message;
+			this.flushed = null;
+		}
+
+		private Entry(CountDownLatch flushed)
+		{
+			this.time = System.currentTimeMillis();
+			this.level = null;
+			this.prefix = null;
+			this.message = null;
+			this.flushed = flushed;
+		}
+	}
+
+	public static void setLevel(Level level)
+	{
+		Log.level = level;
+	}
+
+	public static boolean isEnabled(Level level)
+	{
+		return level.intValue() >= Log.level.intValue();
+	}
 
 	public static void log(Level level, String prefix, Object logMsg)
 	{
-		logMessage(String.format("[%s] [%s - %s] %s", formatter.format(new Date()), level.getName(), prefix, logMsg));
+		if (isEnabled(level))
+		{
+			enqueue(new Entry(level, prefix, String.valueOf(logMsg)));
+		}
+	}
+
+	/**
+	 * Same as {@link #log(Level, String, Object)}, but the message is only formatted if the level is enabled.
+	 */
+	public static void log(Level level, String prefix, String format, Object... args)
+	{
+		if (isEnabled(level))
+		{
+			enqueue(new Entry(level, prefix, String.format(format, args)));
+		}
 	}
 
 	public static void log(Level level, Object logMsg)
 	{
-		logMessage(String.format("[%s] [%s] %s", formatter.format(new Date()), level.getName(), logMsg));
+		log(level, null, logMsg);
 	}
 
 	public static void log(String prefix, Object logMsg)
 	{
-		logMessage(String.format("[%s] [%s] %s", formatter.format(new Date()), prefix, logMsg));
+		if (isEnabled(Level.INFO))
+		{
+			enqueue(new Entry(null, prefix, String.valueOf(logMsg)));
+		}
+	}
+
+	private static void enqueue(Entry entry)
+	{
+		if (!blockWhenFull)
+		{
+			if (!buffer.offer(entry))
+			{
+				dropped.incrementAndGet();
+			}
+			return;
+		}
+
+		try
+		{
+			buffer.put(entry);
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void writeLoop()
+	{
+		Writer writer = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+		List<Entry> batch = new ArrayList<>();
+		while (true)
+		{
+			try
+			{
+				Entry first = buffer.poll(1, TimeUnit.SECONDS);
+				if (first == null)
+				{
+					continue;
+				}
+				batch.add(first);
+				buffer.drainTo(batch);
+				write(writer, batch);
+				batch.clear();
+			}
+			catch (InterruptedException ex)
+			{
+				// nothing interrupts the writer, it runs until the JVM exits
+			}
+			catch (IOException ex)
+			{
+				batch.clear();
+			}
+		}
+	}
+
+	private static void write(Writer writer, List<Entry> entries) throws IOException
+	{
+		try
+		{
+			long droppedCount = dropped.getAndSet(0);
+			if (droppedCount > 0)
+			{
+				writer.write(format(new Entry(Level.WARNING, "Log", "Dropped " + droppedCount + " log messages, buffer was full")));
+			}
+			for (Entry entry : entries)
+			{
+				if (entry.flushed == null)
+				{
+					writer.write(format(entry));
+				}
+			}
+			writer.flush();
+		}
+		finally
+		{
+			for (Entry entry : entries)
+			{
+				if (entry.flushed != null)
+				{
+					entry.flushed.countDown();
+				}
+			}
+		}
+	}
+
+	private static String format(Entry entry)
+	{
+		String time = formatter.format(Instant.ofEpochMilli(entry.time));
+		if (entry.level == null)
+		{
+			return String.format("[%s] [%s] %s%n", time, entry.prefix, entry.message);
+		}
+		if (entry.prefix == null)
+		{
+			return String.format("[%s] [%s] %s%n", time, entry.level.getName(), entry.message);
+		}
+		return String.format("[%s] [%s - %s] %s%n", time, entry.level.getName(), entry.prefix, entry.message);
 	}
 
-	private static void logMessage(String message)
+	/**
+	 * Waits up to a second for the writer to write every line logged before the call, along with how many lines were
+	 * dropped. Used on shutdown, the writer keeps running for whatever is logged afterwards.
+	 */
+	public static void flush()
 	{
-		System.out.println(message);
+		CountDownLatch flushed = new CountDownLatch(1);
+		try
+		{
+			if (buffer.offer(new Entry(flushed), 1, TimeUnit.SECONDS))
+			{
+				flushed.await(1, TimeUnit.SECONDS);
+			}
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+		}
 	}
 
 	public static void info(String prefix, Object logMsg)
@@ -33,16 +233,31 @@ public class Log
 		log(Level.INFO, prefix, logMsg);
 	}
 
+	public static void info(String prefix, String format, Object... args)
+	{
+		log(Level.INFO, prefix, format, args);
+	}
+
 	public static void severe(String prefix, Object logMsg)
 	{
 		log(Level.SEVERE, prefix, logMsg);
 	}
 
+	public static void severe(String prefix, String format, Object... args)
+	{
+		log(Level.SEVERE, prefix, format, args);
+	}
+
 	public static void fine(String prefix, Object logMsg)
 	{
 		log(Level.FINE, prefix, logMsg);
 	}
 
+	public static void fine(String prefix, String format, Object... args)
+	{
+		log(Level.FINE, prefix, format, args);
+	}
+
 	public static void info(Object logMsg)
 	{
 		log(Level.INFO, logMsg);
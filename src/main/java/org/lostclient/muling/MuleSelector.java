@@ -0,0 +1,36 @@
+package org.lostclient.muling;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Picks the mule a request is assigned to. Which selector a bot gets is configured per group with the
+ * {@code lostmule.selector.<group>} system property, falling back to {@code lostmule.selector} and then to random.
+ */
+public interface MuleSelector
+{
+	/**
+	 * @param groups the requesting bot's groups
+	 * @param requiredItems the items the request needs, may be empty
+	 * @param candidates every mule that may be eligible, a superset of the eligible ones
+	 * @param eligible whether a mule can take the request
+	 * @return the selected mule, or null if none is eligible
+	 */
+	Client select(String[] groups, List<RequiredItem> requiredItems, Collection<Client> candidates, Predicate<Client> eligible);
+
+	static MuleSelector create(String name, LoadIndex loadIndex)
+	{
+		switch (name)
+		{
+			case "random":
+				return new RandomMuleSelector();
+			case "least-loaded":
+				return new LeastLoadedMuleSelector(loadIndex);
+			case "best-fit":
+				return new BestFitMuleSelector(loadIndex);
+			default:
+				throw new IllegalArgumentException("Unknown mule selector: " + name);
+		}
+	}
+}
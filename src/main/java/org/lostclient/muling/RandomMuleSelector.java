@@ -0,0 +1,30 @@
+package org.lostclient.muling;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Picks any eligible mule with equal chance, regardless of load.
+ */
+public class RandomMuleSelector implements MuleSelector
+{
+	@Override
+	public Client select(String[] groups, List<RequiredItem> requiredItems, Collection<Client> candidates, Predicate<Client> eligible)
+	{
+		List<Client> validMules = new ArrayList<>();
+		for (Client muleClient : candidates)
+		{
+			if (eligible.test(muleClient))
+			{
+				validMules.add(muleClient);
+			}
+		}
+		if (validMules.size() == 0)
+		{
+			return null;
+		}
+		return validMules.get(Random.asInt(0, validMules.size() - 1));
+	}
+}
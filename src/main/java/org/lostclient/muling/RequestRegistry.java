@@ -0,0 +1,171 @@
+package org.lostclient.muling;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Holds every open {@link Request} indexed by request id, by the requesting bot's player name and by the
+ * clients (bot and mule) taking part in it, so that every lookup the server does is O(1). Adding and removing a
+ * request also keeps the assigned mule's reservation ledger up to date. Only used from the server's engine thread.
+ */
+public class RequestRegistry
+{
+	public interface Listener
+	{
+		void onRequestAdded(Request request);
+
+		void onRequestRemoved(Request request);
+	}
+
+	private final Listener listener;
+	private final Map<String, Request> byRequestId = new HashMap<>();
+	private final Map<String, Request> byPlayerName = new HashMap<>();
+	private final Map<Client, Set<Request>> byMule = new HashMap<>();
+	private final Map<Client, Set<Request>> byClient = new HashMap<>();
+
+	public RequestRegistry(Listener listener)
+	{
+		this.listener = listener;
+	}
+
+	/**
+	 * Adds a new request, replacing any open request with the same id or from the same player.
+	 *
+	 * @return the requests that were replaced
+	 */
+	public List<Request> add(Request request)
+	{
+		List<Request> replaced = new ArrayList<>(2);
+
+		Request previous = byPlayerName.get(request.getMuleRequest().playerName);
+		if (previous != null && remove(previous))
+		{
+			replaced.add(previous);
+		}
+
+		previous = byRequestId.get(request.getMuleRequest().requestId);
+		if (previous != null && remove(previous))
+		{
+			replaced.add(previous);
+		}
+
+		byRequestId.put(request.getMuleRequest().requestId, request);
+		byPlayerName.put(request.getMuleRequest().playerName, request);
+		byClient.computeIfAbsent(request.getClient(), c -> new LinkedHashSet<>()).add(request);
+		if (request.getMule() != null)
+		{
+			byMule.computeIfAbsent(request.getMule(), c -> new LinkedHashSet<>()).add(request);
+			request.getMule().reserve(request.getMuleRequest().requiredItems);
+		}
+		listener.onRequestAdded(request);
+
+		return replaced;
+	}
+
+	/**
+	 * Marks the request as completed and drops it from every index.
+	 *
+	 * @return false if the request was not open
+	 */
+	public boolean complete(Request request)
+	{
+		return remove(request);
+	}
+
+	public Request getByRequestId(String requestId)
+	{
+		return requestId == null ? null : byRequestId.get(requestId);
+	}
+
+	public Request getByPlayerName(String playerName)
+	{
+		return playerName == null ? null : byPlayerName.get(playerName);
+	}
+
+	/**
+	 * @return a copy of the open requests assigned to the given mule
+	 */
+	public List<Request> getByMule(Client mule)
+	{
+		Set<Request> requests = byMule.get(mule);
+		return requests == null ? Collections.emptyList() : new ArrayList<>(requests);
+	}
+
+	public int countByMule(Client mule)
+	{
+		Set<Request> requests = byMule.get(mule);
+		return requests == null ? 0 : requests.size();
+	}
+
+	/**
+	 * Drops every open request the client takes part in, either as the requesting bot or as the assigned mule.
+	 *
+	 * @return the requests that were removed
+	 */
+	public List<Request> removeClient(Client client)
+	{
+		Set<Request> requests = new LinkedHashSet<>();
+		requests.addAll(byClient.getOrDefault(client, Collections.emptySet()));
+		requests.addAll(byMule.getOrDefault(client, Collections.emptySet()));
+
+		List<Request> removed = new ArrayList<>(requests.size());
+		for (Request request : requests)
+		{
+			if (remove(request))
+			{
+				removed.add(request);
+			}
+		}
+		return removed;
+	}
+
+	public int size()
+	{
+		return byRequestId.size();
+	}
+
+	public Collection<Request> getAll()
+	{
+		return new ArrayList<>(byRequestId.values());
+	}
+
+	private boolean remove(Request request)
+	{
+		if (byRequestId.get(request.getMuleRequest().requestId) != request)
+		{
+			return false;
+		}
+
+		byRequestId.remove(request.getMuleRequest().requestId);
+		byPlayerName.remove(request.getMuleRequest().playerName, request);
+		removeFrom(byClient, request.getClient(), request);
+		if (request.getMule() != null)
+		{
+			removeFrom(byMule, request.getMule(), request);
+			request.getMule().release(request.getMuleRequest().requiredItems);
+		}
+		request.setCompleted(true);
+		listener.onRequestRemoved(request);
+		return true;
+	}
+
+	private static void removeFrom(Map<Client, Set<Request>> index, Client key, Request request)
+	{
+		Set<Request> requests = index.get(key);
+		if (requests == null)
+		{
+			return;
+		}
+		requests.remove(request);
+		if (requests.isEmpty())
+		{
+			index.remove(key);
+		}
+	}
+}
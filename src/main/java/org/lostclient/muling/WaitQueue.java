@@ -0,0 +1,101 @@
+package org.lostclient.muling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Requests that could not be matched when they came in, waiting in one first in, first out queue per group of
+ * the requesting bot until a mule frees up or their timeout runs out. Only used from the server's engine thread.
+ */
+public class WaitQueue
+{
+	private final Map<String, Set<WaitingRequest>> byGroup = new HashMap<>();
+	private final Map<String, WaitingRequest> byPlayerName = new HashMap<>();
+	private final Map<Client, Set<WaitingRequest>> byClient = new HashMap<>();
+
+	public void add(WaitingRequest waiter)
+	{
+		WaitingRequest previous = byPlayerName.get(waiter.getMuleRequest().playerName);
+		if (previous != null)
+		{
+			remove(previous);
+		}
+
+		for (String group : waiter.getGroups())
+		{
+			byGroup.computeIfAbsent(group, g -> new LinkedHashSet<>()).add(waiter);
+		}
+		byPlayerName.put(waiter.getMuleRequest().playerName, waiter);
+		byClient.computeIfAbsent(waiter.getClient(), c -> new LinkedHashSet<>()).add(waiter);
+	}
+
+	/**
+	 * @return false if the waiter was not waiting anymore
+	 */
+	public boolean remove(WaitingRequest waiter)
+	{
+		if (waiter.isDone())
+		{
+			return false;
+		}
+		waiter.setDone(true);
+
+		for (String group : waiter.getGroups())
+		{
+			Set<WaitingRequest> groupWaitingRequests = byGroup.get(group);
+			if (groupWaitingRequests != null && groupWaitingRequests.remove(waiter) && groupWaitingRequests.isEmpty())
+			{
+				byGroup.remove(group);
+			}
+		}
+		byPlayerName.remove(waiter.getMuleRequest().playerName, waiter);
+		Set<WaitingRequest> clientWaitingRequests = byClient.get(waiter.getClient());
+		if (clientWaitingRequests != null && clientWaitingRequests.remove(waiter) && clientWaitingRequests.isEmpty())
+		{
+			byClient.remove(waiter.getClient());
+		}
+		return true;
+	}
+
+	public WaitingRequest getByPlayerName(String playerName)
+	{
+		return byPlayerName.get(playerName);
+	}
+
+	public List<WaitingRequest> removeClient(Client client)
+	{
+		Set<WaitingRequest> clientWaitingRequests = byClient.get(client);
+		if (clientWaitingRequests == null)
+		{
+			return Collections.emptyList();
+		}
+		List<WaitingRequest> removed = new ArrayList<>(clientWaitingRequests);
+		removed.forEach(this::remove);
+		return removed;
+	}
+
+	/**
+	 * @return a copy of the group's waiters, longest waiting first
+	 */
+	public List<WaitingRequest> getWaiting(String group)
+	{
+		Set<WaitingRequest> groupWaitingRequests = byGroup.get(group);
+		return groupWaitingRequests == null ? Collections.emptyList() : new ArrayList<>(groupWaitingRequests);
+	}
+
+	public int size()
+	{
+		return byPlayerName.size();
+	}
+
+	public int size(String group)
+	{
+		Set<WaitingRequest> groupWaitingRequests = byGroup.get(group);
+		return groupWaitingRequests == null ? 0 : groupWaitingRequests.size();
+	}
+}
@@ -0,0 +1,19 @@
+package org.lostclient.muling;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import org.lostclient.muling.messages.client.MuleRequestMessage;
+
+@Getter
+@RequiredArgsConstructor
+public class WaitingRequest
+{
+	private final Client client;
+	private final String[] groups;
+	private final MuleRequestMessage muleRequest;
+
+	// matched, timed out or cancelled
+	@Setter
+	private boolean done;
+}
@@ -1,8 +1,8 @@
 package org.lostclient.muling.messages;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import lombok.AllArgsConstructor;
+import org.lostclient.muling.messages.codec.JsonCodec;
 
 @AllArgsConstructor
 abstract public class AbstractMessage
@@ -11,7 +11,7 @@ abstract public class AbstractMessage
 
     public JsonElement toJson()
     {
-        return (new Gson()).toJsonTree(this);
+        return JsonCodec.GSON.toJsonTree(this);
     }
 }
 
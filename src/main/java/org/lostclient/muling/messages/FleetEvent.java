@@ -0,0 +1,25 @@
+package org.lostclient.muling.messages;
+
+import lombok.ToString;
+import lombok.Value;
+
+/**
+ * A change to one mule pushed to fleet subscribers. Only the latest change of each mule within a flush window is
+ * sent, so {@code mule} is always its current record, and null once it disconnected.
+ */
+@Value
+@ToString
+public class FleetEvent
+{
+	// the binary protocol sends these by ordinal, so new types must only ever be appended
+	public enum Type
+	{
+		CONNECTED,
+		UPDATED,
+		DISCONNECTED
+	}
+
+	public Type type;
+	public String playerName;
+	public Mule mule;
+}
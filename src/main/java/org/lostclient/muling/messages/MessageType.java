@@ -1,5 +1,8 @@
 package org.lostclient.muling.messages;
 
+/**
+ * The binary protocol sends these by ordinal, so new types must only ever be appended.
+ */
 public enum MessageType
 {
     REGISTER_REQUEST,
@@ -12,5 +15,14 @@ public enum MessageType
     OWNED_ITEMS_UPDATE,
     UNKNOWN_TRADER,
     LIST_MULES_REQUEST,
-    LIST_MULES_RESPONSE;
+    LIST_MULES_RESPONSE,
+    OWNED_ITEMS_DELTA,
+    OWNED_ITEMS_RESYNC,
+    FLEET_SUBSCRIBE,
+    FLEET_UNSUBSCRIBE,
+    FLEET_EVENTS,
+    METRICS_REQUEST,
+    METRICS_RESPONSE,
+    SESSION,
+    RATE_LIMITED;
 }
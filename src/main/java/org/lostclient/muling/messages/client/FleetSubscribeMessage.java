@@ -0,0 +1,16 @@
+package org.lostclient.muling.messages.client;
+
+import org.lostclient.muling.messages.AbstractMessage;
+import org.lostclient.muling.messages.MessageType;
+
+/**
+ * Answered with a LIST_MULES_RESPONSE snapshot, followed by FLEET_EVENTS whenever mules change until the client
+ * unsubscribes or disconnects.
+ */
+public class FleetSubscribeMessage extends AbstractMessage
+{
+	public FleetSubscribeMessage()
+	{
+		super(MessageType.FLEET_SUBSCRIBE);
+	}
+}
@@ -0,0 +1,12 @@
+package org.lostclient.muling.messages.client;
+
+import org.lostclient.muling.messages.AbstractMessage;
+import org.lostclient.muling.messages.MessageType;
+
+public class FleetUnsubscribeMessage extends AbstractMessage
+{
+	public FleetUnsubscribeMessage()
+	{
+		super(MessageType.FLEET_UNSUBSCRIBE);
+	}
+}
@@ -1,12 +1,66 @@
 package org.lostclient.muling.messages.client;
 
+import org.lostclient.muling.RequiredItem;
 import org.lostclient.muling.messages.AbstractMessage;
 import org.lostclient.muling.messages.MessageType;
 
+import java.util.List;
+
+/**
+ * Every filter is optional, a request without any gets the full list of mules.
+ */
 public class ListMulesRequestMessage extends AbstractMessage
 {
+	// only mules in this group
+	public final String group;
+	// only mules on this world, 0 for any world
+	public final int world;
+	// only members or only non-members, null for both
+	public final Boolean member;
+	// only mules with at least this many free request slots, mules without a queue limit always qualify
+	public final int minFreeQueue;
+	// only mules that have all of these items available
+	public final List<RequiredItem> requiredItems;
+	// leave out ownedItems and remainingItems of every mule
+	public final boolean omitItems;
+	// nextCursor of the previous page, 0 for the first page
+	public final long cursor;
+	// maximum number of mules in one page, 0 for all of them
+	public final int limit;
+	// echoed in the response, so a client with several lists in flight can tell the responses apart. May be null
+	public final String requestId;
+
 	public ListMulesRequestMessage()
+	{
+		this(null, 0, null, 0, null, false, 0L, 0);
+	}
+
+	public ListMulesRequestMessage(String group, int world, Boolean member, int minFreeQueue, List<RequiredItem> requiredItems, boolean omitItems, long cursor, int limit)
+	{
+		this(group, world, member, minFreeQueue, requiredItems, omitItems, cursor, limit, null);
+	}
+
+	public ListMulesRequestMessage(String group, int world, Boolean member, int minFreeQueue, List<RequiredItem> requiredItems, boolean omitItems, long cursor, int limit, String requestId)
 	{
 		super(MessageType.LIST_MULES_REQUEST);
+		this.group = group;
+		this.world = world;
+		this.member = member;
+		this.minFreeQueue = minFreeQueue;
+		this.requiredItems = requiredItems;
+		this.omitItems = omitItems;
+		this.cursor = cursor;
+		this.limit = limit;
+		this.requestId = requestId;
+	}
+
+	/**
+	 * @return true if this asks for the complete, unfiltered list of mules without a request id to echo, which every
+	 * such request gets the same response to
+	 */
+	public boolean isUnfiltered()
+	{
+		return requestId == null && group == null && world == 0 && member == null && minFreeQueue <= 0
+				&& (requiredItems == null || requiredItems.isEmpty()) && !omitItems && cursor == 0 && limit <= 0;
 	}
 }
@@ -0,0 +1,12 @@
+package org.lostclient.muling.messages.client;
+
+import org.lostclient.muling.messages.AbstractMessage;
+import org.lostclient.muling.messages.MessageType;
+
+public class MetricsRequestMessage extends AbstractMessage
+{
+	public MetricsRequestMessage()
+	{
+		super(MessageType.METRICS_REQUEST);
+	}
+}
@@ -16,8 +16,15 @@ public class MuleRequestMessage extends AbstractMessage
 	public final List<RequiredItem> requiredItems;
 	public final List<OfferedItem> offeredItems;
 	public final String muleName;
+	// milliseconds to wait for a mule if none is free right now, 0 to fail straight away
+	public final long waitTimeout;
 
 	public MuleRequestMessage(String requestId, long requestedAt, String playerName, boolean hasMembership, List<RequiredItem> requiredItems, List<OfferedItem> offeredItems, String muleName)
+	{
+		this(requestId, requestedAt, playerName, hasMembership, requiredItems, offeredItems, muleName, 0L);
+	}
+
+	public MuleRequestMessage(String requestId, long requestedAt, String playerName, boolean hasMembership, List<RequiredItem> requiredItems, List<OfferedItem> offeredItems, String muleName, long waitTimeout)
 	{
 		super(MessageType.MULE_REQUEST);
 		this.requestId = requestId;
@@ -27,5 +34,6 @@ public class MuleRequestMessage extends AbstractMessage
 		this.requiredItems = requiredItems;
 		this.offeredItems = offeredItems;
 		this.muleName = muleName;
+		this.waitTimeout = waitTimeout;
 	}
 }
@@ -0,0 +1,22 @@
+package org.lostclient.muling.messages.client;
+
+import org.lostclient.muling.messages.AbstractMessage;
+import org.lostclient.muling.messages.MessageType;
+import org.lostclient.muling.messages.OwnedItem;
+
+import java.util.List;
+
+public class OwnedItemsDeltaMessage extends AbstractMessage
+{
+	// must be exactly one more than the sequence of the previous update or delta
+	public final long sequence;
+	// new total quantity of every item that changed, zero if the item is gone
+	public final List<OwnedItem> changedItems;
+
+	public OwnedItemsDeltaMessage(long sequence, List<OwnedItem> changedItems)
+	{
+		super(MessageType.OWNED_ITEMS_DELTA);
+		this.sequence = sequence;
+		this.changedItems = changedItems;
+	}
+}
@@ -9,10 +9,18 @@ import java.util.List;
 public class OwnedItemsUpdateMessage extends AbstractMessage
 {
 	public final List<OwnedItem> ownedItems;
+	// sequence the following OWNED_ITEMS_DELTA messages continue from
+	public final long sequence;
 
 	public OwnedItemsUpdateMessage(List<OwnedItem> ownedItems)
+	{
+		this(ownedItems, 0L);
+	}
+
+	public OwnedItemsUpdateMessage(List<OwnedItem> ownedItems, long sequence)
 	{
 		super(MessageType.OWNED_ITEMS_UPDATE);
 		this.ownedItems = ownedItems;
+		this.sequence = sequence;
 	}
 }
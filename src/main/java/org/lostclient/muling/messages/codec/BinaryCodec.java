@@ -0,0 +1,465 @@
+package org.lostclient.muling.messages.codec;
+
+import org.lostclient.muling.OfferedItem;
+import org.lostclient.muling.RequiredItem;
+import org.lostclient.muling.messages.AbstractMessage;
+import org.lostclient.muling.messages.FleetEvent;
+import org.lostclient.muling.messages.MessageType;
+import org.lostclient.muling.messages.Mule;
+import org.lostclient.muling.messages.MuleTile;
+import org.lostclient.muling.messages.OwnedItem;
+import org.lostclient.muling.messages.client.FleetSubscribeMessage;
+import org.lostclient.muling.messages.client.FleetUnsubscribeMessage;
+import org.lostclient.muling.messages.client.ListMulesRequestMessage;
+import org.lostclient.muling.messages.client.MetricsRequestMessage;
+import org.lostclient.muling.messages.client.MuleRequestMessage;
+import org.lostclient.muling.messages.client.OwnedItemsDeltaMessage;
+import org.lostclient.muling.messages.client.OwnedItemsUpdateMessage;
+import org.lostclient.muling.messages.client.TradeCompletedMessage;
+import org.lostclient.muling.messages.client.TradeRequestMessage;
+import org.lostclient.muling.messages.client.UnknownTraderMessage;
+import org.lostclient.muling.messages.server.FleetEventsMessage;
+import org.lostclient.muling.messages.server.ListMulesResponseMessage;
+import org.lostclient.muling.messages.server.MetricsResponseMessage;
+import org.lostclient.muling.messages.server.MuleResponseMessage;
+import org.lostclient.muling.messages.server.OwnedItemsResyncMessage;
+import org.lostclient.muling.messages.server.RateLimitedMessage;
+import org.lostclient.muling.messages.server.SessionMessage;
+import org.lostclient.muling.messages.server.TradeResponseMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Compact binary encoding of {@link AbstractMessage}s for connections that negotiated {@link Protocol#BINARY}.
+ * A message is its {@link MessageType} ordinal as a varint followed by its fields in declaration order, with item
+ * lists packed as varint item id and zig-zag varint quantity pairs.
+ */
+public final class BinaryCodec
+{
+	private static final MessageType[] TYPES = MessageType.values();
+	private static final FleetEvent.Type[] FLEET_EVENT_TYPES = FleetEvent.Type.values();
+
+	private static final ThreadLocal<BinaryWriter> buffers = ThreadLocal.withInitial(() -> new BinaryWriter(1024));
+
+	private BinaryCodec()
+	{
+	}
+
+	public static ByteBuffer encode(AbstractMessage message)
+	{
+		BinaryWriter out = buffers.get();
+		out.reset();
+		out.writeVarInt(message.type.ordinal());
+
+		switch (message.type)
+		{
+			case MULE_REQUEST:
+			{
+				MuleRequestMessage muleRequest = (MuleRequestMessage) message;
+				out.writeString(muleRequest.requestId);
+				out.writeSignedVarLong(muleRequest.requestedAt);
+				out.writeString(muleRequest.playerName);
+				out.writeBoolean(muleRequest.hasMembership);
+				writeItems(out, muleRequest.requiredItems, RequiredItem::getItemId, RequiredItem::getQuantity);
+				writeItems(out, muleRequest.offeredItems, OfferedItem::getItemId, OfferedItem::getQuantity);
+				out.writeString(muleRequest.muleName);
+				out.writeSignedVarLong(muleRequest.waitTimeout);
+			}
+			break;
+
+			case MULE_RESPONSE:
+			{
+				MuleResponseMessage muleResponse = (MuleResponseMessage) message;
+				out.writeBoolean(muleResponse.success);
+				out.writeString(muleResponse.errorMessage);
+				out.writeSignedVarInt(muleResponse.world);
+				writeTile(out, muleResponse.location);
+			}
+			break;
+
+			case TRADE_REQUEST:
+				out.writeString(((TradeRequestMessage) message).requestId);
+				break;
+
+			case TRADE_RESPONSE:
+			{
+				TradeResponseMessage tradeResponse = (TradeResponseMessage) message;
+				out.writeBoolean(tradeResponse.success);
+				out.writeString(tradeResponse.errorMessage);
+				out.writeString(tradeResponse.requestId);
+				out.writeString(tradeResponse.playerName);
+			}
+			break;
+
+			case TRADE_COMPLETED:
+			{
+				TradeCompletedMessage tradeCompleted = (TradeCompletedMessage) message;
+				out.writeBoolean(tradeCompleted.success);
+				out.writeString(tradeCompleted.reason);
+				out.writeString(tradeCompleted.requestId);
+			}
+			break;
+
+			case OWNED_ITEMS_UPDATE:
+			{
+				OwnedItemsUpdateMessage ownedItemsUpdate = (OwnedItemsUpdateMessage) message;
+				writeItems(out, ownedItemsUpdate.ownedItems, OwnedItem::getItemId, OwnedItem::getQuantity);
+				out.writeVarLong(ownedItemsUpdate.sequence);
+			}
+			break;
+
+			case UNKNOWN_TRADER:
+				out.writeString(((UnknownTraderMessage) message).playerName);
+				break;
+
+			case LIST_MULES_REQUEST:
+			{
+				ListMulesRequestMessage listMulesRequest = (ListMulesRequestMessage) message;
+				out.writeString(listMulesRequest.group);
+				out.writeSignedVarInt(listMulesRequest.world);
+				out.writeBoolean(listMulesRequest.member != null);
+				out.writeBoolean(listMulesRequest.member != null && listMulesRequest.member);
+				out.writeSignedVarInt(listMulesRequest.minFreeQueue);
+				writeItems(out, listMulesRequest.requiredItems, RequiredItem::getItemId, RequiredItem::getQuantity);
+				out.writeBoolean(listMulesRequest.omitItems);
+				out.writeVarLong(listMulesRequest.cursor);
+				out.writeSignedVarInt(listMulesRequest.limit);
+				out.writeString(listMulesRequest.requestId);
+			}
+			break;
+
+			case LIST_MULES_RESPONSE:
+			{
+				ListMulesResponseMessage listMulesResponse = (ListMulesResponseMessage) message;
+				out.writeBoolean(listMulesResponse.success);
+				out.writeString(listMulesResponse.errorMessage);
+				writeMules(out, listMulesResponse.mules);
+				out.writeVarLong(listMulesResponse.nextCursor);
+				out.writeString(listMulesResponse.requestId);
+			}
+			break;
+
+			case OWNED_ITEMS_DELTA:
+			{
+				OwnedItemsDeltaMessage ownedItemsDelta = (OwnedItemsDeltaMessage) message;
+				out.writeVarLong(ownedItemsDelta.sequence);
+				writeItems(out, ownedItemsDelta.changedItems, OwnedItem::getItemId, OwnedItem::getQuantity);
+			}
+			break;
+
+			case OWNED_ITEMS_RESYNC:
+			{
+				OwnedItemsResyncMessage ownedItemsResync = (OwnedItemsResyncMessage) message;
+				out.writeVarLong(ownedItemsResync.expectedSequence);
+				out.writeVarLong(ownedItemsResync.receivedSequence);
+			}
+			break;
+
+			case FLEET_SUBSCRIBE:
+			case FLEET_UNSUBSCRIBE:
+			case METRICS_REQUEST:
+				break;
+
+			case METRICS_RESPONSE:
+				out.writeString(((MetricsResponseMessage) message).metrics);
+				break;
+
+			case SESSION:
+			{
+				SessionMessage session = (SessionMessage) message;
+				out.writeString(session.sessionToken);
+				out.writeBoolean(session.resumed);
+			}
+			break;
+
+			case RATE_LIMITED:
+			{
+				RateLimitedMessage rateLimited = (RateLimitedMessage) message;
+				out.writeBoolean(rateLimited.requestType != null);
+				if (rateLimited.requestType != null)
+				{
+					out.writeVarInt(rateLimited.requestType.ordinal());
+				}
+				out.writeVarLong(rateLimited.retryAfterMillis);
+				out.writeString(rateLimited.errorMessage);
+			}
+			break;
+
+			case FLEET_EVENTS:
+				writeFleetEvents(out, ((FleetEventsMessage) message).events);
+				break;
+
+			default:
+				throw new IllegalArgumentException("No binary encoding for message type " + message.type);
+		}
+
+		return out.toByteBuffer();
+	}
+
+	/**
+	 * @return the decoded message, or null if it has no known type
+	 */
+	public static AbstractMessage decode(ByteBuffer buffer) throws IOException
+	{
+		BinaryReader in = new BinaryReader(buffer);
+		int ordinal = in.readVarInt();
+		if (ordinal < 0 || ordinal >= TYPES.length)
+		{
+			return null;
+		}
+
+		switch (TYPES[ordinal])
+		{
+			case MULE_REQUEST:
+				return new MuleRequestMessage(
+						in.readString(),
+						in.readSignedVarLong(),
+						in.readString(),
+						in.readBoolean(),
+						readItems(in, RequiredItem::new),
+						readItems(in, OfferedItem::new),
+						in.readString(),
+						in.readSignedVarLong()
+				);
+
+			case MULE_RESPONSE:
+				return new MuleResponseMessage(in.readBoolean(), in.readString(), in.readSignedVarInt(), readTile(in));
+
+			case TRADE_REQUEST:
+				return new TradeRequestMessage(in.readString());
+
+			case TRADE_RESPONSE:
+				return new TradeResponseMessage(in.readBoolean(), in.readString(), in.readString(), in.readString());
+
+			case TRADE_COMPLETED:
+				return new TradeCompletedMessage(in.readBoolean(), in.readString(), in.readString());
+
+			case OWNED_ITEMS_UPDATE:
+				return new OwnedItemsUpdateMessage(readItems(in, OwnedItem::new), in.readVarLong());
+
+			case UNKNOWN_TRADER:
+				return new UnknownTraderMessage(in.readString());
+
+			case LIST_MULES_REQUEST:
+				return new ListMulesRequestMessage(
+						in.readString(),
+						in.readSignedVarInt(),
+						readOptionalBoolean(in),
+						in.readSignedVarInt(),
+						readItems(in, RequiredItem::new),
+						in.readBoolean(),
+						in.readVarLong(),
+						in.readSignedVarInt(),
+						in.readString()
+				);
+
+			case LIST_MULES_RESPONSE:
+				return new ListMulesResponseMessage(in.readBoolean(), in.readString(), readMules(in), in.readVarLong(), in.readString());
+
+			case OWNED_ITEMS_DELTA:
+				return new OwnedItemsDeltaMessage(in.readVarLong(), readItems(in, OwnedItem::new));
+
+			case OWNED_ITEMS_RESYNC:
+				return new OwnedItemsResyncMessage(in.readVarLong(), in.readVarLong());
+
+			case FLEET_SUBSCRIBE:
+				return new FleetSubscribeMessage();
+
+			case FLEET_UNSUBSCRIBE:
+				return new FleetUnsubscribeMessage();
+
+			case FLEET_EVENTS:
+				return new FleetEventsMessage(readFleetEvents(in));
+
+			case METRICS_REQUEST:
+				return new MetricsRequestMessage();
+
+			case METRICS_RESPONSE:
+				return new MetricsResponseMessage(in.readString());
+
+			case SESSION:
+				return new SessionMessage(in.readString(), in.readBoolean());
+
+			case RATE_LIMITED:
+			{
+				int requestType = in.readBoolean() ? in.readVarInt() : -1;
+				return new RateLimitedMessage(requestType >= 0 && requestType < TYPES.length ? TYPES[requestType] : null, in.readVarLong(), in.readString());
+			}
+
+			default:
+				return null;
+		}
+	}
+
+	private static <T> void writeItems(BinaryWriter out, List<T> items, ToIntFunction<T> itemId, ToIntFunction<T> quantity)
+	{
+		out.writeCount(items == null ? 0 : items.size(), items == null);
+		if (items == null)
+		{
+			return;
+		}
+		for (T item : items)
+		{
+			out.writeVarInt(itemId.applyAsInt(item));
+			out.writeSignedVarInt(quantity.applyAsInt(item));
+		}
+	}
+
+	private static <T> List<T> readItems(BinaryReader in, BiFunction<Integer, Integer, T> factory) throws IOException
+	{
+		int count = in.readCount();
+		if (count < 0)
+		{
+			return null;
+		}
+		List<T> items = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+		{
+			items.add(factory.apply(in.readVarInt(), in.readSignedVarInt()));
+		}
+		return items;
+	}
+
+	private static Boolean readOptionalBoolean(BinaryReader in) throws IOException
+	{
+		boolean present = in.readBoolean();
+		boolean value = in.readBoolean();
+		return present ? value : null;
+	}
+
+	private static void writeTile(BinaryWriter out, MuleTile tile)
+	{
+		out.writeBoolean(tile != null);
+		if (tile != null)
+		{
+			out.writeSignedVarInt(tile.getX());
+			out.writeSignedVarInt(tile.getY());
+			out.writeSignedVarInt(tile.getZ());
+		}
+	}
+
+	private static MuleTile readTile(BinaryReader in) throws IOException
+	{
+		if (!in.readBoolean())
+		{
+			return null;
+		}
+		return new MuleTile(in.readSignedVarInt(), in.readSignedVarInt(), in.readSignedVarInt());
+	}
+
+	private static void writeMules(BinaryWriter out, List<Mule> mules)
+	{
+		out.writeCount(mules == null ? 0 : mules.size(), mules == null);
+		if (mules == null)
+		{
+			return;
+		}
+		for (Mule mule : mules)
+		{
+			writeMule(out, mule);
+		}
+	}
+
+	private static void writeMule(BinaryWriter out, Mule mule)
+	{
+		out.writeString(mule.getPlayerName());
+		out.writeCount(mule.getGroups() == null ? 0 : mule.getGroups().length, mule.getGroups() == null);
+		if (mule.getGroups() != null)
+		{
+			for (String group : mule.getGroups())
+			{
+				out.writeString(group);
+			}
+		}
+		out.writeSignedVarInt(mule.getWorldId());
+		writeTile(out, mule.getTile());
+		out.writeBoolean(mule.isMember());
+		writeItems(out, mule.getOwnedItems(), OwnedItem::getItemId, OwnedItem::getQuantity);
+		writeItems(out, mule.getRemainingItems(), OwnedItem::getItemId, OwnedItem::getQuantity);
+		out.writeVarInt(mule.getQueueSize());
+		out.writeVarInt(mule.getRequestCount());
+	}
+
+	private static List<Mule> readMules(BinaryReader in) throws IOException
+	{
+		int count = in.readCount();
+		if (count < 0)
+		{
+			return null;
+		}
+		List<Mule> mules = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+		{
+			mules.add(readMule(in));
+		}
+		return mules;
+	}
+
+	private static Mule readMule(BinaryReader in) throws IOException
+	{
+		String playerName = in.readString();
+		int groupCount = in.readCount();
+		String[] groups = groupCount < 0 ? null : new String[groupCount];
+		for (int g = 0; g < groupCount; g++)
+		{
+			groups[g] = in.readString();
+		}
+		return new Mule(
+				playerName,
+				groups,
+				in.readSignedVarInt(),
+				readTile(in),
+				in.readBoolean(),
+				readItems(in, OwnedItem::new),
+				readItems(in, OwnedItem::new),
+				in.readVarInt(),
+				in.readVarInt()
+		);
+	}
+
+	private static void writeFleetEvents(BinaryWriter out, List<FleetEvent> events)
+	{
+		out.writeCount(events == null ? 0 : events.size(), events == null);
+		if (events == null)
+		{
+			return;
+		}
+		for (FleetEvent event : events)
+		{
+			out.writeVarInt(event.getType().ordinal());
+			out.writeString(event.getPlayerName());
+			out.writeBoolean(event.getMule() != null);
+			if (event.getMule() != null)
+			{
+				writeMule(out, event.getMule());
+			}
+		}
+	}
+
+	private static List<FleetEvent> readFleetEvents(BinaryReader in) throws IOException
+	{
+		int count = in.readCount();
+		if (count < 0)
+		{
+			return null;
+		}
+		List<FleetEvent> events = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+		{
+			int ordinal = in.readVarInt();
+			if (ordinal < 0 || ordinal >= FLEET_EVENT_TYPES.length)
+			{
+				throw new IOException("Unknown fleet event type " + ordinal);
+			}
+			String playerName = in.readString();
+			Mule mule = in.readBoolean() ? readMule(in) : null;
+			events.add(new FleetEvent(FLEET_EVENT_TYPES[ordinal], playerName, mule));
+		}
+		return events;
+	}
+}
@@ -0,0 +1,110 @@
+package org.lostclient.muling.messages.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the primitive encodings written by {@link BinaryWriter}.
+ */
+public class BinaryReader
+{
+	private final ByteBuffer buffer;
+
+	public BinaryReader(ByteBuffer buffer)
+	{
+		this.buffer = buffer;
+	}
+
+	public int readByte() throws IOException
+	{
+		if (!buffer.hasRemaining())
+		{
+			throw new IOException("Unexpected end of binary message");
+		}
+		return buffer.get() & 0xFF;
+	}
+
+	public boolean readBoolean() throws IOException
+	{
+		return readByte() != 0;
+	}
+
+	public int readVarInt() throws IOException
+	{
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7)
+		{
+			int b = readByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+			{
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	public long readVarLong() throws IOException
+	{
+		long value = 0;
+		for (int shift = 0; shift < 70; shift += 7)
+		{
+			int b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+			{
+				return value;
+			}
+		}
+		throw new IOException("Malformed varlong");
+	}
+
+	public int readSignedVarInt() throws IOException
+	{
+		int value = readVarInt();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	public long readSignedVarLong() throws IOException
+	{
+		long value = readVarLong();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	public String readString() throws IOException
+	{
+		int length = readVarInt();
+		if (length == 0)
+		{
+			return null;
+		}
+		length--;
+		if (length < 0 || length > buffer.remaining())
+		{
+			throw new IOException("String length " + length + " exceeds message size");
+		}
+		if (!buffer.hasArray())
+		{
+			byte[] utf8 = new byte[length];
+			buffer.get(utf8);
+			return new String(utf8, StandardCharsets.UTF_8);
+		}
+		String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + length);
+		return value;
+	}
+
+	/**
+	 * @return the collection size written by {@link BinaryWriter#writeCount(int, boolean)}, or -1 for null
+	 */
+	public int readCount() throws IOException
+	{
+		int count = readVarInt() - 1;
+		if (count < -1 || count > buffer.remaining())
+		{
+			throw new IOException("Collection size " + count + " exceeds message size");
+		}
+		return count;
+	}
+}
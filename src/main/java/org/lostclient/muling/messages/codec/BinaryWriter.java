@@ -0,0 +1,128 @@
+package org.lostclient.muling.messages.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer with the primitive encodings of the binary protocol: unsigned varints for ids, lengths and
+ * counts, zig-zag varints for values that can be negative, and length prefixed UTF-8 strings where a length of zero
+ * stands for null.
+ */
+public class BinaryWriter
+{
+	private byte[] bytes;
+	private int position;
+
+	public BinaryWriter(int capacity)
+	{
+		this.bytes = new byte[capacity];
+	}
+
+	public void reset()
+	{
+		position = 0;
+	}
+
+	public int size()
+	{
+		return position;
+	}
+
+	public ByteBuffer toByteBuffer()
+	{
+		return ByteBuffer.wrap(Arrays.copyOf(bytes, position));
+	}
+
+	/**
+	 * Copies the bytes written so far into the target buffer.
+	 */
+	public void writeTo(ByteBuffer target)
+	{
+		target.put(bytes, 0, position);
+	}
+
+	private void ensureCapacity(int extra)
+	{
+		if (position + extra > bytes.length)
+		{
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, position + extra));
+		}
+	}
+
+	public void writeByte(int value)
+	{
+		ensureCapacity(1);
+		bytes[position++] = (byte) value;
+	}
+
+	public void writeBoolean(boolean value)
+	{
+		writeByte(value ? 1 : 0);
+	}
+
+	public void writeVarInt(int value)
+	{
+		ensureCapacity(5);
+		while ((value & ~0x7F) != 0)
+		{
+			bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		bytes[position++] = (byte) value;
+	}
+
+	public void writeVarLong(long value)
+	{
+		ensureCapacity(10);
+		while ((value & ~0x7FL) != 0)
+		{
+			bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		bytes[position++] = (byte) value;
+	}
+
+	public void writeSignedVarInt(int value)
+	{
+		writeVarInt((value << 1) ^ (value >> 31));
+	}
+
+	public void writeSignedVarLong(long value)
+	{
+		writeVarLong((value << 1) ^ (value >> 63));
+	}
+
+	public void writeString(String value)
+	{
+		if (value == null)
+		{
+			writeVarInt(0);
+			return;
+		}
+		byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(utf8.length + 1);
+		ensureCapacity(utf8.length);
+		System.arraycopy(utf8, 0, bytes, position, utf8.length);
+		position += utf8.length;
+	}
+
+	/**
+	 * Appends the remaining bytes of the buffer as they are, without a length.
+	 */
+	public void writeBytes(ByteBuffer buffer)
+	{
+		int length = buffer.remaining();
+		ensureCapacity(length);
+		buffer.get(bytes, position, length);
+		position += length;
+	}
+
+	/**
+	 * Writes a collection size shifted by one, so that zero can stand for a null collection.
+	 */
+	public void writeCount(int count, boolean isNull)
+	{
+		writeVarInt(isNull ? 0 : count + 1);
+	}
+}
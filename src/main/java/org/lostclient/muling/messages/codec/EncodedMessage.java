@@ -0,0 +1,61 @@
+package org.lostclient.muling.messages.codec;
+
+import lombok.Getter;
+import org.lostclient.muling.messages.AbstractMessage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A message together with its encodings, each built the first time a connection using that protocol needs it and
+ * reused for every later send. Connections may encode on different threads, at worst they each build the same bytes.
+ */
+public class EncodedMessage
+{
+	@Getter
+	private final AbstractMessage message;
+	private volatile byte[] json;
+	private volatile byte[] binary;
+
+	public EncodedMessage(AbstractMessage message)
+	{
+		this.message = message;
+	}
+
+	/**
+	 * @return the UTF-8 bytes of the JSON encoding
+	 */
+	public byte[] getJson()
+	{
+		byte[] json = this.json;
+		if (json == null)
+		{
+			json = JsonCodec.encode(message).getBytes(StandardCharsets.UTF_8);
+			this.json = json;
+		}
+		return json;
+	}
+
+	public byte[] getBinary()
+	{
+		byte[] binary = this.binary;
+		if (binary == null)
+		{
+			ByteBuffer buffer = BinaryCodec.encode(message);
+			binary = new byte[buffer.remaining()];
+			buffer.get(binary);
+			this.binary = binary;
+		}
+		return binary;
+	}
+
+	public boolean isEncoded(Protocol protocol)
+	{
+		return (protocol == Protocol.BINARY ? binary : json) != null;
+	}
+
+	public byte[] get(Protocol protocol)
+	{
+		return protocol == Protocol.BINARY ? getBinary() : getJson();
+	}
+}
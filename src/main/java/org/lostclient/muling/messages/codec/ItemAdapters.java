@@ -0,0 +1,140 @@
+package org.lostclient.muling.messages.codec;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.lostclient.muling.OfferedItem;
+import org.lostclient.muling.RequiredItem;
+import org.lostclient.muling.messages.MuleTile;
+import org.lostclient.muling.messages.OwnedItem;
+
+import java.io.IOException;
+import java.util.function.BiFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Hand written adapters for the small value types that appear in large arrays, so Gson never falls back to
+ * reflection for them.
+ */
+final class ItemAdapters
+{
+	static final TypeAdapter<OwnedItem> OWNED_ITEM = new ItemAdapter<>(OwnedItem::new, OwnedItem::getItemId, OwnedItem::getQuantity);
+	static final TypeAdapter<RequiredItem> REQUIRED_ITEM = new ItemAdapter<>(RequiredItem::new, RequiredItem::getItemId, RequiredItem::getQuantity);
+	static final TypeAdapter<OfferedItem> OFFERED_ITEM = new ItemAdapter<>(OfferedItem::new, OfferedItem::getItemId, OfferedItem::getQuantity);
+	static final TypeAdapter<MuleTile> MULE_TILE = new MuleTileAdapter();
+
+	private ItemAdapters()
+	{
+	}
+
+	private static class ItemAdapter<T> extends TypeAdapter<T>
+	{
+		private final BiFunction<Integer, Integer, T> factory;
+		private final ToIntFunction<T> itemId;
+		private final ToIntFunction<T> quantity;
+
+		private ItemAdapter(BiFunction<Integer, Integer, T> factory, ToIntFunction<T> itemId, ToIntFunction<T> quantity)
+		{
+			this.factory = factory;
+			this.itemId = itemId;
+			this.quantity = quantity;
+		}
+
+		@Override
+		public void write(JsonWriter out, T value) throws IOException
+		{
+			if (value == null)
+			{
+				out.nullValue();
+				return;
+			}
+			out.beginObject();
+			out.name("itemId").value(itemId.applyAsInt(value));
+			out.name("quantity").value(quantity.applyAsInt(value));
+			out.endObject();
+		}
+
+		@Override
+		public T read(JsonReader in) throws IOException
+		{
+			if (in.peek() == JsonToken.NULL)
+			{
+				in.nextNull();
+				return null;
+			}
+			int itemId = 0;
+			int quantity = 0;
+			in.beginObject();
+			while (in.hasNext())
+			{
+				switch (in.nextName())
+				{
+					case "itemId":
+						itemId = in.nextInt();
+						break;
+					case "quantity":
+						quantity = in.nextInt();
+						break;
+					default:
+						in.skipValue();
+						break;
+				}
+			}
+			in.endObject();
+			return factory.apply(itemId, quantity);
+		}
+	}
+
+	private static class MuleTileAdapter extends TypeAdapter<MuleTile>
+	{
+		@Override
+		public void write(JsonWriter out, MuleTile value) throws IOException
+		{
+			if (value == null)
+			{
+				out.nullValue();
+				return;
+			}
+			out.beginObject();
+			out.name("x").value(value.getX());
+			out.name("y").value(value.getY());
+			out.name("z").value(value.getZ());
+			out.endObject();
+		}
+
+		@Override
+		public MuleTile read(JsonReader in) throws IOException
+		{
+			if (in.peek() == JsonToken.NULL)
+			{
+				in.nextNull();
+				return null;
+			}
+			int x = 0;
+			int y = 0;
+			int z = 0;
+			in.beginObject();
+			while (in.hasNext())
+			{
+				switch (in.nextName())
+				{
+					case "x":
+						x = in.nextInt();
+						break;
+					case "y":
+						y = in.nextInt();
+						break;
+					case "z":
+						z = in.nextInt();
+						break;
+					default:
+						in.skipValue();
+						break;
+				}
+			}
+			in.endObject();
+			return new MuleTile(x, y, z);
+		}
+	}
+}
@@ -0,0 +1,384 @@
+package org.lostclient.muling.messages.codec;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.lostclient.muling.OfferedItem;
+import org.lostclient.muling.RequiredItem;
+import org.lostclient.muling.messages.AbstractMessage;
+import org.lostclient.muling.messages.FleetEvent;
+import org.lostclient.muling.messages.MessageType;
+import org.lostclient.muling.messages.Mule;
+import org.lostclient.muling.messages.MuleTile;
+import org.lostclient.muling.messages.OwnedItem;
+import org.lostclient.muling.messages.client.FleetSubscribeMessage;
+import org.lostclient.muling.messages.client.FleetUnsubscribeMessage;
+import org.lostclient.muling.messages.client.ListMulesRequestMessage;
+import org.lostclient.muling.messages.client.MetricsRequestMessage;
+import org.lostclient.muling.messages.client.MuleRequestMessage;
+import org.lostclient.muling.messages.client.OwnedItemsDeltaMessage;
+import org.lostclient.muling.messages.client.OwnedItemsUpdateMessage;
+import org.lostclient.muling.messages.client.TradeCompletedMessage;
+import org.lostclient.muling.messages.client.TradeRequestMessage;
+import org.lostclient.muling.messages.client.UnknownTraderMessage;
+import org.lostclient.muling.messages.server.FleetEventsMessage;
+import org.lostclient.muling.messages.server.ListMulesResponseMessage;
+import org.lostclient.muling.messages.server.MetricsResponseMessage;
+import org.lostclient.muling.messages.server.MuleResponseMessage;
+import org.lostclient.muling.messages.server.OwnedItemsResyncMessage;
+import org.lostclient.muling.messages.server.RateLimitedMessage;
+import org.lostclient.muling.messages.server.SessionMessage;
+import org.lostclient.muling.messages.server.TradeResponseMessage;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * JSON encoding of {@link AbstractMessage}s. Uses one shared {@link Gson} with hand written adapters for the item
+ * types, decodes a message in a single streaming pass without building a tree, and encodes straight into a
+ * per-thread reusable buffer.
+ */
+public final class JsonCodec
+{
+	public static final Gson GSON = new GsonBuilder()
+			.registerTypeAdapter(OwnedItem.class, ItemAdapters.OWNED_ITEM)
+			.registerTypeAdapter(RequiredItem.class, ItemAdapters.REQUIRED_ITEM)
+			.registerTypeAdapter(OfferedItem.class, ItemAdapters.OFFERED_ITEM)
+			.registerTypeAdapter(MuleTile.class, ItemAdapters.MULE_TILE)
+			.create();
+
+	private static final TypeAdapter<List<OwnedItem>> OWNED_ITEMS = GSON.getAdapter(new TypeToken<List<OwnedItem>>() {});
+	private static final TypeAdapter<List<RequiredItem>> REQUIRED_ITEMS = GSON.getAdapter(new TypeToken<List<RequiredItem>>() {});
+	private static final TypeAdapter<List<OfferedItem>> OFFERED_ITEMS = GSON.getAdapter(new TypeToken<List<OfferedItem>>() {});
+	private static final TypeAdapter<List<Mule>> MULES = GSON.getAdapter(new TypeToken<List<Mule>>() {});
+	private static final TypeAdapter<List<FleetEvent>> FLEET_EVENTS = GSON.getAdapter(new TypeToken<List<FleetEvent>>() {});
+
+	private static final ThreadLocal<StringBuilderWriter> buffers = ThreadLocal.withInitial(StringBuilderWriter::new);
+
+	static
+	{
+		// build the reflective adapters of every message up front instead of on the first message
+		GSON.getAdapter(MuleRequestMessage.class);
+		GSON.getAdapter(TradeRequestMessage.class);
+		GSON.getAdapter(TradeCompletedMessage.class);
+		GSON.getAdapter(UnknownTraderMessage.class);
+		GSON.getAdapter(OwnedItemsUpdateMessage.class);
+		GSON.getAdapter(ListMulesRequestMessage.class);
+		GSON.getAdapter(MuleResponseMessage.class);
+		GSON.getAdapter(TradeResponseMessage.class);
+		GSON.getAdapter(ListMulesResponseMessage.class);
+		GSON.getAdapter(OwnedItemsDeltaMessage.class);
+		GSON.getAdapter(OwnedItemsResyncMessage.class);
+		GSON.getAdapter(FleetSubscribeMessage.class);
+		GSON.getAdapter(FleetUnsubscribeMessage.class);
+		GSON.getAdapter(FleetEventsMessage.class);
+		GSON.getAdapter(MetricsRequestMessage.class);
+		GSON.getAdapter(MetricsResponseMessage.class);
+		GSON.getAdapter(SessionMessage.class);
+		GSON.getAdapter(RateLimitedMessage.class);
+	}
+
+	private JsonCodec()
+	{
+	}
+
+	/**
+	 * Every field any message can carry. The {@code type} field may come in any position, so all fields are read
+	 * first and the message is built once the object has been consumed.
+	 */
+	private static class Fields
+	{
+		private MessageType type;
+		private String requestId;
+		private long requestedAt;
+		private String playerName;
+		private boolean hasMembership;
+		private List<RequiredItem> requiredItems;
+		private List<OfferedItem> offeredItems;
+		private String muleName;
+		private List<OwnedItem> ownedItems;
+		private boolean success;
+		private String reason;
+		private String errorMessage;
+		private int world;
+		private MuleTile location;
+		private List<Mule> mules;
+		private long sequence;
+		private List<OwnedItem> changedItems;
+		private long expectedSequence;
+		private long receivedSequence;
+		private List<FleetEvent> events;
+		private String group;
+		private Boolean member;
+		private int minFreeQueue;
+		private boolean omitItems;
+		private long cursor;
+		private int limit;
+		private long nextCursor;
+		private long waitTimeout;
+		private String metrics;
+		private String sessionToken;
+		private boolean resumed;
+		private MessageType requestType;
+		private long retryAfterMillis;
+	}
+
+	/**
+	 * @return the decoded message, or null if it has no known type
+	 */
+	public static AbstractMessage decode(String json) throws IOException
+	{
+		JsonReader in = new JsonReader(new StringReader(json));
+		Fields fields = new Fields();
+
+		in.beginObject();
+		while (in.hasNext())
+		{
+			String name = in.nextName();
+			if (in.peek() == JsonToken.NULL)
+			{
+				in.nextNull();
+				continue;
+			}
+			switch (name)
+			{
+				case "type":
+					fields.type = parseType(in.nextString());
+					break;
+				case "requestId":
+					fields.requestId = in.nextString();
+					break;
+				case "requestedAt":
+					fields.requestedAt = in.nextLong();
+					break;
+				case "playerName":
+					fields.playerName = in.nextString();
+					break;
+				case "hasMembership":
+					fields.hasMembership = in.nextBoolean();
+					break;
+				case "requiredItems":
+					fields.requiredItems = REQUIRED_ITEMS.read(in);
+					break;
+				case "offeredItems":
+					fields.offeredItems = OFFERED_ITEMS.read(in);
+					break;
+				case "muleName":
+					fields.muleName = in.nextString();
+					break;
+				case "ownedItems":
+					fields.ownedItems = OWNED_ITEMS.read(in);
+					break;
+				case "success":
+					fields.success = in.nextBoolean();
+					break;
+				case "reason":
+					fields.reason = in.nextString();
+					break;
+				case "errorMessage":
+					fields.errorMessage = in.nextString();
+					break;
+				case "world":
+					fields.world = in.nextInt();
+					break;
+				case "location":
+					fields.location = ItemAdapters.MULE_TILE.read(in);
+					break;
+				case "mules":
+					fields.mules = MULES.read(in);
+					break;
+				case "sequence":
+					fields.sequence = in.nextLong();
+					break;
+				case "changedItems":
+					fields.changedItems = OWNED_ITEMS.read(in);
+					break;
+				case "expectedSequence":
+					fields.expectedSequence = in.nextLong();
+					break;
+				case "receivedSequence":
+					fields.receivedSequence = in.nextLong();
+					break;
+				case "events":
+					fields.events = FLEET_EVENTS.read(in);
+					break;
+				case "group":
+					fields.group = in.nextString();
+					break;
+				case "member":
+					fields.member = in.nextBoolean();
+					break;
+				case "minFreeQueue":
+					fields.minFreeQueue = in.nextInt();
+					break;
+				case "omitItems":
+					fields.omitItems = in.nextBoolean();
+					break;
+				case "cursor":
+					fields.cursor = in.nextLong();
+					break;
+				case "limit":
+					fields.limit = in.nextInt();
+					break;
+				case "nextCursor":
+					fields.nextCursor = in.nextLong();
+					break;
+				case "waitTimeout":
+					fields.waitTimeout = in.nextLong();
+					break;
+				case "metrics":
+					fields.metrics = in.nextString();
+					break;
+				case "sessionToken":
+					fields.sessionToken = in.nextString();
+					break;
+				case "resumed":
+					fields.resumed = in.nextBoolean();
+					break;
+				case "requestType":
+					fields.requestType = parseType(in.nextString());
+					break;
+				case "retryAfterMillis":
+					fields.retryAfterMillis = in.nextLong();
+					break;
+				default:
+					in.skipValue();
+					break;
+			}
+		}
+		in.endObject();
+
+		return build(fields);
+	}
+
+	private static MessageType parseType(String type)
+	{
+		try
+		{
+			return MessageType.valueOf(type);
+		}
+		catch (IllegalArgumentException ex)
+		{
+			return null;
+		}
+	}
+
+	private static AbstractMessage build(Fields fields)
+	{
+		if (fields.type == null)
+		{
+			return null;
+		}
+
+		switch (fields.type)
+		{
+			case MULE_REQUEST:
+				return new MuleRequestMessage(fields.requestId, fields.requestedAt, fields.playerName, fields.hasMembership,
+						fields.requiredItems, fields.offeredItems, fields.muleName, fields.waitTimeout);
+			case MULE_RESPONSE:
+				return new MuleResponseMessage(fields.success, fields.errorMessage, fields.world, fields.location);
+			case TRADE_REQUEST:
+				return new TradeRequestMessage(fields.requestId);
+			case TRADE_RESPONSE:
+				return new TradeResponseMessage(fields.success, fields.errorMessage, fields.requestId, fields.playerName);
+			case TRADE_COMPLETED:
+				return new TradeCompletedMessage(fields.success, fields.reason, fields.requestId);
+			case OWNED_ITEMS_UPDATE:
+				return new OwnedItemsUpdateMessage(fields.ownedItems, fields.sequence);
+			case UNKNOWN_TRADER:
+				return new UnknownTraderMessage(fields.playerName);
+			case LIST_MULES_REQUEST:
+				return new ListMulesRequestMessage(fields.group, fields.world, fields.member, fields.minFreeQueue,
+						fields.requiredItems, fields.omitItems, fields.cursor, fields.limit, fields.requestId);
+			case LIST_MULES_RESPONSE:
+				return new ListMulesResponseMessage(fields.success, fields.errorMessage, fields.mules, fields.nextCursor, fields.requestId);
+			case OWNED_ITEMS_DELTA:
+				return new OwnedItemsDeltaMessage(fields.sequence, fields.changedItems);
+			case OWNED_ITEMS_RESYNC:
+				return new OwnedItemsResyncMessage(fields.expectedSequence, fields.receivedSequence);
+			case FLEET_SUBSCRIBE:
+				return new FleetSubscribeMessage();
+			case FLEET_UNSUBSCRIBE:
+				return new FleetUnsubscribeMessage();
+			case FLEET_EVENTS:
+				return new FleetEventsMessage(fields.events);
+			case METRICS_REQUEST:
+				return new MetricsRequestMessage();
+			case METRICS_RESPONSE:
+				return new MetricsResponseMessage(fields.metrics);
+			case SESSION:
+				return new SessionMessage(fields.sessionToken, fields.resumed);
+			case RATE_LIMITED:
+				return new RateLimitedMessage(fields.requestType, fields.retryAfterMillis, fields.errorMessage);
+			default:
+				return null;
+		}
+	}
+
+	public static String encode(AbstractMessage message)
+	{
+		StringBuilderWriter buffer = buffers.get();
+		buffer.reset();
+		GSON.toJson(message, message.getClass(), new JsonWriter(buffer));
+		return buffer.toString();
+	}
+
+	/**
+	 * Unsynchronized writer over a {@link StringBuilder} that is kept per thread and reset between messages.
+	 */
+	private static class StringBuilderWriter extends Writer
+	{
+		private final StringBuilder builder = new StringBuilder(1024);
+
+		private void reset()
+		{
+			// don't hang on to the capacity of one huge message forever
+			if (builder.capacity() > 1 << 20)
+			{
+				builder.setLength(0);
+				builder.trimToSize();
+			}
+			builder.setLength(0);
+		}
+
+		@Override
+		public void write(char[] chars, int offset, int length)
+		{
+			builder.append(chars, offset, length);
+		}
+
+		@Override
+		public void write(String str, int offset, int length)
+		{
+			builder.append(str, offset, offset + length);
+		}
+
+		@Override
+		public void write(int c)
+		{
+			builder.append((char) c);
+		}
+
+		@Override
+		public void flush()
+		{
+		}
+
+		@Override
+		public void close()
+		{
+		}
+
+		@Override
+		public String toString()
+		{
+			return builder.toString();
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package org.lostclient.muling.messages.codec;
+
+/**
+ * Wire encoding of a connection, negotiated with the {@code protocol} handshake header. Clients that don't send the
+ * header keep using JSON text frames.
+ */
+public enum Protocol
+{
+	JSON,
+	BINARY;
+
+	public static Protocol fromHeader(String header)
+	{
+		return header != null && header.equalsIgnoreCase("binary") ? BINARY : JSON;
+	}
+}
@@ -0,0 +1,18 @@
+package org.lostclient.muling.messages.server;
+
+import org.lostclient.muling.messages.AbstractMessage;
+import org.lostclient.muling.messages.FleetEvent;
+import org.lostclient.muling.messages.MessageType;
+
+import java.util.List;
+
+public class FleetEventsMessage extends AbstractMessage
+{
+	public final List<FleetEvent> events;
+
+	public FleetEventsMessage(List<FleetEvent> events)
+	{
+		super(MessageType.FLEET_EVENTS);
+		this.events = events;
+	}
+}
@@ -11,12 +11,28 @@ public class ListMulesResponseMessage extends AbstractMessage
 	public final boolean success;
 	public final String errorMessage;
 	public final List<Mule> mules;
+	// cursor to request the next page with, 0 if this was the last page
+	public final long nextCursor;
+	// requestId of the request this answers, null if it had none
+	public final String requestId;
 
 	public ListMulesResponseMessage(boolean success, String errorMessage, List<Mule> mules)
+	{
+		this(success, errorMessage, mules, 0L);
+	}
+
+	public ListMulesResponseMessage(boolean success, String errorMessage, List<Mule> mules, long nextCursor)
+	{
+		this(success, errorMessage, mules, nextCursor, null);
+	}
+
+	public ListMulesResponseMessage(boolean success, String errorMessage, List<Mule> mules, long nextCursor, String requestId)
 	{
 		super(MessageType.LIST_MULES_RESPONSE);
 		this.success = success;
 		this.errorMessage = errorMessage;
 		this.mules = mules;
+		this.nextCursor = nextCursor;
+		this.requestId = requestId;
 	}
 }
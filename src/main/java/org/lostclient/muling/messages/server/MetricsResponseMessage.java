@@ -0,0 +1,16 @@
+package org.lostclient.muling.messages.server;
+
+import org.lostclient.muling.messages.AbstractMessage;
+import org.lostclient.muling.messages.MessageType;
+
+public class MetricsResponseMessage extends AbstractMessage
+{
+	// the same Prometheus text the metrics endpoint serves
+	public final String metrics;
+
+	public MetricsResponseMessage(String metrics)
+	{
+		super(MessageType.METRICS_RESPONSE);
+		this.metrics = metrics;
+	}
+}
@@ -0,0 +1,17 @@
+package org.lostclient.muling.messages.server;
+
+import org.lostclient.muling.messages.AbstractMessage;
+import org.lostclient.muling.messages.MessageType;
+
+public class OwnedItemsResyncMessage extends AbstractMessage
+{
+	public final long expectedSequence;
+	public final long receivedSequence;
+
+	public OwnedItemsResyncMessage(long expectedSequence, long receivedSequence)
+	{
+		super(MessageType.OWNED_ITEMS_RESYNC);
+		this.expectedSequence = expectedSequence;
+		this.receivedSequence = receivedSequence;
+	}
+}
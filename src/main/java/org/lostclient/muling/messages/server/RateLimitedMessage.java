@@ -0,0 +1,24 @@
+package org.lostclient.muling.messages.server;
+
+import org.lostclient.muling.messages.AbstractMessage;
+import org.lostclient.muling.messages.MessageType;
+
+/**
+ * Sent instead of handling a message the client's account sent more of than its limit allows.
+ */
+public class RateLimitedMessage extends AbstractMessage
+{
+	// the type of the message that was not handled
+	public final MessageType requestType;
+	// how long until the limit allows another message of that type
+	public final long retryAfterMillis;
+	public final String errorMessage;
+
+	public RateLimitedMessage(MessageType requestType, long retryAfterMillis, String errorMessage)
+	{
+		super(MessageType.RATE_LIMITED);
+		this.requestType = requestType;
+		this.retryAfterMillis = retryAfterMillis;
+		this.errorMessage = errorMessage;
+	}
+}
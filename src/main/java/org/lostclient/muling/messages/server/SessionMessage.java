@@ -0,0 +1,19 @@
+package org.lostclient.muling.messages.server;
+
+import org.lostclient.muling.messages.AbstractMessage;
+import org.lostclient.muling.messages.MessageType;
+
+public class SessionMessage extends AbstractMessage
+{
+	// send back in the sessionToken handshake header to resume the session after a disconnect
+	public final String sessionToken;
+	// true if the connection resumed an existing session, the messages buffered while disconnected follow this one
+	public final boolean resumed;
+
+	public SessionMessage(String sessionToken, boolean resumed)
+	{
+		super(MessageType.SESSION);
+		this.sessionToken = sessionToken;
+		this.resumed = resumed;
+	}
+}
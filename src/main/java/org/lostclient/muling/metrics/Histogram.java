@@ -0,0 +1,60 @@
+package org.lostclient.muling.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with one bucket per power of two nanoseconds. Recording is a single atomic increment and an
+ * adder update, so it never locks or allocates and can be called from any thread.
+ */
+public class Histogram
+{
+	private static final int BUCKETS = 64;
+	// the buckets written out, from ~1 microsecond to ~34 seconds
+	private static final int FIRST_EXPORTED = 10;
+	private static final int LAST_EXPORTED = 35;
+
+	// bucket b holds the values below 2^b nanoseconds that didn't fit in bucket b - 1
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final LongAdder sum = new LongAdder();
+
+	public void record(long nanos)
+	{
+		long value = Math.max(0L, nanos);
+		buckets.incrementAndGet(Math.min(BUCKETS - Long.numberOfLeadingZeros(value), BUCKETS - 1));
+		sum.add(value);
+	}
+
+	public long getCount()
+	{
+		long count = 0L;
+		for (int b = 0; b < BUCKETS; b++)
+		{
+			count += buckets.get(b);
+		}
+		return count;
+	}
+
+	/**
+	 * Writes the histogram as Prometheus text in seconds.
+	 *
+	 * @param labels label pairs without the braces, may be empty
+	 */
+	void write(StringBuilder out, String name, String labels)
+	{
+		String separator = labels.isEmpty() ? "" : labels + ",";
+		long cumulative = 0L;
+		for (int b = 0; b < BUCKETS; b++)
+		{
+			cumulative += buckets.get(b);
+			if (b >= FIRST_EXPORTED && b <= LAST_EXPORTED)
+			{
+				out.append(name).append("_bucket{").append(separator).append("le=\"")
+						.append(Math.scalb(1D, b) / 1e9).append("\"} ").append(cumulative).append('\n');
+			}
+		}
+		out.append(name).append("_bucket{").append(separator).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+		out.append(name).append("_sum").append(labels.isEmpty() ? "" : "{" + labels + "}").append(' ').append(sum.sum() / 1e9).append('\n');
+		out.append(name).append("_count").append(labels.isEmpty() ? "" : "{" + labels + "}").append(' ').append(cumulative).append('\n');
+	}
+}
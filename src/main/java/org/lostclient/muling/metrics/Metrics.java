@@ -0,0 +1,186 @@
+package org.lostclient.muling.metrics;
+
+import org.lostclient.muling.messages.MessageType;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms per {@link MessageType}. Everything is kept in arrays indexed by the type's
+ * ordinal, so recording is lock-free and allocation-free from any thread, and only rendering the Prometheus text
+ * allocates.
+ */
+public class Metrics
+{
+	private static final MessageType[] TYPES = MessageType.values();
+
+	private final LongAdder[] received = adders();
+	private final LongAdder[] sent = adders();
+	private final LongAdder[] errors = adders();
+	private final LongAdder[] rateLimited = adders();
+	private final Histogram[] decode = histograms();
+	private final Histogram[] handle = histograms();
+	private final Histogram[] encode = histograms();
+	private final LongAdder decodeErrors = new LongAdder();
+	private final LongAdder refusedHandshakes = new LongAdder();
+	private final Histogram matching = new Histogram();
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	private static LongAdder[] adders()
+	{
+		LongAdder[] adders = new LongAdder[TYPES.length];
+		for (int i = 0; i < adders.length; i++)
+		{
+			adders[i] = new LongAdder();
+		}
+		return adders;
+	}
+
+	private static Histogram[] histograms()
+	{
+		Histogram[] histograms = new Histogram[TYPES.length];
+		for (int i = 0; i < histograms.length; i++)
+		{
+			histograms[i] = new Histogram();
+		}
+		return histograms;
+	}
+
+	public void recordDecode(MessageType type, long nanos)
+	{
+		received[type.ordinal()].increment();
+		decode[type.ordinal()].record(nanos);
+	}
+
+	/**
+	 * A message that could not be decoded or had an unknown type.
+	 */
+	public void recordDecodeError()
+	{
+		decodeErrors.increment();
+	}
+
+	/**
+	 * A client turned away during the upgrade, for its headers or the connection limits.
+	 */
+	public void recordRefusedHandshake()
+	{
+		refusedHandshakes.increment();
+	}
+
+	public void recordHandle(MessageType type, long nanos)
+	{
+		handle[type.ordinal()].record(nanos);
+	}
+
+	public void recordError(MessageType type)
+	{
+		errors[type.ordinal()].increment();
+	}
+
+	/**
+	 * A message that was answered with RATE_LIMITED instead of being handled.
+	 */
+	public void recordRateLimited(MessageType type)
+	{
+		rateLimited[type.ordinal()].increment();
+	}
+
+	public void recordEncode(MessageType type, long nanos)
+	{
+		encode[type.ordinal()].record(nanos);
+	}
+
+	public void recordSent(MessageType type)
+	{
+		sent[type.ordinal()].increment();
+	}
+
+	public void recordMatching(long nanos)
+	{
+		matching.record(nanos);
+	}
+
+	/**
+	 * A snapshot that was replaced by a newer one before it was written.
+	 */
+	public void recordCoalesced()
+	{
+		coalesced.increment();
+	}
+
+	/**
+	 * A connection closed for not keeping up with the messages sent to it.
+	 */
+	public void recordEviction()
+	{
+		evictions.increment();
+	}
+
+	/**
+	 * Writes every counter and histogram in the Prometheus text format, leaving out message types that were never
+	 * seen.
+	 */
+	public void write(StringBuilder out)
+	{
+		writeCounters(out, "lostmule_messages_received_total", "Messages received from clients", received);
+		writeCounters(out, "lostmule_messages_sent_total", "Messages sent to clients", sent);
+		writeCounters(out, "lostmule_message_errors_total", "Messages whose handling threw", errors);
+		writeCounters(out, "lostmule_messages_rate_limited_total", "Messages not handled for going over the account's rate limit", rateLimited);
+
+		writeHeader(out, "lostmule_decode_errors_total", "Messages that could not be decoded", "counter");
+		out.append("lostmule_decode_errors_total ").append(decodeErrors.sum()).append('\n');
+		writeHeader(out, "lostmule_handshakes_refused_total", "Upgrade requests refused for invalid headers or the connection limits", "counter");
+		out.append("lostmule_handshakes_refused_total ").append(refusedHandshakes.sum()).append('\n');
+
+		writeHistograms(out, "lostmule_decode_seconds", "Time to decode a message", decode);
+		writeHistograms(out, "lostmule_handle_seconds", "Time to handle a message on the engine", handle);
+		writeHistograms(out, "lostmule_encode_seconds", "Time to encode a message", encode);
+
+		writeHeader(out, "lostmule_matching_seconds", "Time to find a mule for a request", "histogram");
+		matching.write(out, "lostmule_matching_seconds", "");
+
+		writeHeader(out, "lostmule_outbound_coalesced_total", "Snapshots replaced by a newer one before they were written", "counter");
+		out.append("lostmule_outbound_coalesced_total ").append(coalesced.sum()).append('\n');
+		writeHeader(out, "lostmule_outbound_evictions_total", "Connections closed for not keeping up", "counter");
+		out.append("lostmule_outbound_evictions_total ").append(evictions.sum()).append('\n');
+	}
+
+	public static void writeGauge(StringBuilder out, String name, String help, long value)
+	{
+		writeHeader(out, name, help, "gauge");
+		out.append(name).append(' ').append(value).append('\n');
+	}
+
+	public static void writeHeader(StringBuilder out, String name, String help, String type)
+	{
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void writeCounters(StringBuilder out, String name, String help, LongAdder[] counters)
+	{
+		writeHeader(out, name, help, "counter");
+		for (MessageType type : TYPES)
+		{
+			long value = counters[type.ordinal()].sum();
+			if (value > 0)
+			{
+				out.append(name).append("{type=\"").append(type).append("\"} ").append(value).append('\n');
+			}
+		}
+	}
+
+	private static void writeHistograms(StringBuilder out, String name, String help, Histogram[] histograms)
+	{
+		writeHeader(out, name, help, "histogram");
+		for (MessageType type : TYPES)
+		{
+			Histogram histogram = histograms[type.ordinal()];
+			if (histogram.getCount() > 0)
+			{
+				histogram.write(out, name, "type=\"" + type + "\"");
+			}
+		}
+	}
+}
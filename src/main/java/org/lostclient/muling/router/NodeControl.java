@@ -0,0 +1,147 @@
+package org.lostclient.muling.router;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.handshake.ServerHandshake;
+import org.lostclient.muling.Log;
+import org.lostclient.muling.messages.AbstractMessage;
+import org.lostclient.muling.messages.MessageType;
+import org.lostclient.muling.messages.client.ListMulesRequestMessage;
+import org.lostclient.muling.messages.codec.JsonCodec;
+import org.lostclient.muling.messages.server.ListMulesResponseMessage;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The router's own connection to a node, used to ask it for its part of a mule list. Every request carries an id the
+ * node echoes, so a response that never comes only times out its own request. Reconnects whenever the node goes
+ * away.
+ */
+class NodeControl extends WebSocketClient
+{
+	private static final long RECONNECT_MILLIS = 1000L;
+
+	private final int node;
+	private final ScheduledExecutorService scheduler;
+	private final long timeoutMillis;
+	// request id -> the response it waits for
+	private final Map<String, CompletableFuture<ListMulesResponseMessage>> pending = new HashMap<>();
+	private long nextRequestId;
+
+	NodeControl(int node, URI uri, ScheduledExecutorService scheduler, long timeoutMillis, String routerSecret)
+	{
+		super(uri, headers(node, routerSecret));
+		this.node = node;
+		this.scheduler = scheduler;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	private static Map<String, String> headers(int node, String routerSecret)
+	{
+		Map<String, String> headers = new HashMap<>();
+		headers.put("clientUsername", "router");
+		headers.put("playerName", "router-" + node);
+		headers.put("isMule", "false");
+		headers.put("isMember", "false");
+		// exempts this connection from the node's rate limits
+		if (routerSecret != null)
+		{
+			headers.put("routerSecret", routerSecret);
+		}
+		return headers;
+	}
+
+	/**
+	 * @param request the filters of the list, its cursor and request id are replaced
+	 * @param cursor the cursor within this node
+	 * @return the node's response, completed exceptionally if the node is unavailable or doesn't answer in time
+	 */
+	synchronized CompletableFuture<ListMulesResponseMessage> listMules(ListMulesRequestMessage request, long cursor)
+	{
+		CompletableFuture<ListMulesResponseMessage> response = new CompletableFuture<>();
+		if (!isOpen())
+		{
+			response.completeExceptionally(new IOException("Node " + node + " unavailable"));
+			return response;
+		}
+		String requestId = Long.toString(nextRequestId++);
+		pending.put(requestId, response);
+		// however it completes, a response arriving later has nothing left to complete
+		response.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).whenComplete((result, failure) ->
+		{
+			synchronized (this)
+			{
+				pending.remove(requestId);
+			}
+		});
+		send(JsonCodec.encode(new ListMulesRequestMessage(request.group, request.world, request.member,
+				request.minFreeQueue, request.requiredItems, request.omitItems, cursor, request.limit, requestId)));
+		return response;
+	}
+
+	@Override
+	public void onOpen(ServerHandshake handshake)
+	{
+		Log.info("Router", "Connected to node %d at %s", node, getURI());
+	}
+
+	@Override
+	public void onMessage(String message)
+	{
+		try
+		{
+			AbstractMessage decoded = JsonCodec.decode(message);
+			if (decoded == null || decoded.type != MessageType.LIST_MULES_RESPONSE)
+			{
+				return;
+			}
+			ListMulesResponseMessage list = (ListMulesResponseMessage) decoded;
+			CompletableFuture<ListMulesResponseMessage> response;
+			synchronized (this)
+			{
+				response = list.requestId != null ? pending.get(list.requestId) : null;
+			}
+			if (response != null)
+			{
+				response.complete(list);
+			}
+		}
+		catch (IOException ex)
+		{
+			Log.severe("Router", "Unreadable message from node %d: %s", node, ex);
+		}
+	}
+
+	@Override
+	public void onClose(int code, String reason, boolean remote)
+	{
+		synchronized (this)
+		{
+			IOException unavailable = new IOException("Node " + node + " unavailable");
+			// each removes itself from pending once completed
+			for (CompletableFuture<ListMulesResponseMessage> response : new ArrayList<>(pending.values()))
+			{
+				response.completeExceptionally(unavailable);
+			}
+		}
+		if (code != CloseFrame.NEVER_CONNECTED)
+		{
+			Log.severe("Router", "Lost node %d: %d %s, reconnecting", node, code, reason);
+		}
+		// can't reconnect from the connection's own thread
+		scheduler.schedule(this::reconnect, RECONNECT_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void onError(Exception ex)
+	{
+		Log.fine("Router", "Node %d control connection error: %s", node, ex);
+	}
+}
@@ -0,0 +1,77 @@
+package org.lostclient.muling.router;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Which node owns which group. A group is owned by the node configured with {@code lostmule.router.group.<group>},
+ * any other group by a node picked from a hash of its name, so every router in front of the same nodes agrees.
+ */
+public class NodeMap
+{
+	private final List<URI> nodes;
+	private final Map<String, Integer> owners = new ConcurrentHashMap<>();
+
+	public NodeMap(List<URI> nodes)
+	{
+		if (nodes.isEmpty())
+		{
+			throw new IllegalArgumentException("No nodes to route to");
+		}
+		this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+	}
+
+	/**
+	 * Reads the node addresses from the comma separated {@code lostmule.router.nodes} system property.
+	 */
+	public static NodeMap fromProperties()
+	{
+		List<URI> nodes = new ArrayList<>();
+		for (String node : System.getProperty("lostmule.router.nodes", "").split(","))
+		{
+			if (node.trim().length() > 0)
+			{
+				nodes.add(URI.create(node.trim()));
+			}
+		}
+		return new NodeMap(nodes);
+	}
+
+	public List<URI> getNodes()
+	{
+		return nodes;
+	}
+
+	public int size()
+	{
+		return nodes.size();
+	}
+
+	/**
+	 * @param group a group normalized with {@link org.lostclient.muling.GroupIndex#normalizeGroups(String)}
+	 */
+	public int getOwner(String group)
+	{
+		return owners.computeIfAbsent(group, g ->
+		{
+			Integer node = Integer.getInteger("lostmule.router.group." + g);
+			if (node != null && node >= 0 && node < nodes.size())
+			{
+				return node;
+			}
+			return Math.floorMod(g.hashCode(), nodes.size());
+		});
+	}
+
+	/**
+	 * @return the node a client in the given groups belongs on, the first group decides for clients in several
+	 */
+	public int getOwner(String[] groups)
+	{
+		return getOwner(groups[0]);
+	}
+}
@@ -0,0 +1,314 @@
+package org.lostclient.muling.router;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.lostclient.muling.GroupIndex;
+import org.lostclient.muling.Log;
+import org.lostclient.muling.messages.AbstractMessage;
+import org.lostclient.muling.messages.MessageType;
+import org.lostclient.muling.messages.Mule;
+import org.lostclient.muling.messages.client.ListMulesRequestMessage;
+import org.lostclient.muling.messages.codec.BinaryCodec;
+import org.lostclient.muling.messages.codec.JsonCodec;
+import org.lostclient.muling.messages.codec.Protocol;
+import org.lostclient.muling.messages.server.ListMulesResponseMessage;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Front end of a deployment where every node is a plain {@link org.lostclient.muling.server.Server} owning a subset
+ * of the groups, as decided by the {@link NodeMap}. Every connection is passed through to the node owning its first
+ * group, handshake headers included, so matching, trades and fleet events stay within that node. Only mule lists are
+ * answered by the router itself, gathered from every node: a mule sits on the node of its first group, so the mules of
+ * any one group can be on every node.
+ * <p>
+ * A list is ordered by node and then by connection. A paged list never spans nodes: the cursor carries the node in
+ * its top bits, and a page can hold fewer mules than the limit where one node's mules run out.
+ */
+public class Router extends WebSocketServer
+{
+	private static final int NODE_SHIFT = 48;
+	private static final long NODE_CURSOR_MASK = (1L << NODE_SHIFT) - 1;
+	// how long a node gets to answer its part of a mule list
+	private static final long LIST_TIMEOUT_MILLIS = Long.getLong("lostmule.router.listTimeoutMillis", 5000L);
+	// shared with the nodes, which don't rate limit the router's own connections when it matches theirs and trust the
+	// client addresses it forwards
+	private static final String ROUTER_SECRET = System.getProperty("lostmule.router.secret");
+
+	private final NodeMap nodes;
+	private final List<NodeControl> controls = new ArrayList<>();
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r ->
+	{
+		Thread thread = new Thread(r, "RouterScheduler");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	public Router(int port, NodeMap nodes)
+	{
+		super(new InetSocketAddress(port));
+		this.nodes = nodes;
+		for (int node = 0; node < nodes.size(); node++)
+		{
+			controls.add(new NodeControl(node, nodes.getNodes().get(node), scheduler, LIST_TIMEOUT_MILLIS, ROUTER_SECRET));
+		}
+	}
+
+	@Override
+	public void onStart()
+	{
+		for (NodeControl control : controls)
+		{
+			control.connect();
+		}
+		Log.info("Router", "Started on port %d in front of %d nodes", getPort(), nodes.size());
+	}
+
+	@Override
+	public void stop(int timeout) throws InterruptedException
+	{
+		super.stop(timeout);
+		for (NodeControl control : controls)
+		{
+			control.close();
+		}
+		scheduler.shutdownNow();
+	}
+
+	@Override
+	public void onOpen(WebSocket conn, ClientHandshake handshake)
+	{
+		int node = nodes.getOwner(GroupIndex.normalizeGroups(handshake.getFieldValue("groups")));
+		Map<String, String> headers = forwardedHeaders(handshake, conn.getRemoteSocketAddress(), ROUTER_SECRET);
+		Upstream upstream = new Upstream(conn, node, nodes.getNodes().get(node), headers,
+				Protocol.fromHeader(handshake.getFieldValue("protocol")));
+		conn.setAttachment(upstream);
+		upstream.connect();
+		Log.fine("Router", "Routing %s to node %d", conn.getRemoteSocketAddress(), node);
+	}
+
+	/**
+	 * @return the client's handshake headers, without the ones that describe the client's own WebSocket upgrade or
+	 * that only a router may send. With a secret the node vouches for the client's address, which its connection cap
+	 * counts instead of the router's
+	 */
+	static Map<String, String> forwardedHeaders(ClientHandshake handshake, InetSocketAddress client, String routerSecret)
+	{
+		Map<String, String> headers = new HashMap<>();
+		for (Iterator<String> names = handshake.iterateHttpFields(); names.hasNext(); )
+		{
+			String name = names.next();
+			String lowerCase = name.toLowerCase(Locale.ROOT);
+			if (lowerCase.startsWith("sec-websocket-") || lowerCase.equals("host") || lowerCase.equals("upgrade")
+					|| lowerCase.equals("connection") || lowerCase.equals("routersecret") || lowerCase.equals("forwardedfor"))
+			{
+				continue;
+			}
+			headers.put(name, handshake.getFieldValue(name));
+		}
+		if (routerSecret != null && client != null)
+		{
+			headers.put("routerSecret", routerSecret);
+			headers.put("forwardedFor", client.getAddress().getHostAddress());
+		}
+		return headers;
+	}
+
+	@Override
+	public void onClose(WebSocket conn, int code, String reason, boolean remote)
+	{
+		Upstream upstream = conn.getAttachment();
+		if (upstream != null)
+		{
+			upstream.closeFromDownstream(code, reason);
+		}
+	}
+
+	@Override
+	public void onError(WebSocket conn, Exception ex)
+	{
+		Log.fine("Router", "Connection error: %s", ex);
+	}
+
+	@Override
+	public void onMessage(WebSocket conn, String message)
+	{
+		Upstream upstream = conn.getAttachment();
+		if (upstream == null)
+		{
+			return;
+		}
+		try
+		{
+			// only mule lists are looked at, everything else is passed on without decoding it
+			if (message.contains(MessageType.LIST_MULES_REQUEST.name()))
+			{
+				AbstractMessage decoded = JsonCodec.decode(message);
+				if (decoded != null && decoded.type == MessageType.LIST_MULES_REQUEST)
+				{
+					listMules(conn, upstream.getClientProtocol(), (ListMulesRequestMessage) decoded);
+					return;
+				}
+			}
+		}
+		catch (Exception ex)
+		{
+			Log.fine("Router", "Passing on a message that failed to decode: %s", ex);
+		}
+		upstream.forward(message);
+	}
+
+	@Override
+	public void onMessage(WebSocket conn, ByteBuffer message)
+	{
+		Upstream upstream = conn.getAttachment();
+		if (upstream == null)
+		{
+			return;
+		}
+		try
+		{
+			// the type is a varint, every type's ordinal so far fits into its first byte
+			if (message.remaining() > 0 && message.get(message.position()) == MessageType.LIST_MULES_REQUEST.ordinal())
+			{
+				AbstractMessage decoded = BinaryCodec.decode(message.duplicate());
+				if (decoded != null && decoded.type == MessageType.LIST_MULES_REQUEST)
+				{
+					listMules(conn, upstream.getClientProtocol(), (ListMulesRequestMessage) decoded);
+					return;
+				}
+			}
+		}
+		catch (Exception ex)
+		{
+			Log.fine("Router", "Passing on a message that failed to decode: %s", ex);
+		}
+		upstream.forward(message);
+	}
+
+	/**
+	 * Asks every node from the node the cursor points at onward, each filtering its own mules by the request's group.
+	 * A paged request only asks that one node.
+	 */
+	private void listMules(WebSocket conn, Protocol protocol, ListMulesRequestMessage request)
+	{
+		int firstNode = cursorNode(request.cursor);
+		List<Integer> targets = new ArrayList<>();
+		for (int node = firstNode; node < nodes.size(); node++)
+		{
+			targets.add(node);
+		}
+		if (targets.isEmpty())
+		{
+			send(conn, protocol, new ListMulesResponseMessage(true, null, new ArrayList<>(), 0L, request.requestId));
+			return;
+		}
+		if (request.limit > 0)
+		{
+			targets = targets.subList(0, 1);
+		}
+
+		List<CompletableFuture<ListMulesResponseMessage>> responses = new ArrayList<>(targets.size());
+		for (int node : targets)
+		{
+			long cursor = node == firstNode ? nodeCursor(request.cursor) : 0L;
+			responses.add(controls.get(node).listMules(request, cursor));
+		}
+
+		List<Integer> queried = targets;
+		CompletableFuture.allOf(responses.toArray(new CompletableFuture[0])).whenComplete((done, failure) ->
+				send(conn, protocol, gather(request, queried, responses)));
+	}
+
+	private ListMulesResponseMessage gather(ListMulesRequestMessage request, List<Integer> queried,
+			List<CompletableFuture<ListMulesResponseMessage>> responses)
+	{
+		List<Mule> mules = new ArrayList<>();
+		List<String> errors = new ArrayList<>();
+		long nextCursor = 0L;
+		for (int i = 0; i < queried.size(); i++)
+		{
+			int node = queried.get(i);
+			ListMulesResponseMessage response = responses.get(i).exceptionally(ex -> null).join();
+			if (response == null)
+			{
+				errors.add("Node " + node + " did not answer");
+				continue;
+			}
+			if (!response.success)
+			{
+				errors.add("Node " + node + ": " + response.errorMessage);
+			}
+			if (response.mules != null)
+			{
+				mules.addAll(response.mules);
+			}
+			if (request.limit > 0)
+			{
+				nextCursor = nextCursor(node, nodes.size(), response.nextCursor);
+			}
+		}
+
+		// the mules that did arrive are still sent along with the nodes that failed
+		String errorMessage = errors.isEmpty() ? null : String.join(", ", errors);
+		return new ListMulesResponseMessage(errors.isEmpty(), errorMessage, mules, nextCursor, request.requestId);
+	}
+
+	/**
+	 * @return the cursor of the next page: further into the same node, or the start of the next node to ask
+	 */
+	static long nextCursor(int node, int nodeCount, long nodeCursor)
+	{
+		if (nodeCursor != 0)
+		{
+			return ((long) node << NODE_SHIFT) | nodeCursor;
+		}
+		if (node + 1 < nodeCount)
+		{
+			return (long) (node + 1) << NODE_SHIFT;
+		}
+		return 0L;
+	}
+
+	/**
+	 * @return the node a cursor of the router points at
+	 */
+	static int cursorNode(long cursor)
+	{
+		return (int) (cursor >>> NODE_SHIFT);
+	}
+
+	/**
+	 * @return the node's own cursor within a cursor of the router
+	 */
+	static long nodeCursor(long cursor)
+	{
+		return cursor & NODE_CURSOR_MASK;
+	}
+
+	private static void send(WebSocket conn, Protocol protocol, AbstractMessage message)
+	{
+		if (!conn.isOpen())
+		{
+			return;
+		}
+		if (protocol == Protocol.BINARY)
+		{
+			conn.send(BinaryCodec.encode(message));
+			return;
+		}
+		conn.send(JsonCodec.encode(message));
+	}
+}
@@ -0,0 +1,133 @@
+package org.lostclient.muling.router;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.handshake.ServerHandshake;
+import org.lostclient.muling.Log;
+import org.lostclient.muling.messages.codec.Protocol;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The router's connection to a node on behalf of one client. Frames are passed through as they are in both
+ * directions, the ones the client sends before the node accepted the connection are held back until it did.
+ */
+class Upstream extends WebSocketClient
+{
+	private final WebSocket downstream;
+	private final int node;
+	// the client's encoding, the mule lists the router answers itself are sent in it
+	private final Protocol clientProtocol;
+	// String or ByteBuffer frames waiting for the connection to open
+	private List<Object> pending = new ArrayList<>();
+
+	Upstream(WebSocket downstream, int node, URI uri, Map<String, String> headers, Protocol clientProtocol)
+	{
+		super(uri, headers);
+		this.downstream = downstream;
+		this.node = node;
+		this.clientProtocol = clientProtocol;
+		setConnectionLostTimeout(0);
+	}
+
+	int getNode()
+	{
+		return node;
+	}
+
+	Protocol getClientProtocol()
+	{
+		return clientProtocol;
+	}
+
+	synchronized void forward(String message)
+	{
+		if (pending != null)
+		{
+			pending.add(message);
+			return;
+		}
+		send(message);
+	}
+
+	synchronized void forward(ByteBuffer message)
+	{
+		if (pending != null)
+		{
+			pending.add(message);
+			return;
+		}
+		send(message);
+	}
+
+	/**
+	 * Closes the node side after the client went away, only a normal close on the client's side ends its session
+	 * on the node.
+	 */
+	void closeFromDownstream(int code, String reason)
+	{
+		close(code == CloseFrame.NORMAL ? CloseFrame.NORMAL : CloseFrame.GOING_AWAY, reason);
+	}
+
+	@Override
+	public synchronized void onOpen(ServerHandshake handshake)
+	{
+		for (Object message : pending)
+		{
+			if (message instanceof String)
+			{
+				send((String) message);
+			}
+			else
+			{
+				send((ByteBuffer) message);
+			}
+		}
+		pending = null;
+	}
+
+	@Override
+	public void onMessage(String message)
+	{
+		if (downstream.isOpen())
+		{
+			downstream.send(message);
+		}
+	}
+
+	@Override
+	public void onMessage(ByteBuffer message)
+	{
+		if (downstream.isOpen())
+		{
+			downstream.send(message);
+		}
+	}
+
+	@Override
+	public void onClose(int code, String reason, boolean remote)
+	{
+		if (!downstream.isOpen())
+		{
+			return;
+		}
+		// codes that only describe what happened locally can't be sent on, the client should just try again
+		if (code == CloseFrame.NEVER_CONNECTED || code == CloseFrame.ABNORMAL_CLOSE || code == CloseFrame.NOCODE)
+		{
+			downstream.close(CloseFrame.BAD_GATEWAY, "Node " + node + " unavailable");
+			return;
+		}
+		downstream.close(code, reason);
+	}
+
+	@Override
+	public void onError(Exception ex)
+	{
+		Log.fine("Router", "Node %d connection error: %s", node, ex);
+	}
+}
@@ -0,0 +1,189 @@
+package org.lostclient.muling.server;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.lostclient.muling.messages.codec.EncodedMessage;
+import org.lostclient.muling.messages.codec.Protocol;
+
+import java.net.InetAddress;
+import java.nio.channels.ByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Attached to every WebSocket once its handshake is accepted: the parsed handshake, the index of the client the
+ * connection belongs to, the messages waiting to be written to it and the executor they are encoded on. The executor
+ * runs one task at a time in submission order, so the messages of a connection keep their order however many workers
+ * there are.
+ */
+final class Connection implements Executor
+{
+	private static final int IDLE = 0;
+	private static final int WRITING = 1;
+	// writing, and the engine has more to write once done
+	private static final int WRITING_WAITED_ON = 2;
+
+	@Getter
+	private final WebSocket conn;
+	@Getter
+	private final Handshake handshake;
+	// the remote address the connection holds a slot of the connection limits for
+	@Getter
+	private final InetAddress address;
+	private final Executor executor;
+	// null for sockets the server didn't wrap
+	private final CountingChannel channel;
+	// the account's rate limits, null when nothing is limited
+	@Getter
+	private final RateLimiter.Account limits;
+	// shared between the engine and the executor, one batch is written at a time
+	private final AtomicInteger writeState = new AtomicInteger(IDLE);
+	// everything below is only touched from the engine thread
+	// a resumed session hands the connection the index of the resumed client
+	@Getter
+	@Setter
+	private long connIndex;
+	// messages waiting for the next flush, or held back while the socket is over its high-water mark
+	private final ArrayDeque<EncodedMessage> outbound = new ArrayDeque<>();
+	// the snapshots among them, each replaced by the next snapshot of the same type while it is still waiting
+	private final List<EncodedMessage> snapshots = new ArrayList<>(1);
+	// when the socket went over its high-water mark, 0 while it keeps up
+	@Getter
+	@Setter
+	private long slowSince;
+	@Getter
+	@Setter
+	private boolean evicting;
+
+	Connection(WebSocket conn, long connIndex, Handshake handshake, InetAddress address, Executor executor, RateLimiter.Account limits)
+	{
+		this.conn = conn;
+		this.connIndex = connIndex;
+		this.handshake = handshake;
+		this.address = address;
+		this.executor = executor;
+		this.limits = limits;
+		ByteChannel socket = conn instanceof WebSocketImpl ? ((WebSocketImpl) conn).getChannel() : null;
+		this.channel = socket instanceof CountingChannel ? (CountingChannel) socket : null;
+	}
+
+	Protocol getProtocol()
+	{
+		return handshake.getProtocol();
+	}
+
+	/**
+	 * @return whether this is a router's own connection, its secret was checked during the handshake
+	 */
+	boolean isRouter()
+	{
+		return handshake.isRouter();
+	}
+
+	@Override
+	public void execute(Runnable task)
+	{
+		executor.execute(task);
+	}
+
+	/**
+	 * @return true if the message replaced a waiting snapshot of the same type
+	 */
+	boolean enqueue(EncodedMessage message, boolean snapshot)
+	{
+		boolean replaced = false;
+		if (snapshot)
+		{
+			Iterator<EncodedMessage> waiting = snapshots.iterator();
+			while (waiting.hasNext())
+			{
+				EncodedMessage superseded = waiting.next();
+				if (superseded.getMessage().type == message.getMessage().type)
+				{
+					waiting.remove();
+					// appended again below, after whatever was queued since the older snapshot
+					outbound.removeFirstOccurrence(superseded);
+					replaced = true;
+				}
+			}
+			snapshots.add(message);
+		}
+		outbound.add(message);
+		return replaced;
+	}
+
+	/**
+	 * Called from the engine before handing the executor a batch.
+	 *
+	 * @return false while the last batch is still being written, {@link #finishWrite()} then asks for the next one
+	 */
+	boolean startWrite()
+	{
+		while (true)
+		{
+			int state = writeState.get();
+			if (state == IDLE)
+			{
+				writeState.set(WRITING);
+				return true;
+			}
+			if (state == WRITING_WAITED_ON || writeState.compareAndSet(WRITING, WRITING_WAITED_ON))
+			{
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Called from the executor once a batch is handed to the socket.
+	 *
+	 * @return whether the engine held back another batch in the meantime
+	 */
+	boolean finishWrite()
+	{
+		return writeState.getAndSet(IDLE) == WRITING_WAITED_ON;
+	}
+
+	/**
+	 * @return bytes handed to the socket that it hasn't written yet
+	 */
+	long getQueuedBytes()
+	{
+		return channel != null ? channel.getUnwritten() : 0L;
+	}
+
+	void queued(long bytes)
+	{
+		if (channel != null)
+		{
+			channel.queued(bytes);
+		}
+	}
+
+	void unqueued(long bytes)
+	{
+		if (channel != null)
+		{
+			channel.unqueued(bytes);
+		}
+	}
+
+	int getOutboundSize()
+	{
+		return outbound.size();
+	}
+
+	List<EncodedMessage> drainOutbound()
+	{
+		List<EncodedMessage> messages = new ArrayList<>(outbound);
+		outbound.clear();
+		snapshots.clear();
+		return messages;
+	}
+}
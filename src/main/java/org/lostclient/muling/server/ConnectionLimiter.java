@@ -0,0 +1,78 @@
+package org.lostclient.muling.server;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caps the connections in total and per remote address. A slot is taken while the upgrade request is handled and
+ * given back when the connection closes, so a reconnect storm is turned away before any of it reaches the engine.
+ */
+final class ConnectionLimiter
+{
+	// 0 for no cap
+	private final int maxConnections;
+	private final int maxPerAddress;
+	private final AtomicInteger connections = new AtomicInteger();
+	private final ConcurrentHashMap<InetAddress, Integer> byAddress = new ConcurrentHashMap<>();
+
+	ConnectionLimiter(int maxConnections, int maxPerAddress)
+	{
+		this.maxConnections = maxConnections;
+		this.maxPerAddress = maxPerAddress;
+	}
+
+	/**
+	 * @return null if a slot was taken, otherwise why there is none
+	 */
+	String tryAcquire(InetAddress address)
+	{
+		if (connections.incrementAndGet() > maxConnections && maxConnections > 0)
+		{
+			connections.decrementAndGet();
+			return "Too many connections";
+		}
+		if (maxPerAddress <= 0 || address == null)
+		{
+			return null;
+		}
+
+		boolean[] acquired = {false};
+		byAddress.compute(address, (key, count) ->
+		{
+			int current = count == null ? 0 : count;
+			if (current >= maxPerAddress)
+			{
+				return count;
+			}
+			acquired[0] = true;
+			return current + 1;
+		});
+		if (!acquired[0])
+		{
+			connections.decrementAndGet();
+			return "Too many connections from " + address.getHostAddress();
+		}
+		return null;
+	}
+
+	void release(InetAddress address)
+	{
+		connections.decrementAndGet();
+		if (maxPerAddress <= 0 || address == null)
+		{
+			return;
+		}
+		byAddress.computeIfPresent(address, (key, count) -> count > 1 ? count - 1 : null);
+	}
+
+	int getConnections()
+	{
+		return connections.get();
+	}
+
+	int getAddresses()
+	{
+		return byAddress.size();
+	}
+}
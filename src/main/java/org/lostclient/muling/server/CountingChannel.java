@@ -0,0 +1,110 @@
+package org.lostclient.muling.server;
+
+import org.java_websocket.WebSocketAdapter;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.WebSocketServerFactory;
+import org.java_websocket.drafts.Draft;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wraps the socket of a connection to keep a running count of the bytes the server handed to it that aren't written
+ * yet, so checking a connection against its high-water mark never walks its queue of frames. Frames the WebSocket
+ * sends on its own, like pings and pongs, aren't counted going in. The count never drops below 0 for them, and it can
+ * only be low by the few bytes of those written while the server's own bytes are still waiting.
+ */
+final class CountingChannel implements ByteChannel
+{
+	private final SocketChannel channel;
+	private final AtomicLong unwritten = new AtomicLong();
+
+	CountingChannel(SocketChannel channel)
+	{
+		this.channel = channel;
+	}
+
+	/**
+	 * Creates the server's WebSockets like the default factory does, on sockets wrapped in a {@link CountingChannel}.
+	 */
+	static class Factory implements WebSocketServerFactory
+	{
+		@Override
+		public WebSocketImpl createWebSocket(WebSocketAdapter adapter, Draft draft)
+		{
+			return new WebSocketImpl(adapter, draft);
+		}
+
+		@Override
+		public WebSocketImpl createWebSocket(WebSocketAdapter adapter, List<Draft> drafts)
+		{
+			return new WebSocketImpl(adapter, drafts);
+		}
+
+		@Override
+		public ByteChannel wrapChannel(SocketChannel channel, SelectionKey key)
+		{
+			return new CountingChannel(channel);
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	}
+
+	/**
+	 * Called before the bytes are handed to the WebSocket, so the socket can't have written them already.
+	 */
+	void queued(long bytes)
+	{
+		unwritten.addAndGet(bytes);
+	}
+
+	/**
+	 * Takes back bytes that were counted but never made it to the WebSocket.
+	 */
+	void unqueued(long bytes)
+	{
+		unwritten.accumulateAndGet(bytes, (count, taken) -> Math.max(0L, count - taken));
+	}
+
+	long getUnwritten()
+	{
+		return unwritten.get();
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException
+	{
+		return channel.read(dst);
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException
+	{
+		int written = channel.write(src);
+		if (written > 0)
+		{
+			unqueued(written);
+		}
+		return written;
+	}
+
+	@Override
+	public boolean isOpen()
+	{
+		return channel.isOpen();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+}
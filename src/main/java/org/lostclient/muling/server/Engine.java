@@ -0,0 +1,174 @@
+package org.lostclient.muling.server;
+
+import org.lostclient.muling.Log;
+
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single writer for all client, request and matching state. The WebSocket threads, or the workers they hand
+ * connections to, decode messages and submit commands through a lock-free multi-producer queue, and this engine's
+ * one thread runs them in submission order, so state never has to be locked and a check followed by a reservation can
+ * never interleave with another one.
+ */
+public class Engine implements Runnable
+{
+	private final Queue<Runnable> commands = new ConcurrentLinkedQueue<>();
+	// only touched from the engine thread
+	private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+	private final TimerWheel wheel = new TimerWheel(Long.getLong("lostmule.wheel.tickMillis", 100L), 512);
+	private final Thread thread;
+	private volatile boolean running = true;
+	private long nextTimerId = 0L;
+
+	public Engine(String name)
+	{
+		this.thread = new Thread(this, name);
+	}
+
+	private static class Timer implements Comparable<Timer>
+	{
+		private final long deadline;
+		private final long id;
+		private final Runnable command;
+
+		private Timer(long deadline, long id, Runnable command)
+		{
+			this.deadline = deadline;
+			this.id = id;
+			this.command = command;
+		}
+
+		@Override
+		public int compareTo(Timer other)
+		{
+			// deadlines are nanoTime values, so they can only be compared through their difference
+			int byDeadline = Long.signum(deadline - other.deadline);
+			return byDeadline != 0 ? byDeadline : Long.compare(id, other.id);
+		}
+	}
+
+	public void start()
+	{
+		thread.start();
+	}
+
+	public void stop()
+	{
+		running = false;
+		LockSupport.unpark(thread);
+	}
+
+	public void submit(Runnable command)
+	{
+		commands.offer(command);
+		LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Runs the command on the engine thread once the delay has passed. Must be called from the engine thread.
+	 */
+	public void schedule(Runnable command, long delay, TimeUnit unit)
+	{
+		timers.add(new Timer(System.nanoTime() + unit.toNanos(delay), nextTimerId++, command));
+	}
+
+	/**
+	 * Runs the command on the engine thread once the wall clock passed the deadline, with the precision of a timer
+	 * wheel tick. Meant for the many per-request timeouts that are cancelled far more often than they fire. Must be
+	 * called from the engine thread.
+	 */
+	public TimerWheel.Timeout scheduleAt(Runnable command, long deadlineMillis)
+	{
+		return wheel.schedule(command, deadlineMillis);
+	}
+
+	@Override
+	public void run()
+	{
+		while (running)
+		{
+			long untilNextTimer = runDueTimers();
+			long untilNextTick = runDueTimeouts();
+			if (untilNextTick >= 0 && (untilNextTimer < 0 || untilNextTick < untilNextTimer))
+			{
+				untilNextTimer = untilNextTick;
+			}
+
+			Runnable command = commands.poll();
+			if (command == null)
+			{
+				// an unpark that happened after the poll leaves a permit behind, so this returns straight away
+				if (untilNextTimer < 0)
+				{
+					LockSupport.park(this);
+				}
+				else
+				{
+					LockSupport.parkNanos(this, untilNextTimer);
+				}
+				continue;
+			}
+
+			execute(command);
+		}
+	}
+
+	/**
+	 * @return nanoseconds until the next timer is due, or -1 if there is none
+	 */
+	private long runDueTimers()
+	{
+		while (!timers.isEmpty())
+		{
+			long untilDue = timers.peek().deadline - System.nanoTime();
+			if (untilDue > 0)
+			{
+				return untilDue;
+			}
+			execute(timers.poll().command);
+		}
+		return -1;
+	}
+
+	/**
+	 * @return nanoseconds until the timer wheel's next tick, or -1 if it has no pending timeouts
+	 */
+	private long runDueTimeouts()
+	{
+		if (wheel.size() == 0)
+		{
+			return -1;
+		}
+		// between ticks, which is nearly every command, this is one clock read and no bookkeeping
+		long now = System.currentTimeMillis();
+		long untilNextTick = wheel.millisUntilNextTick(now);
+		if (untilNextTick == 0)
+		{
+			List<Runnable> expired = wheel.advance(now);
+			for (Runnable command : expired)
+			{
+				execute(command);
+			}
+			untilNextTick = wheel.millisUntilNextTick(expired.isEmpty() ? now : System.currentTimeMillis());
+		}
+		return untilNextTick < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(untilNextTick);
+	}
+
+	private void execute(Runnable command)
+	{
+		try
+		{
+			command.run();
+		}
+		catch (Exception ex)
+		{
+			Log.severe(thread.getName(), "Command failed: " + ex);
+			ex.printStackTrace();
+		}
+	}
+}
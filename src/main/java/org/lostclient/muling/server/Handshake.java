@@ -0,0 +1,117 @@
+package org.lostclient.muling.server;
+
+import lombok.Getter;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.handshake.ClientHandshake;
+import org.lostclient.muling.GroupIndex;
+import org.lostclient.muling.messages.MuleTile;
+import org.lostclient.muling.messages.codec.Protocol;
+
+/**
+ * The client's handshake headers, parsed and checked while the upgrade request is handled, so that a client with
+ * missing or malformed headers is refused before it gets a connection.
+ */
+@Getter
+final class Handshake
+{
+	// the close codes the server used to close such connections with right after opening them
+	static final int INVALID_HANDSHAKE = 10001;
+	static final int INVALID_MULE_HANDSHAKE = 10002;
+
+	private final String clientUsername;
+	private final String[] groups;
+	private final int queueSize;
+	private final String playerName;
+	private final boolean isMule;
+	private final boolean isMember;
+	private final int worldId;
+	// null for clients that aren't mules
+	private final MuleTile tile;
+	private final Protocol protocol;
+	// whether the client wants a session it can resume after losing its connection, asked for with a session header
+	// of true or by resuming one
+	private final boolean session;
+	// null for a new session
+	private final String sessionToken;
+	// sent by a router on its own connections and the ones it passes clients through on, null for clients
+	private final String routerSecret;
+	// the address of the client a router passes through, null for clients and the router's own connections
+	private final String forwardedFor;
+
+	private Handshake(ClientHandshake handshake) throws InvalidDataException
+	{
+		if (handshake.getFieldValue("clientUsername").length() == 0
+				|| handshake.getFieldValue("playerName").length() == 0
+				|| handshake.getFieldValue("isMule").length() == 0
+				|| handshake.getFieldValue("isMember").length() == 0)
+		{
+			throw new InvalidDataException(INVALID_HANDSHAKE, "Invalid or missing handshake data");
+		}
+
+		clientUsername = handshake.getFieldValue("clientUsername");
+		groups = GroupIndex.normalizeGroups(handshake.getFieldValue("groups"));
+		queueSize = handshake.getFieldValue("queueSize").length() > 0 ? parseInt(handshake, "queueSize", INVALID_HANDSHAKE) : 0;
+		if (queueSize < 0)
+		{
+			throw new InvalidDataException(INVALID_HANDSHAKE, "Invalid queueSize: " + queueSize);
+		}
+		playerName = handshake.getFieldValue("playerName");
+		isMule = handshake.getFieldValue("isMule").equals("true");
+		isMember = handshake.getFieldValue("isMember").equals("true");
+		protocol = Protocol.fromHeader(handshake.getFieldValue("protocol"));
+		sessionToken = handshake.getFieldValue("sessionToken").length() > 0 ? handshake.getFieldValue("sessionToken") : null;
+		session = sessionToken != null || handshake.getFieldValue("session").equals("true");
+		routerSecret = handshake.getFieldValue("routerSecret").length() > 0 ? handshake.getFieldValue("routerSecret") : null;
+		forwardedFor = handshake.getFieldValue("forwardedFor").length() > 0 ? handshake.getFieldValue("forwardedFor") : null;
+
+		if (!isMule)
+		{
+			worldId = 0;
+			tile = null;
+			return;
+		}
+		if (handshake.getFieldValue("worldId").length() == 0
+				|| handshake.getFieldValue("tileX").length() == 0
+				|| handshake.getFieldValue("tileY").length() == 0
+				|| handshake.getFieldValue("tileZ").length() == 0)
+		{
+			throw new InvalidDataException(INVALID_MULE_HANDSHAKE, "Invalid or missing mule handshake data");
+		}
+		worldId = parseInt(handshake, "worldId", INVALID_MULE_HANDSHAKE);
+		tile = new MuleTile(
+				parseInt(handshake, "tileX", INVALID_MULE_HANDSHAKE),
+				parseInt(handshake, "tileY", INVALID_MULE_HANDSHAKE),
+				parseInt(handshake, "tileZ", INVALID_MULE_HANDSHAKE)
+		);
+	}
+
+	/**
+	 * @throws InvalidDataException if a header is missing or malformed, which refuses the upgrade
+	 */
+	static Handshake parse(ClientHandshake handshake) throws InvalidDataException
+	{
+		return new Handshake(handshake);
+	}
+
+	/**
+	 * @return whether this is a router's own connection rather than one it passes a client through on, only to be
+	 * trusted once the secret is checked
+	 */
+	boolean isRouter()
+	{
+		return routerSecret != null && forwardedFor == null;
+	}
+
+	private static int parseInt(ClientHandshake handshake, String field, int closeCode) throws InvalidDataException
+	{
+		String value = handshake.getFieldValue(field).trim();
+		try
+		{
+			return Integer.parseInt(value);
+		}
+		catch (NumberFormatException ex)
+		{
+			throw new InvalidDataException(closeCode, "Invalid " + field + ": " + value);
+		}
+	}
+}
@@ -0,0 +1,452 @@
+package org.lostclient.muling.server;
+
+import org.lostclient.muling.Client;
+import org.lostclient.muling.Log;
+import org.lostclient.muling.Request;
+import org.lostclient.muling.messages.AbstractMessage;
+import org.lostclient.muling.messages.MuleTile;
+import org.lostclient.muling.messages.OwnedItem;
+import org.lostclient.muling.messages.client.MuleRequestMessage;
+import org.lostclient.muling.messages.codec.BinaryCodec;
+import org.lostclient.muling.messages.codec.BinaryReader;
+import org.lostclient.muling.messages.codec.BinaryWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of mules, their inventories and the lifecycle of requests in a memory-mapped file, so that a
+ * restarted server can rebuild its open requests and the mules' reservations. A record is its payload length and
+ * CRC32 followed by the payload, the length is written last so a torn record reads as the end of the journal.
+ * Every record can be replayed more than once with the same result. Once the file is full, or the records appended
+ * since the last compaction outgrow the snapshot it started from, the journal is rewritten as a snapshot of the live
+ * state. Only used from the server's engine thread.
+ */
+public class Journal
+{
+	// ordinals are stored in the journal, so new types may only ever be appended
+	private enum RecordType
+	{
+		MULE,
+		MULE_REMOVED,
+		INVENTORY,
+		INVENTORY_DELTA,
+		REQUEST_ADDED,
+		REQUEST_REMOVED
+	}
+
+	private static final RecordType[] RECORD_TYPES = RecordType.values();
+	private static final int MAGIC = 0x4C4D4A31;
+	private static final int HEADER_SIZE = 8;
+	private static final int RECORD_HEADER_SIZE = 8;
+	// don't bother compacting a journal that only grew by this much since the last compaction
+	private static final int MIN_COMPACT_GROWTH = 1 << 20;
+
+	/**
+	 * Receives the records of the journal in the order they were appended.
+	 */
+	public interface Replay
+	{
+		void onMule(String playerName, String clientUsername, String[] groups, int queueSize, boolean member, int worldId, MuleTile tile);
+
+		void onMuleRemoved(String playerName);
+
+		void onInventory(String playerName, long sequence, List<OwnedItem> ownedItems);
+
+		void onInventoryDelta(String playerName, long sequence, List<OwnedItem> changedItems);
+
+		void onRequestAdded(String playerName, String clientUsername, String[] groups, boolean member, String mulePlayerName, MuleRequestMessage muleRequest);
+
+		void onRequestRemoved(String requestId);
+	}
+
+	/**
+	 * Appends the records that rebuild the live state to a journal that is being compacted.
+	 */
+	public interface Snapshot
+	{
+		void writeTo(Journal journal);
+	}
+
+	private final Path path;
+	private final Snapshot snapshot;
+	private int capacity;
+	private MappedByteBuffer buffer;
+	// size of the journal right after the last compaction
+	private int compactedSize;
+	// while compacting records go to this heap buffer instead of the mapped file
+	private ByteBuffer compactBuffer;
+	private final BinaryWriter record = new BinaryWriter(1024);
+	private final CRC32 crc = new CRC32();
+	private boolean failed = false;
+
+	public Journal(Path path, int capacity, Snapshot snapshot)
+	{
+		this.path = path;
+		this.capacity = capacity;
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Reads every intact record of an existing journal. Stops at the first torn or corrupt record, everything
+	 * appended after it is lost.
+	 */
+	public void replay(Replay replay) throws IOException
+	{
+		if (!Files.exists(path))
+		{
+			return;
+		}
+
+		ByteBuffer journal;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			journal = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (journal.limit() < HEADER_SIZE || journal.getInt(0) != MAGIC)
+		{
+			throw new IOException("Not a journal: " + path);
+		}
+
+		int position = HEADER_SIZE;
+		int records = 0;
+		while (position + RECORD_HEADER_SIZE <= journal.limit())
+		{
+			int length = journal.getInt(position);
+			if (length <= 0 || position + RECORD_HEADER_SIZE + length > journal.limit())
+			{
+				break;
+			}
+			ByteBuffer payload = journal.duplicate();
+			payload.position(position + RECORD_HEADER_SIZE).limit(position + RECORD_HEADER_SIZE + length);
+			crc.reset();
+			crc.update(payload.duplicate());
+			if ((int) crc.getValue() != journal.getInt(position + 4))
+			{
+				Log.severe("Journal", "Corrupt record at %d, ignoring the rest of the journal", position);
+				break;
+			}
+			try
+			{
+				replayRecord(payload, replay);
+			}
+			catch (IOException ex)
+			{
+				Log.severe("Journal", "Unreadable record at %d, ignoring the rest of the journal: %s", position, ex);
+				break;
+			}
+			position += RECORD_HEADER_SIZE + length;
+			records++;
+		}
+		Log.info("Journal", "Replayed %d records (%d bytes) from %s", records, position, path);
+	}
+
+	private static void replayRecord(ByteBuffer payload, Replay replay) throws IOException
+	{
+		BinaryReader in = new BinaryReader(payload);
+		int ordinal = in.readVarInt();
+		if (ordinal < 0 || ordinal >= RECORD_TYPES.length)
+		{
+			throw new IOException("Unknown record type " + ordinal);
+		}
+
+		switch (RECORD_TYPES[ordinal])
+		{
+			case MULE:
+			{
+				String playerName = in.readString();
+				String clientUsername = in.readString();
+				String[] groups = readGroups(in);
+				int queueSize = in.readVarInt();
+				boolean member = in.readBoolean();
+				int worldId = in.readVarInt();
+				MuleTile tile = in.readBoolean() ? new MuleTile(in.readSignedVarInt(), in.readSignedVarInt(), in.readSignedVarInt()) : null;
+				replay.onMule(playerName, clientUsername, groups, queueSize, member, worldId, tile);
+			}
+			break;
+
+			case MULE_REMOVED:
+				replay.onMuleRemoved(in.readString());
+				break;
+
+			case INVENTORY:
+				replay.onInventory(in.readString(), in.readVarLong(), readItems(in));
+				break;
+
+			case INVENTORY_DELTA:
+				replay.onInventoryDelta(in.readString(), in.readVarLong(), readItems(in));
+				break;
+
+			case REQUEST_ADDED:
+			{
+				String playerName = in.readString();
+				String clientUsername = in.readString();
+				String[] groups = readGroups(in);
+				boolean member = in.readBoolean();
+				String mulePlayerName = in.readString();
+				// the rest of the record is the request in the binary protocol's encoding
+				AbstractMessage muleRequest = BinaryCodec.decode(payload);
+				if (!(muleRequest instanceof MuleRequestMessage))
+				{
+					throw new IOException("Request record without a request");
+				}
+				replay.onRequestAdded(playerName, clientUsername, groups, member, mulePlayerName, (MuleRequestMessage) muleRequest);
+			}
+			break;
+
+			case REQUEST_REMOVED:
+				replay.onRequestRemoved(in.readString());
+				break;
+		}
+	}
+
+	public void appendMule(Client mule)
+	{
+		startRecord(RecordType.MULE);
+		record.writeString(mule.getPlayerName());
+		record.writeString(mule.getClientUsername());
+		writeGroups(mule.getGroups());
+		record.writeVarInt(mule.getQueueSize());
+		record.writeBoolean(mule.isMember());
+		record.writeVarInt(mule.getWorldId());
+		MuleTile tile = mule.getTile();
+		record.writeBoolean(tile != null);
+		if (tile != null)
+		{
+			record.writeSignedVarInt(tile.getX());
+			record.writeSignedVarInt(tile.getY());
+			record.writeSignedVarInt(tile.getZ());
+		}
+		append();
+	}
+
+	public void appendMuleRemoved(Client mule)
+	{
+		startRecord(RecordType.MULE_REMOVED);
+		record.writeString(mule.getPlayerName());
+		append();
+	}
+
+	public void appendInventory(Client mule)
+	{
+		startRecord(RecordType.INVENTORY);
+		record.writeString(mule.getPlayerName());
+		record.writeVarLong(mule.getInventorySequence());
+		writeItems(mule.getOwnedItems());
+		append();
+	}
+
+	public void appendInventoryDelta(Client mule, List<OwnedItem> changedItems)
+	{
+		startRecord(RecordType.INVENTORY_DELTA);
+		record.writeString(mule.getPlayerName());
+		record.writeVarLong(mule.getInventorySequence());
+		writeItems(changedItems);
+		append();
+	}
+
+	public void appendRequestAdded(Request request)
+	{
+		Client client = request.getClient();
+		startRecord(RecordType.REQUEST_ADDED);
+		record.writeString(client.getPlayerName());
+		record.writeString(client.getClientUsername());
+		writeGroups(client.getGroups());
+		record.writeBoolean(client.isMember());
+		record.writeString(request.getMule().getPlayerName());
+		record.writeBytes(BinaryCodec.encode(request.getMuleRequest()));
+		append();
+	}
+
+	public void appendRequestRemoved(Request request)
+	{
+		startRecord(RecordType.REQUEST_REMOVED);
+		record.writeString(request.getMuleRequest().requestId);
+		append();
+	}
+
+	/**
+	 * Rewrites the journal as a snapshot of the live state, in a new file that atomically replaces the old one.
+	 * The capacity doubles whenever the snapshot would fill more than half of the file.
+	 */
+	public void compact()
+	{
+		compact(0);
+	}
+
+	/**
+	 * Compacts the journal if the records appended since the last compaction outgrew the snapshot it started from.
+	 */
+	public void compactIfGrown()
+	{
+		if (buffer != null && buffer.position() - compactedSize > Math.max(compactedSize, MIN_COMPACT_GROWTH))
+		{
+			compact();
+		}
+	}
+
+	/**
+	 * Flushes the mapped file to disk, without it the journal only survives the process and not the machine.
+	 */
+	public void force()
+	{
+		if (buffer != null && !failed)
+		{
+			buffer.force();
+		}
+	}
+
+	private void compact(int reserve)
+	{
+		if (failed)
+		{
+			return;
+		}
+
+		long start = System.nanoTime();
+		compactBuffer = ByteBuffer.allocate(Math.max(4096, compactedSize * 2));
+		try
+		{
+			snapshot.writeTo(this);
+			compactBuffer.flip();
+
+			int size = HEADER_SIZE + compactBuffer.remaining();
+			while (capacity < 2 * (size + reserve))
+			{
+				capacity *= 2;
+			}
+
+			Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+			Files.deleteIfExists(compacted);
+			MappedByteBuffer mapped;
+			try (FileChannel channel = FileChannel.open(compacted, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE))
+			{
+				mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+			}
+			mapped.putInt(MAGIC);
+			// reserved for a format version
+			mapped.putInt(0);
+			mapped.put(compactBuffer);
+			mapped.force();
+			Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+			buffer = mapped;
+			compactedSize = mapped.position();
+			Log.info("Journal", "Compacted to %d bytes in %d ms", compactedSize, (System.nanoTime() - start) / 1_000_000);
+		}
+		catch (IOException ex)
+		{
+			// the requests keep working without a journal, they just won't survive a restart
+			failed = true;
+			Log.severe("Journal", "Failed to compact the journal, journaling stopped: %s", ex);
+		}
+		finally
+		{
+			compactBuffer = null;
+		}
+	}
+
+	private void startRecord(RecordType type)
+	{
+		record.reset();
+		record.writeVarInt(type.ordinal());
+	}
+
+	private void append()
+	{
+		if (failed)
+		{
+			return;
+		}
+
+		int size = RECORD_HEADER_SIZE + record.size();
+		ByteBuffer target;
+		if (compactBuffer != null)
+		{
+			if (compactBuffer.remaining() < size)
+			{
+				ByteBuffer grown = ByteBuffer.allocate(Math.max(compactBuffer.capacity() * 2, compactBuffer.position() + size));
+				compactBuffer.flip();
+				grown.put(compactBuffer);
+				compactBuffer = grown;
+			}
+			target = compactBuffer;
+		}
+		else
+		{
+			if (buffer == null || buffer.remaining() < size)
+			{
+				// the snapshot is written with the same writer, the record is kept aside and appended on top of it
+				ByteBuffer pending = record.toByteBuffer();
+				compact(size);
+				if (failed)
+				{
+					return;
+				}
+				record.reset();
+				record.writeBytes(pending);
+			}
+			target = buffer;
+		}
+
+		int start = target.position();
+		target.position(start + RECORD_HEADER_SIZE);
+		record.writeTo(target);
+		ByteBuffer payload = target.duplicate();
+		payload.position(start + RECORD_HEADER_SIZE).limit(target.position());
+		crc.reset();
+		crc.update(payload);
+		target.putInt(start + 4, (int) crc.getValue());
+		target.putInt(start, record.size());
+	}
+
+	private void writeGroups(String[] groups)
+	{
+		record.writeVarInt(groups.length);
+		for (String group : groups)
+		{
+			record.writeString(group);
+		}
+	}
+
+	private static String[] readGroups(BinaryReader in) throws IOException
+	{
+		int count = in.readVarInt();
+		String[] groups = new String[count];
+		for (int i = 0; i < count; i++)
+		{
+			groups[i] = in.readString().intern();
+		}
+		return groups;
+	}
+
+	private void writeItems(List<OwnedItem> items)
+	{
+		record.writeVarInt(items.size());
+		for (OwnedItem item : items)
+		{
+			record.writeVarInt(item.getItemId());
+			record.writeSignedVarInt(item.getQuantity());
+		}
+	}
+
+	private static List<OwnedItem> readItems(BinaryReader in) throws IOException
+	{
+		int count = in.readVarInt();
+		List<OwnedItem> items = new ArrayList<>(Math.min(count, 1024));
+		for (int i = 0; i < count; i++)
+		{
+			items.add(new OwnedItem(in.readVarInt(), in.readSignedVarInt()));
+		}
+		return items;
+	}
+}
@@ -0,0 +1,131 @@
+package org.lostclient.muling.server;
+
+import org.lostclient.muling.Client;
+import org.lostclient.muling.messages.MuleTile;
+import org.lostclient.muling.messages.OwnedItem;
+import org.lostclient.muling.messages.client.MuleRequestMessage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Rebuilds the mules and open requests a {@link Journal} describes. The mules and bots come back as detached clients
+ * without a connection, waiting for the player to reconnect.
+ */
+class JournalRecovery implements Journal.Replay
+{
+	/**
+	 * An open request as it was journaled, resolved to clients once the whole journal was read.
+	 */
+	static class RecoveredRequest
+	{
+		final String playerName;
+		final String mulePlayerName;
+		final MuleRequestMessage muleRequest;
+
+		RecoveredRequest(String playerName, String mulePlayerName, MuleRequestMessage muleRequest)
+		{
+			this.playerName = playerName;
+			this.mulePlayerName = mulePlayerName;
+			this.muleRequest = muleRequest;
+		}
+	}
+
+	private final LongSupplier nextConnIndex;
+	private final Map<String, Client> mules = new HashMap<>();
+	private final Map<String, Client> bots = new HashMap<>();
+	private final Map<String, RecoveredRequest> requests = new LinkedHashMap<>();
+
+	JournalRecovery(LongSupplier nextConnIndex)
+	{
+		this.nextConnIndex = nextConnIndex;
+	}
+
+	@Override
+	public void onMule(String playerName, String clientUsername, String[] groups, int queueSize, boolean member, int worldId, MuleTile tile)
+	{
+		Client mule = new Client(null, nextConnIndex.getAsLong(), System.currentTimeMillis(), clientUsername, groups, queueSize, playerName, true, member);
+		mule.setWorldId(worldId);
+		mule.setTile(tile);
+		// a reconnect journals the mule again, its inventory carries over
+		Client previous = mules.put(playerName, mule);
+		if (previous != null)
+		{
+			mule.setOwnedItems(previous.getOwnedItems());
+			mule.setInventorySequence(previous.getInventorySequence());
+		}
+	}
+
+	@Override
+	public void onMuleRemoved(String playerName)
+	{
+		mules.remove(playerName);
+	}
+
+	@Override
+	public void onInventory(String playerName, long sequence, List<OwnedItem> ownedItems)
+	{
+		Client mule = mules.get(playerName);
+		if (mule != null)
+		{
+			mule.setOwnedItems(ownedItems);
+			mule.setInventorySequence(sequence);
+		}
+	}
+
+	@Override
+	public void onInventoryDelta(String playerName, long sequence, List<OwnedItem> changedItems)
+	{
+		Client mule = mules.get(playerName);
+		if (mule != null)
+		{
+			mule.applyOwnedItemChanges(changedItems);
+			mule.setInventorySequence(sequence);
+		}
+	}
+
+	@Override
+	public void onRequestAdded(String playerName, String clientUsername, String[] groups, boolean member, String mulePlayerName, MuleRequestMessage muleRequest)
+	{
+		bots.computeIfAbsent(playerName, p -> new Client(null, nextConnIndex.getAsLong(), System.currentTimeMillis(), clientUsername, groups, 0, playerName, false, member));
+		// keep the journal's order, a re-added request moves to the end
+		requests.remove(muleRequest.requestId);
+		requests.put(muleRequest.requestId, new RecoveredRequest(playerName, mulePlayerName, muleRequest));
+	}
+
+	@Override
+	public void onRequestRemoved(String requestId)
+	{
+		requests.remove(requestId);
+	}
+
+	/**
+	 * @return the open requests whose mule is still known, in the order they were made
+	 */
+	List<RecoveredRequest> getRequests()
+	{
+		List<RecoveredRequest> recovered = new ArrayList<>(requests.size());
+		for (RecoveredRequest request : requests.values())
+		{
+			if (mules.containsKey(request.mulePlayerName))
+			{
+				recovered.add(request);
+			}
+		}
+		return recovered;
+	}
+
+	Client getMule(String playerName)
+	{
+		return mules.get(playerName);
+	}
+
+	Client getBot(String playerName)
+	{
+		return bots.get(playerName);
+	}
+}
@@ -1,10 +1,28 @@
 package org.lostclient.muling.server;
 
+import org.lostclient.muling.router.NodeMap;
+import org.lostclient.muling.router.Router;
+
+/**
+ * Runs a server, or with {@code -Dlostmule.mode=router} a router in front of the server nodes listed in
+ * {@code lostmule.router.nodes}.
+ */
 public class Main
 {
 	public static void main(String[] args)
 	{
-		Server server = new Server(42067);
+		int port = Integer.getInteger("lostmule.port", 42067);
+		if (System.getProperty("lostmule.mode", "server").equalsIgnoreCase("router"))
+		{
+			Router router = new Router(port, NodeMap.fromProperties());
+			router.setReuseAddr(true);
+			router.start();
+			return;
+		}
+
+		Server server = new Server(port);
+		// nodes are restarted on the same port, don't wait out the old connections
+		server.setReuseAddr(true);
 		server.start();
 	}
 }
@@ -0,0 +1,69 @@
+package org.lostclient.muling.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.lostclient.muling.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the server's metrics in the Prometheus text format on {@code /metrics}, on its own port and thread so
+ * scrapes never touch the WebSocket threads.
+ */
+public class MetricsEndpoint
+{
+	private final HttpServer httpServer;
+	private final Callable<String> metrics;
+
+	public MetricsEndpoint(int port, Callable<String> metrics) throws IOException
+	{
+		this.metrics = metrics;
+		this.httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+		this.httpServer.createContext("/metrics", this::handle);
+		this.httpServer.setExecutor(Executors.newSingleThreadExecutor(runnable ->
+		{
+			Thread thread = new Thread(runnable, "MetricsEndpoint");
+			thread.setDaemon(true);
+			return thread;
+		}));
+	}
+
+	public void start()
+	{
+		httpServer.start();
+		Log.info("Metrics endpoint started on port: " + httpServer.getAddress().getPort());
+	}
+
+	public void stop()
+	{
+		httpServer.stop(0);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException
+	{
+		try
+		{
+			byte[] body = metrics.call().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody())
+			{
+				out.write(body);
+			}
+		}
+		catch (Exception ex)
+		{
+			Log.severe("MetricsEndpoint", "Failed to render metrics: " + ex);
+			exchange.sendResponseHeaders(500, -1);
+		}
+		finally
+		{
+			exchange.close();
+		}
+	}
+}
@@ -0,0 +1,224 @@
+package org.lostclient.muling.server;
+
+import org.lostclient.muling.Log;
+import org.lostclient.muling.messages.MessageType;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Token buckets per account and message type, shared by every connection of a {@code clientUsername}. Limits are
+ * set as {@code <per second>/<burst>}, with {@code lostmule.rateLimit.<TYPE>} for every account and
+ * {@code lostmule.rateLimit.<group>.<TYPE>} for clients in that group, which take the limits of the first of their
+ * groups that has any. Types without a limit are never throttled.
+ */
+public class RateLimiter
+{
+	private static final String PREFIX = "lostmule.rateLimit.";
+	private static final MessageType[] TYPES = MessageType.values();
+
+	private final Limit[] defaultLimits;
+	private final Map<String, Limit[]> groupLimits;
+	// group the limits came from + clientUsername -> buckets
+	private final ConcurrentHashMap<String, Account> accounts = new ConcurrentHashMap<>();
+
+	private RateLimiter(Limit[] defaultLimits, Map<String, Limit[]> groupLimits)
+	{
+		this.defaultLimits = defaultLimits;
+		this.groupLimits = groupLimits;
+	}
+
+	private static class Limit
+	{
+		private final double perSecond;
+		private final int burst;
+
+		private Limit(double perSecond, int burst)
+		{
+			this.perSecond = perSecond;
+			this.burst = burst;
+		}
+	}
+
+	/**
+	 * The buckets of one account under one set of limits, along with how many connections use them.
+	 */
+	public static class Account
+	{
+		private final String key;
+		private final TokenBucket[] buckets = new TokenBucket[TYPES.length];
+		// only changed inside the map's compute functions
+		private int connections;
+
+		private Account(String key, Limit[] limits)
+		{
+			this.key = key;
+			for (int i = 0; i < limits.length; i++)
+			{
+				if (limits[i] != null)
+				{
+					buckets[i] = new TokenBucket(limits[i].perSecond, limits[i].burst);
+				}
+			}
+		}
+
+		/**
+		 * @return 0 if the message may be handled, otherwise the nanoseconds until one of its type may be again
+		 */
+		public long tryTake(MessageType type, long now)
+		{
+			TokenBucket bucket = buckets[type.ordinal()];
+			return bucket == null ? 0L : bucket.tryTake(now);
+		}
+
+		private boolean isIdle(long now)
+		{
+			if (connections > 0)
+			{
+				return false;
+			}
+			for (TokenBucket bucket : buckets)
+			{
+				if (bucket != null && !bucket.isFull(now))
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * @return the limiter for the limits in the system properties, or null if none are set
+	 */
+	public static RateLimiter fromProperties()
+	{
+		Properties properties = System.getProperties();
+		Limit[] defaultLimits = new Limit[TYPES.length];
+		Map<String, Map<MessageType, Limit>> overrides = new HashMap<>();
+		boolean any = false;
+		for (String name : properties.stringPropertyNames())
+		{
+			if (!name.startsWith(PREFIX))
+			{
+				continue;
+			}
+			String key = name.substring(PREFIX.length());
+			int dot = key.lastIndexOf('.');
+			MessageType type = parseType(key.substring(dot + 1));
+			Limit limit = parseLimit(properties.getProperty(name));
+			if (type == null || limit == null)
+			{
+				Log.severe("RateLimiter", "Ignoring invalid rate limit %s=%s", name, properties.getProperty(name));
+				continue;
+			}
+			if (dot < 0)
+			{
+				defaultLimits[type.ordinal()] = limit;
+			}
+			else
+			{
+				overrides.computeIfAbsent(key.substring(0, dot).trim().toLowerCase(Locale.ROOT), group -> new HashMap<>()).put(type, limit);
+			}
+			any = true;
+		}
+		if (!any)
+		{
+			return null;
+		}
+
+		Map<String, Limit[]> groupLimits = new HashMap<>();
+		overrides.forEach((group, limits) ->
+		{
+			Limit[] merged = defaultLimits.clone();
+			limits.forEach((type, limit) -> merged[type.ordinal()] = limit);
+			groupLimits.put(group, merged);
+		});
+		return new RateLimiter(defaultLimits, groupLimits);
+	}
+
+	private static MessageType parseType(String type)
+	{
+		try
+		{
+			return MessageType.valueOf(type.trim().toUpperCase(Locale.ROOT));
+		}
+		catch (IllegalArgumentException ex)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * @param value {@code <per second>/<burst>}, or just {@code <per second>} for a burst of one second's worth
+	 */
+	private static Limit parseLimit(String value)
+	{
+		try
+		{
+			String[] parts = value.split("/", 2);
+			double perSecond = Double.parseDouble(parts[0].trim());
+			int burst = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : (int) Math.ceil(perSecond);
+			return perSecond > 0 && burst > 0 ? new Limit(perSecond, burst) : null;
+		}
+		catch (NumberFormatException ex)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * @return the buckets a new connection of the account takes its tokens from, to be released when it closes
+	 */
+	public Account acquire(String clientUsername, String[] groups)
+	{
+		String limitGroup = "";
+		Limit[] limits = defaultLimits;
+		for (String group : groups)
+		{
+			Limit[] forGroup = groupLimits.get(group);
+			if (forGroup != null)
+			{
+				limitGroup = group;
+				limits = forGroup;
+				break;
+			}
+		}
+
+		Limit[] accountLimits = limits;
+		return accounts.compute(limitGroup + '\n' + clientUsername, (key, account) ->
+		{
+			if (account == null)
+			{
+				account = new Account(key, accountLimits);
+			}
+			account.connections++;
+			return account;
+		});
+	}
+
+	public void release(Account account)
+	{
+		accounts.computeIfPresent(account.key, (key, current) ->
+		{
+			current.connections--;
+			return current;
+		});
+	}
+
+	/**
+	 * Forgets accounts without connections whose buckets filled up again. They are kept until then, so reconnecting
+	 * doesn't hand out a fresh burst.
+	 */
+	public void removeIdle()
+	{
+		long now = System.nanoTime();
+		for (String key : accounts.keySet())
+		{
+			accounts.computeIfPresent(key, (k, account) -> account.isIdle(now) ? null : account);
+		}
+	}
+}
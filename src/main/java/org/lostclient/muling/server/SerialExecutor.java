@@ -0,0 +1,74 @@
+package org.lostclient.muling.server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs tasks one at a time and in submission order on a shared executor, without holding on to a thread while it has
+ * nothing to do. Many of these share one pool, each keeping the order of its own tasks.
+ */
+final class SerialExecutor implements Executor
+{
+	// tasks run per turn on the shared executor, so that one busy connection can't keep a worker to itself
+	private static final int MAX_BATCH = 64;
+
+	private final Executor executor;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+
+	SerialExecutor(Executor executor)
+	{
+		this.executor = executor;
+	}
+
+	@Override
+	public void execute(Runnable task)
+	{
+		tasks.add(task);
+		schedule();
+	}
+
+	private void schedule()
+	{
+		if (tasks.isEmpty() || !scheduled.compareAndSet(false, true))
+		{
+			return;
+		}
+		try
+		{
+			executor.execute(this::drain);
+		}
+		catch (RejectedExecutionException ex)
+		{
+			// the server is shutting down, nothing will run these anymore
+			tasks.clear();
+			scheduled.set(false);
+		}
+	}
+
+	private void drain()
+	{
+		for (int i = 0; i < MAX_BATCH; i++)
+		{
+			Runnable task = tasks.poll();
+			if (task == null)
+			{
+				break;
+			}
+			try
+			{
+				task.run();
+			}
+			catch (RuntimeException ex)
+			{
+				ex.printStackTrace();
+			}
+		}
+		scheduled.set(false);
+		// a task added while the last ones ran saw this still scheduled and left it to us
+		schedule();
+	}
+}
@@ -1,253 +1,1213 @@
 package org.lostclient.muling.server;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.framing.BinaryFrame;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.TextFrame;
 import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ServerHandshakeBuilder;
 import org.java_websocket.server.WebSocketServer;
 import org.lostclient.muling.Client;
+import org.lostclient.muling.GroupIndex;
+import org.lostclient.muling.ItemIndex;
+import org.lostclient.muling.LoadIndex;
 import org.lostclient.muling.Log;
-import org.lostclient.muling.Random;
+import org.lostclient.muling.MuleSelector;
+import org.lostclient.muling.RandomMuleSelector;
 import org.lostclient.muling.Request;
+import org.lostclient.muling.RequestRegistry;
+import org.lostclient.muling.WaitQueue;
+import org.lostclient.muling.WaitingRequest;
+import org.lostclient.muling.metrics.Metrics;
 import org.lostclient.muling.messages.AbstractMessage;
-import org.lostclient.muling.messages.MessageType;
+import org.lostclient.muling.messages.FleetEvent;
 import org.lostclient.muling.messages.Mule;
-import org.lostclient.muling.messages.MuleTile;
+import org.lostclient.muling.messages.OwnedItem;
+import org.lostclient.muling.messages.codec.BinaryCodec;
+import org.lostclient.muling.messages.codec.EncodedMessage;
+import org.lostclient.muling.messages.codec.JsonCodec;
+import org.lostclient.muling.messages.codec.Protocol;
+import org.lostclient.muling.messages.client.ListMulesRequestMessage;
 import org.lostclient.muling.messages.client.MuleRequestMessage;
+import org.lostclient.muling.messages.client.OwnedItemsDeltaMessage;
 import org.lostclient.muling.messages.client.OwnedItemsUpdateMessage;
 import org.lostclient.muling.messages.client.TradeCompletedMessage;
 import org.lostclient.muling.messages.client.TradeRequestMessage;
 import org.lostclient.muling.messages.client.UnknownTraderMessage;
+import org.lostclient.muling.messages.server.FleetEventsMessage;
 import org.lostclient.muling.messages.server.ListMulesResponseMessage;
+import org.lostclient.muling.messages.server.MetricsResponseMessage;
 import org.lostclient.muling.messages.server.MuleResponseMessage;
+import org.lostclient.muling.messages.server.OwnedItemsResyncMessage;
+import org.lostclient.muling.messages.server.RateLimitedMessage;
+import org.lostclient.muling.messages.server.SessionMessage;
 import org.lostclient.muling.messages.server.TradeResponseMessage;
 
+import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.stream.Collectors;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * The package-private methods are what the benchmarks in {@code src/jmh} drive directly. They touch engine state,
+ * so outside of the engine they may only ever be called from a single thread.
+ */
 public class Server extends WebSocketServer
 {
-	private long connIndex = 0L;
-	private final Map<Long, Client> clients = new ConcurrentHashMap<>();
-	private final List<Request> requests = new CopyOnWriteArrayList<>();
+	// recompute reservations from the open requests and compare them against the mules' ledgers
+	private static final boolean VERIFY_RESERVATIONS = Boolean.getBoolean("lostmule.verifyReservations");
+	// how long mule changes are collected before they are pushed to fleet subscribers
+	private static final long FLEET_COALESCE_MILLIS = Long.getLong("lostmule.fleet.coalesceMillis", 250L);
+	private static final String DEFAULT_SELECTOR = System.getProperty("lostmule.selector", "random");
+	// upper bound for the wait timeout of a request and for the number of requests waiting in one group
+	private static final long MAX_WAIT_TIMEOUT_MILLIS = Long.getLong("lostmule.wait.maxTimeout", 60_000L);
+	private static final int MAX_WAITING_PER_GROUP = Integer.getInteger("lostmule.wait.maxQueue", 1000);
+	// how long an assigned request may stay open counted from its requestedAt, 0 to never expire requests
+	private static final long REQUEST_TTL_MILLIS = Long.getLong("lostmule.request.ttl", 600_000L);
+	// port of the Prometheus metrics endpoint, 0 to not serve one
+	private static final int METRICS_PORT = Integer.getInteger("lostmule.metrics.port", 0);
+	// file requests and inventories are journaled to so they survive a restart, unset to not journal
+	private static final String JOURNAL_PATH = System.getProperty("lostmule.journal.path");
+	private static final int JOURNAL_SIZE = Integer.getInteger("lostmule.journal.size", 64 << 20);
+	private static final long JOURNAL_COMPACT_MILLIS = Long.getLong("lostmule.journal.compactMillis", 60_000L);
+	// how often the journal is flushed to disk, 0 to leave it to the OS
+	private static final long JOURNAL_FORCE_MILLIS = Long.getLong("lostmule.journal.forceMillis", 1000L);
+	// how long recovered requests are held for their mule and bot to reconnect after a restart
+	private static final long RECOVERY_GRACE_MILLIS = Long.getLong("lostmule.journal.graceMillis", 60_000L);
+	// how long a client with a session that lost its connection keeps its requests for it to resume the session, 0
+	// to not hold them. Clients without a session are removed straight away
+	private static final long SESSION_GRACE_MILLIS = Long.getLong("lostmule.session.graceMillis", 30_000L);
+	// messages buffered for a client that lost its connection before its session is ended
+	private static final int SESSION_MAX_BUFFERED = Integer.getInteger("lostmule.session.maxBuffered", 256);
+	// threads reading frames off the sockets
+	private static final int DECODERS = Integer.getInteger("lostmule.decoders", Runtime.getRuntime().availableProcessors());
+	// where messages are decoded and encoded: inline on the WebSocket and engine threads, on a pool of workers or on
+	// virtual threads, each connection in order either way
+	private static final String EXECUTION = System.getProperty("lostmule.execution", "inline");
+	private static final int WORKERS = Integer.getInteger("lostmule.workers", Runtime.getRuntime().availableProcessors());
+	// how long messages are collected before they are written, 0 to write them once the current command is done
+	private static final long OUTBOUND_FLUSH_MILLIS = Long.getLong("lostmule.outbound.flushMillis", 0L);
+	// bytes the socket may have waiting to be written before messages are held back on the server
+	private static final long OUTBOUND_HIGH_WATER_BYTES = Long.getLong("lostmule.outbound.highWaterBytes", 1L << 20);
+	// how long a connection may stay over the high-water mark, and how many messages may be held back for it, before
+	// it is closed
+	private static final long OUTBOUND_SLOW_MILLIS = Long.getLong("lostmule.outbound.slowMillis", 10_000L);
+	private static final int OUTBOUND_MAX_PENDING = Integer.getInteger("lostmule.outbound.maxPending", 1024);
+	private static final long OUTBOUND_RETRY_MILLIS = 100L;
+	// how long deltas are discarded after asking a mule for its full inventory before it is asked again
+	private static final long INVENTORY_RESYNC_RETRY_MILLIS = 5000L;
+	// how often accounts whose rate limits filled up again are forgotten
+	private static final long RATE_LIMIT_SWEEP_MILLIS = 60_000L;
+	// connections in total and from one address, 0 for no cap
+	private static final int MAX_CONNECTIONS = Integer.getInteger("lostmule.maxConnections", 0);
+	private static final int MAX_CONNECTIONS_PER_ADDRESS = Integer.getInteger("lostmule.maxConnectionsPerAddress", 0);
+	// shared with the router in front of this node. The router's own connections aren't rate limited, the clients it
+	// passes through are capped by the address it forwards for them. Unset if there is none
+	private static final String ROUTER_SECRET = System.getProperty("lostmule.router.secret");
+
+	private static final SecureRandom sessionTokens = new SecureRandom();
+
+	private final AtomicLong nextConnIndex = new AtomicLong();
+	private final Metrics metrics = new Metrics();
+	private MetricsEndpoint metricsEndpoint;
+	// null when messages are decoded and encoded inline
+	private final ExecutorService workers;
+	private final long sessionGraceMillis;
+	// null when no rate limits are set
+	private final RateLimiter rateLimiter = RateLimiter.fromProperties();
+	private final ConnectionLimiter connectionLimiter = new ConnectionLimiter(MAX_CONNECTIONS, MAX_CONNECTIONS_PER_ADDRESS);
+	// everything below is only ever touched from the engine thread
+	private final Engine engine = new Engine("MuleEngine");
+	private final Map<Long, Client> clients = new HashMap<>();
+	// clients without a connection by player name, they get it back when the player reconnects
+	private final Map<String, Client> detachedClients = new HashMap<>();
+	private Journal journal;
+	// session token -> client, for every client that can be resumed
+	private final Map<String, Client> sessions = new HashMap<>();
+	// clients that lost their connection -> when their session ends
+	private final Map<Client, TimerWheel.Timeout> sessionExpiries = new HashMap<>();
+	private final GroupIndex groupIndex = new GroupIndex();
+	private final ItemIndex itemIndex = new ItemIndex();
+	private final LoadIndex loadIndex = new LoadIndex();
+	private final Map<String, MuleSelector> selectors = new HashMap<>();
+	private final WaitQueue waitQueue = new WaitQueue();
+	// groups whose waiting requests are matched again once the current command is done
+	private final Set<String> pendingMatchGroups = new LinkedHashSet<>();
+	private final Map<String, Long> requestTtls = new HashMap<>();
+	private final Map<Request, TimerWheel.Timeout> requestExpiries = new HashMap<>();
+	private final RequestRegistry requests = new RequestRegistry(new RequestRegistry.Listener()
+	{
+		@Override
+		public void onRequestAdded(Request request)
+		{
+			scheduleExpiry(request);
+			if (journal != null)
+			{
+				journal.appendRequestAdded(request);
+			}
+			if (request.getMule() != null && request.getMule().isAttached())
+			{
+				itemIndex.update(request.getMule(), request.getMuleRequest().requiredItems);
+				loadIndex.update(request.getMule(), requests.countByMule(request.getMule()));
+				onMuleChanged(request.getMule(), FleetEvent.Type.UPDATED);
+			}
+		}
+
+		@Override
+		public void onRequestRemoved(Request request)
+		{
+			TimerWheel.Timeout expiry = requestExpiries.remove(request);
+			if (expiry != null)
+			{
+				expiry.cancel();
+			}
+			if (journal != null)
+			{
+				journal.appendRequestRemoved(request);
+			}
+			if (request.getMule() != null && request.getMule().isAttached())
+			{
+				itemIndex.update(request.getMule(), request.getMuleRequest().requiredItems);
+				loadIndex.update(request.getMule(), requests.countByMule(request.getMule()));
+				onMuleChanged(request.getMule(), FleetEvent.Type.UPDATED);
+				onMuleAvailable(request.getMule());
+			}
+		}
+	});
+	// bumped on every change to a mule, its inventory or its requests
+	private long stateVersion = 0L;
+	private long listMulesVersion = -1L;
+	private EncodedMessage listMulesResponse;
+	private final Set<Client> fleetSubscribers = new LinkedHashSet<>();
+	// mule -> latest change since the last flush to the fleet subscribers
+	private final Map<Client, FleetEvent.Type> pendingFleetEvents = new LinkedHashMap<>();
+	private boolean fleetFlushScheduled = false;
+	// connections with messages to write once the current command is done, and ones held back by a slow socket
+	private final Set<Connection> pendingFlushes = new LinkedHashSet<>();
+	private final Set<Connection> heldFlushes = new LinkedHashSet<>();
 
 	public Server(int port)
 	{
-		super(new InetSocketAddress(port));
+		this(port, SESSION_GRACE_MILLIS);
+	}
+
+	Server(int port, long sessionGraceMillis)
+	{
+		super(new InetSocketAddress(port), DECODERS);
+		this.sessionGraceMillis = sessionGraceMillis;
+		workers = createWorkers(EXECUTION);
+		setWebSocketFactory(new CountingChannel.Factory());
 	}
 
-	private Client getClientFromConn(WebSocket conn, ClientHandshake handshake)
+	private static ExecutorService createWorkers(String execution)
 	{
-		if (handshake.getFieldValue("clientUsername").length() == 0
-				|| handshake.getFieldValue("playerName").length() == 0
-				|| handshake.getFieldValue("isMule").length() == 0
-				|| handshake.getFieldValue("isMember").length() == 0)
+		switch (execution.toLowerCase())
 		{
-			conn.close(10001, "Invalid or missing handshake data");
-			return null;
+			case "inline":
+				return null;
+			case "virtual":
+				try
+				{
+					// looked up at runtime, the build targets a JDK without virtual threads
+					return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+				}
+				catch (ReflectiveOperationException ex)
+				{
+					Log.severe("Server", "Virtual threads aren't available on this JVM, using a pool of %d workers", WORKERS);
+				}
+				// fall through
+			case "pool":
+			{
+				AtomicInteger threads = new AtomicInteger();
+				return Executors.newFixedThreadPool(WORKERS, task ->
+				{
+					Thread thread = new Thread(task, "MuleWorker-" + threads.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
+			default:
+				throw new IllegalArgumentException("Unknown execution mode: " + execution);
 		}
+	}
 
-		String clientUsername = handshake.getFieldValue("clientUsername");
-		String[] groups = handshake.getFieldValue("groups").length() > 0 ? handshake.getFieldValue("groups").split(",") : new String[] {"default"};
-		int queueSize = handshake.getFieldValue("queueSize").length() > 0 ? Integer.parseInt(handshake.getFieldValue("queueSize")) : 0;
-		String playerName = handshake.getFieldValue("playerName");
-		boolean isMule = handshake.getFieldValue("isMule").equals("true");
-		boolean isMember = handshake.getFieldValue("isMember").equals("true");
-		int muleWorldId = 0;
-		MuleTile muleTile = null;
+	private Executor newConnectionExecutor()
+	{
+		return workers == null ? Runnable::run : new SerialExecutor(workers);
+	}
+
+	/**
+	 * Runs a task for the connection in order with its other messages, inline when the connection has no executor.
+	 */
+	private static void execute(WebSocket conn, Runnable task)
+	{
+		Connection connection = conn.getAttachment();
+		if (connection == null)
+		{
+			task.run();
+			return;
+		}
+		connection.execute(task);
+	}
 
-		if (isMule)
+	/**
+	 * Checks the handshake headers and the connection limits before the upgrade completes. A refused client gets an
+	 * HTTP error instead of a WebSocket, and never reaches {@link #onOpen}.
+	 */
+	@Override
+	public ServerHandshakeBuilder onWebsocketHandshakeReceivedAsServer(WebSocket conn, Draft draft, ClientHandshake request) throws InvalidDataException
+	{
+		Handshake handshake;
+		InetAddress forwarded = null;
+		try
 		{
-			if (handshake.getFieldValue("worldId").length() == 0
-					|| handshake.getFieldValue("tileX").length() == 0
-					|| handshake.getFieldValue("tileY").length() == 0
-					|| handshake.getFieldValue("tileZ").length() == 0)
+			handshake = Handshake.parse(request);
+			if (handshake.getRouterSecret() != null && !isRouterSecret(handshake.getRouterSecret()))
 			{
-				conn.close(10002, "Invalid or missing mule handshake data");
-				return null;
+				throw new InvalidDataException(Handshake.INVALID_HANDSHAKE, "Invalid routerSecret");
 			}
-			muleWorldId = Integer.parseInt(handshake.getFieldValue("worldId"));
-			muleTile = new MuleTile(
-					Integer.parseInt(handshake.getFieldValue("tileX")),
-					Integer.parseInt(handshake.getFieldValue("tileY")),
-					Integer.parseInt(handshake.getFieldValue("tileZ"))
-			);
+			// a client passed through a router is capped by its own address, only a router can vouch for it
+			if (handshake.getRouterSecret() != null && handshake.getForwardedFor() != null)
+			{
+				forwarded = parseAddress(handshake.getForwardedFor());
+			}
+		}
+		catch (InvalidDataException ex)
+		{
+			metrics.recordRefusedHandshake();
+			Log.fine("Server", "Refused handshake: %s - %s", conn.getRemoteSocketAddress(), ex.getMessage());
+			throw ex;
 		}
 
-		conn.setAttachment(connIndex);
+		InetSocketAddress remote = conn.getRemoteSocketAddress();
+		InetAddress address = forwarded != null ? forwarded : remote != null ? remote.getAddress() : null;
+		String refused = connectionLimiter.tryAcquire(address);
+		if (refused != null)
+		{
+			metrics.recordRefusedHandshake();
+			Log.fine("Server", "Refused handshake: %s - %s", remote, refused);
+			throw new InvalidDataException(CloseFrame.TRY_AGAIN_LATER, refused);
+		}
 
-		Client client = new Client(conn, connIndex, System.currentTimeMillis(), clientUsername, groups, queueSize, playerName, isMule, isMember);
+		ServerHandshakeBuilder response;
+		try
+		{
+			response = super.onWebsocketHandshakeReceivedAsServer(conn, draft, request);
+		}
+		catch (InvalidDataException | RuntimeException ex)
+		{
+			connectionLimiter.release(address);
+			throw ex;
+		}
+
+		// a router's lists are asked for on behalf of all of its clients, which are limited on their own connections
+		RateLimiter.Account limits = rateLimiter != null && !handshake.isRouter() ? rateLimiter.acquire(handshake.getClientUsername(), handshake.getGroups()) : null;
+		conn.setAttachment(new Connection(conn, nextConnIndex.getAndIncrement(), handshake, address, newConnectionExecutor(), limits));
+		return response;
+	}
+
+	private static boolean isRouterSecret(String secret)
+	{
+		return ROUTER_SECRET != null && MessageDigest.isEqual(ROUTER_SECRET.getBytes(StandardCharsets.UTF_8), secret.getBytes(StandardCharsets.UTF_8));
+	}
 
-		client.setWorldId(muleWorldId);
-		client.setTile(muleTile);
+	/**
+	 * @param address an IP address as the router writes it, host names are refused rather than looked up
+	 */
+	private static InetAddress parseAddress(String address) throws InvalidDataException
+	{
+		if (!address.matches("[0-9.]+|[0-9a-fA-F:.]*:[0-9a-fA-F:.]*"))
+		{
+			throw new InvalidDataException(Handshake.INVALID_HANDSHAKE, "Invalid forwardedFor: " + address);
+		}
+		try
+		{
+			return InetAddress.getByName(address);
+		}
+		catch (UnknownHostException ex)
+		{
+			throw new InvalidDataException(Handshake.INVALID_HANDSHAKE, "Invalid forwardedFor: " + address);
+		}
+	}
 
-		clients.put(connIndex, client);
+	private Client createClient(WebSocket conn, Connection connection)
+	{
+		Handshake handshake = connection.getHandshake();
+		Client client = new Client(conn, connection.getConnIndex(), System.currentTimeMillis(), handshake.getClientUsername(), handshake.getGroups(),
+				handshake.getQueueSize(), handshake.getPlayerName(), handshake.isMule(), handshake.isMember());
 
-		connIndex++;
+		client.setWorldId(handshake.getWorldId());
+		client.setTile(handshake.getTile());
+		client.setProtocol(handshake.getProtocol());
+		if (handshake.isSession())
+		{
+			client.setSessionToken(newSessionToken());
+		}
 
 		return client;
 	}
 
+	private static String newSessionToken()
+	{
+		byte[] token = new byte[16];
+		sessionTokens.nextBytes(token);
+		StringBuilder hex = new StringBuilder(32);
+		for (byte b : token)
+		{
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	void addClient(Client client)
+	{
+		addClient(client, null);
+	}
+
+	/**
+	 * @param sessionToken the token of the session the client wants to resume, or null for a new session
+	 */
+	private void addClient(Client client, String sessionToken)
+	{
+		Client resumed = sessionToken != null ? sessions.get(sessionToken) : null;
+		if (resumed != null && resumed.getPlayerName().equals(client.getPlayerName()))
+		{
+			resumeSession(resumed, client);
+			return;
+		}
+
+		Client detached = detachedClients.get(client.getPlayerName());
+		if (detached != null && detached.isMule() == client.isMule() && detached.getClientUsername().equals(client.getClientUsername()))
+		{
+			detachedClients.remove(client.getPlayerName());
+			detached.setSessionToken(client.getSessionToken());
+			reattachClient(detached, client);
+			startSession(detached);
+			return;
+		}
+
+		clients.put(client.getConnIndex(), client);
+		startSession(client);
+		if (client.isMule())
+		{
+			groupIndex.add(client);
+			loadIndex.add(client);
+			if (journal != null)
+			{
+				journal.appendMule(client);
+			}
+			onMuleChanged(client, FleetEvent.Type.CONNECTED);
+			onMuleAvailable(client);
+		}
+	}
+
+	private void startSession(Client client)
+	{
+		if (client.getSessionToken() == null)
+		{
+			return;
+		}
+		sessions.put(client.getSessionToken(), client);
+		send(client, new SessionMessage(client.getSessionToken(), false));
+	}
+
+	/**
+	 * Hands the new connection to the client of the session, then replays what was sent to it while it was detached.
+	 */
+	private void resumeSession(Client client, Client connection)
+	{
+		if (client.isAttached())
+		{
+			// the old connection is half open, the server didn't notice it dropping yet
+			WebSocket stale = client.getConn();
+			// whatever it still had to write goes out on the new connection
+			client.getBufferedMessages().addAll(0, takeOutbound(stale));
+			detachClient(client);
+			stale.close(CloseFrame.NORMAL, "Session resumed on another connection");
+		}
+		TimerWheel.Timeout expiry = sessionExpiries.remove(client);
+		if (expiry != null)
+		{
+			expiry.cancel();
+		}
+
+		reattachClient(client, connection);
+		send(client, new SessionMessage(client.getSessionToken(), true));
+		List<EncodedMessage> buffered = new ArrayList<>(client.getBufferedMessages());
+		client.getBufferedMessages().clear();
+		for (EncodedMessage message : buffered)
+		{
+			send(client, message);
+		}
+		Log.info(client.getLoggingPrefix(), "Resumed session, replayed %d messages", buffered.size());
+	}
+
+	/**
+	 * Called when the connection of a client closed or failed. Unless the client closed it on purpose the client is
+	 * only detached, keeping its requests and reservations until its session ends.
+	 */
+	private void onConnectionLost(Client client, boolean closedNormally, String reason)
+	{
+		if (closedNormally || sessionGraceMillis <= 0 || client.getSessionToken() == null)
+		{
+			removeClient(client, reason);
+			return;
+		}
+
+		Log.info(client.getLoggingPrefix(), "Detaching client for %d ms: %s", sessionGraceMillis, reason);
+		List<EncodedMessage> unsent = takeOutbound(client.getConn());
+		detachClient(client);
+		sessionExpiries.put(client, engine.scheduleAt(() ->
+		{
+			sessionExpiries.remove(client);
+			removeClient(client, reason);
+		}, System.currentTimeMillis() + sessionGraceMillis));
+		for (EncodedMessage message : unsent)
+		{
+			bufferMessage(client, message);
+		}
+	}
+
+	/**
+	 * @return the messages still waiting to be written to the connection, which won't be written to it anymore
+	 */
+	private static List<EncodedMessage> takeOutbound(WebSocket conn)
+	{
+		Connection connection = conn != null ? conn.getAttachment() : null;
+		return connection != null ? connection.drainOutbound() : Collections.emptyList();
+	}
+
+	/**
+	 * Takes the connection away from the client. A detached mule can't be matched or listed, messages to a detached
+	 * client are buffered.
+	 */
+	private void detachClient(Client client)
+	{
+		clients.remove(client.getConnIndex());
+		client.setConn(null);
+		if (client.isMule())
+		{
+			groupIndex.remove(client);
+			itemIndex.remove(client);
+			loadIndex.remove(client);
+			onMuleChanged(client, FleetEvent.Type.DISCONNECTED);
+		}
+	}
+
+	/**
+	 * Holds on to a message for a client that lost its connection, to replay it once the session is resumed.
+	 */
+	private void bufferMessage(Client client, EncodedMessage message)
+	{
+		// clients recovered from the journal never had a connection to resume
+		if (!sessionExpiries.containsKey(client))
+		{
+			return;
+		}
+		if (client.getBufferedMessages().size() >= SESSION_MAX_BUFFERED)
+		{
+			// ended after the current command, which may be in the middle of sending to several clients
+			sessionExpiries.remove(client).cancel();
+			client.getBufferedMessages().clear();
+			engine.submit(() ->
+			{
+				if (!client.isAttached())
+				{
+					removeClient(client, "Too many messages while disconnected");
+				}
+			});
+			return;
+		}
+		client.getBufferedMessages().add(message);
+	}
+
+	/**
+	 * Hands the new connection of a player to their detached client, which still holds the player's open requests
+	 * and, for a mule, its inventory and reservations. The groups and queue size stay as they were.
+	 */
+	private void reattachClient(Client client, Client connection)
+	{
+		client.setConn(connection.getConn());
+		client.setAddress(connection.getAddress());
+		client.setProtocol(connection.getProtocol());
+		client.getConn().<Connection>getAttachment().setConnIndex(client.getConnIndex());
+		clients.put(client.getConnIndex(), client);
+		Log.info(client.getLoggingPrefix(), "Reattached to server: %s", client);
+
+		if (client.isMule())
+		{
+			client.setWorldId(connection.getWorldId());
+			client.setTile(connection.getTile());
+			groupIndex.add(client);
+			itemIndex.update(client);
+			loadIndex.update(client, requests.countByMule(client));
+			if (journal != null)
+			{
+				journal.appendMule(client);
+			}
+			onMuleChanged(client, FleetEvent.Type.CONNECTED);
+			onMuleAvailable(client);
+		}
+	}
+
+	/**
+	 * Called when a mule may be able to take requests it could not take before: it connected, finished a request or
+	 * got new stock. The waiting requests of its groups are matched again after the current command, once per
+	 * command no matter how many mules changed.
+	 */
+	private void onMuleAvailable(Client mule)
+	{
+		if (pendingMatchGroups.isEmpty())
+		{
+			engine.submit(this::matchWaitingRequests);
+		}
+		Collections.addAll(pendingMatchGroups, mule.getGroups());
+	}
+
+	private void matchWaitingRequests()
+	{
+		List<String> groups = new ArrayList<>(pendingMatchGroups);
+		pendingMatchGroups.clear();
+
+		for (String group : groups)
+		{
+			for (WaitingRequest waiter : waitQueue.getWaiting(group))
+			{
+				// matched through another of its groups in the meantime
+				if (waiter.isDone())
+				{
+					continue;
+				}
+				Client mule = findMuleForRequest(waiter.getGroups(), waiter.getMuleRequest());
+				if (mule != null)
+				{
+					waitQueue.remove(waiter);
+					assignRequest(waiter.getClient(), mule, waiter.getMuleRequest());
+				}
+			}
+		}
+	}
+
+	void assignRequest(Client client, Client mule, MuleRequestMessage muleRequest)
+	{
+		requests.add(new Request(client, mule, muleRequest));
+
+		send(client, new MuleResponseMessage(true, null, mule.getWorldId(), mule.getTile()));
+		send(mule, muleRequest);
+	}
+
+	/**
+	 * @return false if the request can't wait and has to be failed right away
+	 */
+	private boolean waitForMule(Client client, MuleRequestMessage muleRequest)
+	{
+		if (muleRequest.waitTimeout <= 0)
+		{
+			return false;
+		}
+		for (String group : client.getGroups())
+		{
+			if (waitQueue.size(group) >= MAX_WAITING_PER_GROUP)
+			{
+				return false;
+			}
+		}
+
+		WaitingRequest waiter = new WaitingRequest(client, client.getGroups(), muleRequest);
+		waitQueue.add(waiter);
+		// not cancelled when the request gets matched, the wait queue already ignores requests that aren't waiting
+		engine.scheduleAt(() ->
+		{
+			if (waitQueue.remove(waiter))
+			{
+				send(client, new MuleResponseMessage(false, "Timed out waiting for a mule to handle the request", 0, null));
+			}
+		}, System.currentTimeMillis() + Math.min(muleRequest.waitTimeout, MAX_WAIT_TIMEOUT_MILLIS));
+		return true;
+	}
+
+	/**
+	 * Expires the request once its TTL passed, counted from when the bot says it made the request but never from
+	 * later than now, so a bot's clock running ahead can't keep a request open for longer.
+	 */
+	private void scheduleExpiry(Request request)
+	{
+		long ttl = getRequestTtl(request.getClient().getGroups()[0]);
+		if (ttl <= 0)
+		{
+			return;
+		}
+		long now = System.currentTimeMillis();
+		long requestedAt = request.getMuleRequest().requestedAt;
+		long start = requestedAt > 0 ? Math.min(requestedAt, now) : now;
+		requestExpiries.put(request, engine.scheduleAt(() -> expireRequest(request), start + ttl));
+	}
+
+	private long getRequestTtl(String group)
+	{
+		return requestTtls.computeIfAbsent(group, g -> Long.getLong("lostmule.request.ttl." + g, REQUEST_TTL_MILLIS));
+	}
+
+	private void expireRequest(Request request)
+	{
+		requestExpiries.remove(request);
+		if (!requests.complete(request))
+		{
+			return;
+		}
+
+		Log.info(request.getClient().getLoggingPrefix(), "Request %s expired", request.getMuleRequest().requestId);
+		TradeCompletedMessage message = new TradeCompletedMessage(false, "Request expired", request.getMuleRequest().requestId);
+		send(request.getClient(), message);
+		if (request.getMule() != null)
+		{
+			send(request.getMule(), message);
+		}
+	}
+
+	/**
+	 * Called after anything that shows up in a {@link Mule} record changed: the mule connecting or disconnecting,
+	 * its inventory or the requests assigned to it.
+	 */
+	private void onMuleChanged(Client mule, FleetEvent.Type type)
+	{
+		stateVersion++;
+
+		if (fleetSubscribers.isEmpty())
+		{
+			return;
+		}
+		// a connect followed by updates is still news of a connect, otherwise the latest change wins
+		if (type != FleetEvent.Type.UPDATED || pendingFleetEvents.get(mule) != FleetEvent.Type.CONNECTED)
+		{
+			pendingFleetEvents.put(mule, type);
+		}
+		if (!fleetFlushScheduled)
+		{
+			fleetFlushScheduled = true;
+			engine.schedule(this::flushFleetEvents, FLEET_COALESCE_MILLIS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Sends every mule that changed since the last flush to all fleet subscribers as one message, encoded once.
+	 */
+	private void flushFleetEvents()
+	{
+		fleetFlushScheduled = false;
+		if (pendingFleetEvents.isEmpty() || fleetSubscribers.isEmpty())
+		{
+			pendingFleetEvents.clear();
+			return;
+		}
+
+		List<FleetEvent> events = new ArrayList<>(pendingFleetEvents.size());
+		pendingFleetEvents.forEach((mule, type) -> events.add(new FleetEvent(
+				type,
+				mule.getPlayerName(),
+				type == FleetEvent.Type.DISCONNECTED ? null : toMule(mule)
+		)));
+		pendingFleetEvents.clear();
+
+		EncodedMessage message = new EncodedMessage(new FleetEventsMessage(events));
+		for (Client subscriber : fleetSubscribers)
+		{
+			send(subscriber, message);
+		}
+	}
+
 	private Client getClientFromConn(WebSocket conn)
 	{
 		if (conn == null || conn.getAttachment() == null)
 		{
 			return null;
 		}
-		long connIndex = conn.<Long>getAttachment();
+		long connIndex = conn.<Connection>getAttachment().getConnIndex();
 		return clients.getOrDefault(connIndex, null);
 	}
 
 	private void removeClient(Client client, String reason)
 	{
-		Log.severe(client.getLoggingPrefix(), String.format("Removing client: %s - %s", client, reason));
+		Log.severe(client.getLoggingPrefix(), "Removing client: %s - %s", client, reason);
 
-		for (Request request : requests)
+		waitQueue.removeClient(client);
+		for (Request request : requests.removeClient(client))
 		{
-			if (request.getClient() != client || request.isCompleted())
-			{
-				continue;
-			}
 			TradeCompletedMessage message = new TradeCompletedMessage(false, reason, request.getMuleRequest().requestId);
-			send(client.getConn(), message);
-			send(request.getMule().getConn(), message);
+			send(request.getClient(), message);
+			send(request.getMule(), message);
 		}
 
+		if (client.isMule())
+		{
+			if (client.isAttached())
+			{
+				groupIndex.remove(client);
+				itemIndex.remove(client);
+				loadIndex.remove(client);
+				onMuleChanged(client, FleetEvent.Type.DISCONNECTED);
+			}
+			if (journal != null)
+			{
+				journal.appendMuleRemoved(client);
+			}
+		}
+		fleetSubscribers.remove(client);
 		clients.remove(client.getConnIndex());
+		detachedClients.remove(client.getPlayerName(), client);
+		TimerWheel.Timeout sessionExpiry = sessionExpiries.remove(client);
+		if (sessionExpiry != null)
+		{
+			sessionExpiry.cancel();
+		}
+		if (client.getSessionToken() != null)
+		{
+			sessions.remove(client.getSessionToken(), client);
+		}
+		client.getBufferedMessages().clear();
+	}
+
+	/**
+	 * Rebuilds the open requests of the journal onto detached clients, then starts journaling the live state. Runs
+	 * on the engine before the first connection is handled.
+	 */
+	private void recoverJournal()
+	{
+		Journal recovered = new Journal(Paths.get(JOURNAL_PATH), JOURNAL_SIZE, this::writeJournalSnapshot);
+		JournalRecovery recovery = new JournalRecovery(nextConnIndex::getAndIncrement);
+		try
+		{
+			recovered.replay(recovery);
+		}
+		catch (IOException ex)
+		{
+			Log.severe("Server", "Failed to read the journal, starting without the requests in it: %s", ex);
+		}
+
+		for (JournalRecovery.RecoveredRequest recoveredRequest : recovery.getRequests())
+		{
+			Client bot = recovery.getBot(recoveredRequest.playerName);
+			Client mule = recovery.getMule(recoveredRequest.mulePlayerName);
+			detachedClients.put(bot.getPlayerName(), bot);
+			detachedClients.put(mule.getPlayerName(), mule);
+			requests.add(new Request(bot, mule, recoveredRequest.muleRequest));
+		}
+
+		journal = recovered;
+		journal.compact();
+		if (requests.size() > 0)
+		{
+			Log.info("Server", "Recovered %d requests of %d clients, holding them for %d ms", requests.size(), detachedClients.size(), RECOVERY_GRACE_MILLIS);
+			engine.scheduleAt(this::dropDetachedClients, System.currentTimeMillis() + RECOVERY_GRACE_MILLIS);
+		}
+
+		engine.schedule(this::compactJournal, JOURNAL_COMPACT_MILLIS, TimeUnit.MILLISECONDS);
+		if (JOURNAL_FORCE_MILLIS > 0)
+		{
+			engine.schedule(this::forceJournal, JOURNAL_FORCE_MILLIS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Flushes and stops the journal before the connections are closed, so that the requests the closed connections
+	 * leave behind are still in it for the next start.
+	 */
+	private void closeJournalOnEngine()
+	{
+		CompletableFuture<Void> closed = new CompletableFuture<>();
+		engine.submit(() ->
+		{
+			if (journal != null)
+			{
+				journal.force();
+				journal = null;
+			}
+			closed.complete(null);
+		});
+		try
+		{
+			closed.get(5, TimeUnit.SECONDS);
+		}
+		catch (Exception ex)
+		{
+			Log.severe("Server", "Failed to close the journal: %s", ex);
+		}
+	}
+
+	/**
+	 * Fails the recovered requests of every player that did not reconnect within the grace period.
+	 */
+	private void dropDetachedClients()
+	{
+		for (Client client : new ArrayList<>(detachedClients.values()))
+		{
+			removeClient(client, "Did not reconnect after the server restarted");
+		}
+	}
+
+	private void writeJournalSnapshot(Journal journal)
+	{
+		for (Client mule : groupIndex.getMules())
+		{
+			journal.appendMule(mule);
+			journal.appendInventory(mule);
+		}
+		for (Client client : detachedClients.values())
+		{
+			if (client.isMule())
+			{
+				journal.appendMule(client);
+				journal.appendInventory(client);
+			}
+		}
+		for (Client client : sessionExpiries.keySet())
+		{
+			if (client.isMule())
+			{
+				journal.appendMule(client);
+				journal.appendInventory(client);
+			}
+		}
+		for (Request request : requests.getAll())
+		{
+			journal.appendRequestAdded(request);
+		}
+	}
+
+	private void removeIdleAccounts()
+	{
+		rateLimiter.removeIdle();
+		engine.schedule(this::removeIdleAccounts, RATE_LIMIT_SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	private void compactJournal()
+	{
+		if (journal == null)
+		{
+			return;
+		}
+		journal.compactIfGrown();
+		engine.schedule(this::compactJournal, JOURNAL_COMPACT_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	private void forceJournal()
+	{
+		if (journal == null)
+		{
+			return;
+		}
+		journal.force();
+		engine.schedule(this::forceJournal, JOURNAL_FORCE_MILLIS, TimeUnit.MILLISECONDS);
 	}
 
 	@Override
 	public void onStart()
 	{
+		engine.start();
+		if (JOURNAL_PATH != null)
+		{
+			engine.submit(this::recoverJournal);
+		}
+		if (rateLimiter != null)
+		{
+			engine.submit(this::removeIdleAccounts);
+		}
 		Log.info("LostMuleServer started on port: " + getPort());
+
+		if (METRICS_PORT > 0)
+		{
+			try
+			{
+				metricsEndpoint = new MetricsEndpoint(METRICS_PORT, this::renderMetricsOnEngine);
+				metricsEndpoint.start();
+			}
+			catch (IOException ex)
+			{
+				Log.severe("Server", "Failed to start the metrics endpoint: " + ex);
+			}
+		}
+	}
+
+	@Override
+	public void stop(int timeout) throws InterruptedException
+	{
+		if (JOURNAL_PATH != null)
+		{
+			closeJournalOnEngine();
+		}
+		super.stop(timeout);
+		if (workers != null)
+		{
+			workers.shutdown();
+			workers.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+		}
+		engine.stop();
+		if (metricsEndpoint != null)
+		{
+			metricsEndpoint.stop();
+		}
 	}
 
 	@Override
 	public void onOpen(WebSocket conn, ClientHandshake handshake)
 	{
-		Client client = getClientFromConn(conn, handshake);
-		if (client == null)
+		Connection connection = conn.getAttachment();
+		if (connection == null)
 		{
 			return;
 		}
-		Log.info(client.getLoggingPrefix(), "Connected to server: " + client);
+		Client client = createClient(conn, connection);
+		engine.submit(() -> addClient(client, connection.getHandshake().getSessionToken()));
+		Log.info(client.getLoggingPrefix(), "Connected to server: %s", client);
 	}
 
 	@Override
 	public void onClose(WebSocket conn, int code, String reason, boolean remote)
 	{
-		Client client = getClientFromConn(conn);
-		if (client == null)
+		Connection connection = conn.getAttachment();
+		if (connection != null)
 		{
-			return;
+			connectionLimiter.release(connection.getAddress());
+			if (connection.getLimits() != null)
+			{
+				rateLimiter.release(connection.getLimits());
+			}
 		}
-		removeClient(client, String.format("Disconnected from server: %d - %s", code, reason));
+		// after the messages still being decoded, so they are handled before the connection is gone
+		execute(conn, () -> engine.submit(() ->
+		{
+			Client client = getClientFromConn(conn);
+			// the connection may have been replaced by one that resumed the session
+			if (client == null || client.getConn() != conn)
+			{
+				return;
+			}
+			onConnectionLost(client, code == CloseFrame.NORMAL, String.format("Disconnected from server: %d - %s", code, reason));
+		}));
 	}
 
 	@Override
 	public void onError(WebSocket conn, Exception ex)
 	{
-		Client client = getClientFromConn(conn);
-		if (client == null)
+		if (conn == null)
+		{
+			Log.severe("Server", "Server error: %s", ex);
+			return;
+		}
+		execute(conn, () -> engine.submit(() ->
 		{
+			Client client = getClientFromConn(conn);
+			if (client == null || client.getConn() != conn)
+			{
+				return;
+			}
+			onConnectionLost(client, false, String.format("Disconnected from server: %s", ex));
+		}));
+	}
+
+	@Override
+	public void onMessage(WebSocket conn, String message)
+	{
+		Connection connection = conn.getAttachment();
+		if (connection == null)
+		{
+			return;
+		}
+		connection.execute(() -> decode(conn, message));
+	}
+
+	@Override
+	public void onMessage(WebSocket conn, ByteBuffer message)
+	{
+		Connection connection = conn.getAttachment();
+		if (connection == null)
+		{
+			return;
+		}
+		connection.execute(() -> decode(conn, message));
+	}
+
+	/**
+	 * Decodes on the connection's executor, only the handling is handed over to the engine.
+	 */
+	private void decode(WebSocket conn, String message)
+	{
+		try
+		{
+			Log.fine("Server", "Client message: %s - %s", conn.getRemoteSocketAddress(), message);
+
+			long start = System.nanoTime();
+			AbstractMessage decoded = JsonCodec.decode(message);
+			recordDecode(decoded, System.nanoTime() - start);
+			submitMessage(conn, decoded);
+		}
+		catch (Exception ex)
+		{
+			metrics.recordDecodeError();
+			ex.printStackTrace();
+		}
+	}
+
+	private void decode(WebSocket conn, ByteBuffer message)
+	{
+		try
+		{
+			Log.fine("Server", "Client binary message: %s - %d bytes", conn.getRemoteSocketAddress(), message.remaining());
+
+			long start = System.nanoTime();
+			AbstractMessage decoded = BinaryCodec.decode(message);
+			recordDecode(decoded, System.nanoTime() - start);
+			submitMessage(conn, decoded);
+		}
+		catch (Exception ex)
+		{
+			metrics.recordDecodeError();
+			ex.printStackTrace();
+		}
+	}
+
+	private void recordDecode(AbstractMessage decoded, long nanos)
+	{
+		if (decoded == null)
+		{
+			metrics.recordDecodeError();
+			return;
+		}
+		metrics.recordDecode(decoded.type, nanos);
+	}
+
+	private void submitMessage(WebSocket conn, AbstractMessage decoded)
+	{
+		if (decoded == null)
+		{
+			return;
+		}
+
+		// checked before the engine sees the message, so a client over its limit costs it next to nothing
+		Connection connection = conn.getAttachment();
+		long retryAfterNanos = connection.getLimits() != null ? connection.getLimits().tryTake(decoded.type, System.nanoTime()) : 0L;
+		if (retryAfterNanos > 0)
+		{
+			metrics.recordRateLimited(decoded.type);
+			long retryAfterMillis = TimeUnit.NANOSECONDS.toMillis(retryAfterNanos) + 1;
+			Log.fine("Server", "Rate limited: %s - %s, retry after %d ms", conn.getRemoteSocketAddress(), decoded.type, retryAfterMillis);
+			engine.submit(() ->
+			{
+				Client client = getClientFromConn(conn);
+				if (client != null)
+				{
+					send(client, new RateLimitedMessage(decoded.type, retryAfterMillis, "Rate limit exceeded for " + decoded.type));
+				}
+			});
 			return;
 		}
-		removeClient(client, String.format("Disconnected from server: %s", ex));
-	}
 
-	@Override
-	public void onMessage(WebSocket conn, String message)
-	{
-		try
+		engine.submit(() ->
 		{
 			Client client = getClientFromConn(conn);
 			if (client == null)
 			{
 				return;
 			}
+			handleMessage(client, decoded);
+		});
+	}
 
-			Log.info("Client message: " + conn.getRemoteSocketAddress() + " - " + message);
-
-			JsonElement jsonElement = new JsonParser().parse(message);
-			if (jsonElement == null)
-			{
-				return;
-			}
-
-			JsonObject jsonObject = jsonElement.getAsJsonObject();
-			if (!jsonObject.has("type"))
-			{
-				return;
-			}
-
-			MessageType messageType = MessageType.valueOf(jsonObject.get("type").getAsString());
-
-			switch (messageType)
+	void handleMessage(Client client, AbstractMessage message)
+	{
+		long start = System.nanoTime();
+		try
+		{
+			switch (message.type)
 			{
 				case MULE_REQUEST:
 				{
-					MuleRequestMessage muleRequest = new Gson().fromJson(jsonElement, MuleRequestMessage.class);
-					requests.removeIf(request -> request.getMuleRequest().playerName.equals(muleRequest.playerName));
+					MuleRequestMessage muleRequest = (MuleRequestMessage) message;
+					Request previousRequest = requests.getByPlayerName(muleRequest.playerName);
+					if (previousRequest != null)
+					{
+						requests.complete(previousRequest);
+					}
+					WaitingRequest previousWaiter = waitQueue.getByPlayerName(muleRequest.playerName);
+					if (previousWaiter != null)
+					{
+						waitQueue.remove(previousWaiter);
+					}
 
 					Client mule = findMuleForRequest(client.getGroups(), muleRequest);
 					if (mule == null)
 					{
-						send(conn, new MuleResponseMessage(false, "Failed to find a mule to handle the request", 0, null));
+						// the response is sent once a mule frees up or the wait timed out
+						if (!waitForMule(client, muleRequest))
+						{
+							send(client, new MuleResponseMessage(false, "Failed to find a mule to handle the request", 0, null));
+						}
 						return;
 					}
 
-					requests.add(new Request(client, mule, muleRequest));
-
-					send(conn, new MuleResponseMessage(true, null, mule.getWorldId(), mule.getTile()));
-					send(mule.getConn(), muleRequest);
+					assignRequest(client, mule, muleRequest);
 				}
 				break;
 
 				case TRADE_REQUEST:
 				{
-					TradeRequestMessage tradeRequest = new Gson().fromJson(jsonElement, TradeRequestMessage.class);
+					TradeRequestMessage tradeRequest = (TradeRequestMessage) message;
 
-					Request matchingRequest = requests.stream()
-							.filter(r -> r.getMuleRequest().requestId.equals(tradeRequest.requestId) && r.getMule() != null)
-							.findFirst()
-							.orElse(null);
+					Request matchingRequest = requests.getByRequestId(tradeRequest.requestId);
 
-					if (matchingRequest == null)
+					if (matchingRequest == null || matchingRequest.getMule() == null)
 					{
-						send(conn, new TradeResponseMessage(false, "Failed to find matching request with id", tradeRequest.requestId,  null));
+						send(client, new TradeResponseMessage(false, "Failed to find matching request with id", tradeRequest.requestId,  null));
 						return;
 					}
 
-					send(conn, new TradeResponseMessage(true, null, tradeRequest.requestId, matchingRequest.getMule().getPlayerName()));
+					send(client, new TradeResponseMessage(true, null, tradeRequest.requestId, matchingRequest.getMule().getPlayerName()));
 				}
 				break;
 
 				// sent from both client and mule for when a trade is completed, successful or not
 				case TRADE_COMPLETED:
 				{
-					TradeCompletedMessage tradeCompleted = new Gson().fromJson(jsonElement, TradeCompletedMessage.class);
+					TradeCompletedMessage tradeCompleted = (TradeCompletedMessage) message;
 
-					List<Request> matchingRequests = requests
-							.stream()
-							.filter(r -> r.getMuleRequest().requestId.equals(tradeCompleted.requestId))
-							.collect(Collectors.toList());
+					Request matchingRequest = requests.getByRequestId(tradeCompleted.requestId);
 
-					for (Request matchingRequest : matchingRequests)
+					if (matchingRequest != null && requests.complete(matchingRequest))
 					{
 						// if the sender is a mule, forward the same message onto the bots
 						if (client.isMule())
 						{
-							send(matchingRequest.getClient().getConn(), tradeCompleted);
+							send(matchingRequest.getClient(), tradeCompleted);
 						}
-
-						requests.remove(matchingRequest);
 					}
 				}
 				break;
@@ -255,19 +1215,14 @@ public class Server extends WebSocketServer
 				// sent from mule when traded from an unknown player, message contains trading player name
 				case UNKNOWN_TRADER:
 				{
-					UnknownTraderMessage unknownTrader = new Gson().fromJson(jsonElement, UnknownTraderMessage.class);
+					UnknownTraderMessage unknownTrader = (UnknownTraderMessage) message;
 
-					List<Request> matchingRequests = requests
-							.stream()
-							.filter(r -> r.getMuleRequest().playerName.equals(unknownTrader.playerName))
-							.collect(Collectors.toList());
+					Request matchingRequest = requests.getByPlayerName(unknownTrader.playerName);
 
 					// send the request back to the mule to confirm that it is a valid bot and then remove the bot from our requests queue
-					for (Request matchingRequest : matchingRequests)
+					if (matchingRequest != null && requests.complete(matchingRequest))
 					{
-						send(matchingRequest.getMule().getConn(), unknownTrader);
-
-						requests.remove(matchingRequest);
+						send(matchingRequest.getMule(), unknownTrader);
 					}
 				}
 				break;
@@ -275,117 +1230,609 @@ public class Server extends WebSocketServer
 				// sent from mule whenever inventory changes happen or trades are completed
 				case OWNED_ITEMS_UPDATE:
 				{
-					OwnedItemsUpdateMessage ownedItemsUpdate = new Gson().fromJson(jsonElement, OwnedItemsUpdateMessage.class);
+					OwnedItemsUpdateMessage ownedItemsUpdate = (OwnedItemsUpdateMessage) message;
 
-					client.getOwnedItems().clear();
-					client.getOwnedItems().addAll(ownedItemsUpdate.ownedItems);
+					client.setOwnedItems(ownedItemsUpdate.ownedItems != null ? ownedItemsUpdate.ownedItems : Collections.emptyList());
+					client.setInventorySequence(ownedItemsUpdate.sequence);
+					client.setInventorySynced(true);
+					if (client.isMule())
+					{
+						if (journal != null)
+						{
+							journal.appendInventory(client);
+						}
+						itemIndex.update(client);
+						onMuleChanged(client, FleetEvent.Type.UPDATED);
+						onMuleAvailable(client);
+					}
 				}
 				break;
 
-				// sent from any client to fetch a list of mules connected to server & all their info
-				case LIST_MULES_REQUEST:
+				// sent from mule with only the items that changed since its previous update or delta
+				case OWNED_ITEMS_DELTA:
 				{
-//					ListMulesRequestMessage listMulesRequest = new Gson().fromJson(jsonElement, ListMulesRequestMessage.class);
+					OwnedItemsDeltaMessage ownedItemsDelta = (OwnedItemsDeltaMessage) message;
 
-					List<Mule> mules = new ArrayList<>();
+					// a missed delta means our copy of the inventory can't be trusted until the mule sends all of it again
+					if (!client.isInventorySynced() || ownedItemsDelta.sequence != client.getInventorySequence() + 1)
+					{
+						// asked again while the mule keeps sending deltas, in case it missed or ignored the last request
+						long now = System.currentTimeMillis();
+						if (client.isInventorySynced() || now - client.getResyncRequestedAt() >= INVENTORY_RESYNC_RETRY_MILLIS)
+						{
+							Log.info(client.getLoggingPrefix(), "Inventory delta %d does not follow %d, requesting resync", ownedItemsDelta.sequence, client.getInventorySequence());
+							client.setInventorySynced(false);
+							client.setResyncRequestedAt(now);
+							send(client, new OwnedItemsResyncMessage(client.getInventorySequence() + 1, ownedItemsDelta.sequence));
+						}
+						else
+						{
+							Log.fine(client.getLoggingPrefix(), "Discarding inventory delta %d, waiting for the full inventory", ownedItemsDelta.sequence);
+						}
+						return;
+					}
 
-					for (Client muleClient : clients.values())
+					client.setInventorySequence(ownedItemsDelta.sequence);
+					if (ownedItemsDelta.changedItems == null)
+					{
+						return;
+					}
+					client.applyOwnedItemChanges(ownedItemsDelta.changedItems);
+					if (client.isMule())
 					{
-						if (!muleClient.isMule())
+						if (journal != null)
+						{
+							journal.appendInventoryDelta(client, ownedItemsDelta.changedItems);
+						}
+						for (OwnedItem changedItem : ownedItemsDelta.changedItems)
 						{
-							continue;
+							itemIndex.update(client, changedItem.getItemId());
 						}
+						onMuleChanged(client, FleetEvent.Type.UPDATED);
+						onMuleAvailable(client);
+					}
+				}
+				break;
 
-						List<Request> muleRequests = requests.stream()
-								.filter(r -> r.getMule() == muleClient)
-								.collect(Collectors.toList());
-
-						mules.add(new Mule(
-								muleClient.getPlayerName(),
-								muleClient.getGroups(),
-								muleClient.getWorldId(),
-								muleClient.getTile(),
-								muleClient.isMember(),
-								muleClient.getOwnedItems(),
-								muleClient.getRemainingItems(muleRequests),
-								muleClient.getQueueSize(),
-								muleRequests.size()
-						));
+				// sent from any client to fetch a list of mules connected to server & all their info
+				case LIST_MULES_REQUEST:
+				{
+					ListMulesRequestMessage listMulesRequest = (ListMulesRequestMessage) message;
+					if (listMulesRequest.isUnfiltered())
+					{
+						send(client, getListMulesResponse());
+					}
+					else
+					{
+						send(client, listMules(listMulesRequest));
 					}
+				}
+				break;
+
+				// sent from any client to get a snapshot of all mules followed by pushed changes to them
+				case FLEET_SUBSCRIBE:
+				{
+					fleetSubscribers.add(client);
+					// the state the pushed fleet events apply to, a newer one makes an older one still waiting pointless
+					send(client, getListMulesResponse(), true);
+				}
+				break;
+
+				case FLEET_UNSUBSCRIBE:
+				{
+					fleetSubscribers.remove(client);
+				}
+				break;
 
-					send(conn, new ListMulesResponseMessage(true, null, mules));
+				case METRICS_REQUEST:
+				{
+					send(client, new MetricsResponseMessage(renderMetrics()));
 				}
 				break;
 			}
 		}
 		catch (Exception ex)
 		{
+			metrics.recordError(message.type);
 			ex.printStackTrace();
 		}
+		finally
+		{
+			metrics.recordHandle(message.type, System.nanoTime() - start);
+		}
 	}
 
-	public void send(WebSocket conn, AbstractMessage message)
+	/**
+	 * Sends a message whose encodings are cached and shared between connections.
+	 */
+	public void send(Client client, EncodedMessage message)
 	{
-		try
+		send(client, message, false);
+	}
+
+	public void send(Client client, AbstractMessage message)
+	{
+		send(client, new EncodedMessage(message), false);
+	}
+
+	/**
+	 * Queues the message for the client's connection to be written once the current command is done.
+	 *
+	 * @param snapshot whether the message is a full snapshot that makes an earlier one of the same type still waiting
+	 *                 to be written pointless, such as the mule list a fleet subscription starts with. Never set for
+	 *                 replies to requests, every request gets its answer
+	 */
+	private void send(Client client, EncodedMessage message, boolean snapshot)
+	{
+		WebSocket conn = client.getConn();
+		if (conn == null)
+		{
+			bufferMessage(client, message);
+			return;
+		}
+		if (conn.isClosing() || conn.isClosed())
+		{
+			return;
+		}
+		Connection connection = conn.getAttachment();
+		if (connection == null)
+		{
+			// the benchmarks' connections were never accepted by a server
+			write(conn, client.getProtocol(), Collections.singletonList(message));
+			return;
+		}
+
+		// every list a router asks for is answered, whatever else it still has to write
+		if (connection.enqueue(message, snapshot && !connection.isRouter()))
+		{
+			metrics.recordCoalesced();
+		}
+		if (connection.getOutboundSize() > OUTBOUND_MAX_PENDING && !connection.isEvicting())
+		{
+			// after the current command, which may be in the middle of sending to several clients
+			connection.setEvicting(true);
+			engine.submit(() -> evict(connection, String.format("More than %d messages waiting to be sent", OUTBOUND_MAX_PENDING)));
+		}
+		if (pendingFlushes.isEmpty())
+		{
+			if (OUTBOUND_FLUSH_MILLIS > 0)
+			{
+				engine.schedule(this::flushOutbound, OUTBOUND_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+			}
+			else
+			{
+				engine.submit(this::flushOutbound);
+			}
+		}
+		pendingFlushes.add(connection);
+	}
+
+	private void flushOutbound()
+	{
+		List<Connection> connections = new ArrayList<>(pendingFlushes);
+		pendingFlushes.clear();
+		long now = System.currentTimeMillis();
+		for (Connection connection : connections)
+		{
+			flush(connection, now);
+		}
+	}
+
+	private void flushHeld()
+	{
+		List<Connection> connections = new ArrayList<>(heldFlushes);
+		heldFlushes.clear();
+		long now = System.currentTimeMillis();
+		for (Connection connection : connections)
+		{
+			flush(connection, now);
+		}
+	}
+
+	/**
+	 * Hands everything waiting for the connection to its executor as one batch, unless the socket still has more than
+	 * the high-water mark to write. Held back messages stay queued, where newer snapshots can still replace them.
+	 */
+	private void flush(Connection connection, long now)
+	{
+		WebSocket conn = connection.getConn();
+		// a closed connection's messages are taken over by its session, if it has one
+		if (connection.getOutboundSize() == 0 || !conn.isOpen() || connection.isEvicting())
+		{
+			return;
+		}
+
+		if (connection.getQueuedBytes() > OUTBOUND_HIGH_WATER_BYTES)
 		{
-			if (conn.isClosing() || conn.isClosed())
+			if (connection.getSlowSince() == 0L)
+			{
+				connection.setSlowSince(now);
+			}
+			else if (now - connection.getSlowSince() >= OUTBOUND_SLOW_MILLIS)
 			{
+				connection.setEvicting(true);
+				evict(connection, String.format("Over %d queued bytes for %d ms", OUTBOUND_HIGH_WATER_BYTES, now - connection.getSlowSince()));
 				return;
 			}
-			String data = message.toJson().toString();
-			Log.info("Sending message to conn: " + conn.getRemoteSocketAddress() + " - " + data);
-			conn.send(data);
+			if (heldFlushes.isEmpty())
+			{
+				engine.schedule(this::flushHeld, OUTBOUND_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+			}
+			heldFlushes.add(connection);
+			return;
+		}
+
+		connection.setSlowSince(0L);
+		// the socket's queue doesn't show the batch still being encoded, so nothing more is handed over until it's
+		// written and the queue is checked again
+		if (!connection.startWrite())
+		{
+			return;
+		}
+		List<EncodedMessage> messages = connection.drainOutbound();
+		connection.execute(() ->
+		{
+			write(conn, connection.getProtocol(), messages);
+			if (connection.finishWrite())
+			{
+				engine.submit(() -> flush(connection, System.currentTimeMillis()));
+			}
+		});
+	}
+
+	/**
+	 * Closes a connection that can't keep up and removes its client, session and all. Holding on to its messages for
+	 * it to resume would only pile up what it already couldn't take.
+	 */
+	private void evict(Connection connection, String reason)
+	{
+		WebSocket conn = connection.getConn();
+		metrics.recordEviction();
+		Client client = clients.get(connection.getConnIndex());
+		if (client != null && client.getConn() == conn)
+		{
+			onConnectionLost(client, true, "Evicted as a slow consumer: " + reason);
+		}
+		conn.close(CloseFrame.POLICY_VALIDATION, "Too slow to keep up");
+	}
+
+	/**
+	 * Encodes and writes a batch of messages on the connection's executor, which is the engine itself when running
+	 * inline. The frames are handed to the socket together, waking up its selector once.
+	 */
+	private void write(WebSocket conn, Protocol protocol, List<EncodedMessage> messages)
+	{
+		List<Framedata> frames = new ArrayList<>(messages.size());
+		long bytes = 0L;
+		for (EncodedMessage message : messages)
+		{
+			try
+			{
+				boolean encoded = message.isEncoded(protocol);
+				long encodeStart = System.nanoTime();
+				byte[] data = message.get(protocol);
+				if (!encoded)
+				{
+					metrics.recordEncode(message.getMessage().type, System.nanoTime() - encodeStart);
+				}
+				metrics.recordSent(message.getMessage().type);
+				Log.fine("Server", "Sending message to conn: %s - %s (%d bytes)", conn.getRemoteSocketAddress(), message.getMessage().type, data.length);
+				// the frame consumes its payload buffer, so every send gets its own view over the shared bytes
+				DataFrame frame = protocol == Protocol.BINARY ? new BinaryFrame() : new TextFrame();
+				frame.setPayload(ByteBuffer.wrap(data));
+				frames.add(frame);
+				bytes += frameSize(data.length);
+			}
+			catch (Exception ex)
+			{
+				ex.printStackTrace();
+			}
+		}
+
+		// counted first, the socket may write them before sendFrame returns
+		Connection connection = conn.getAttachment();
+		if (connection != null)
+		{
+			connection.queued(bytes);
+		}
+		try
+		{
+			conn.sendFrame(frames);
 		}
 		catch (Exception ex)
 		{
+			if (connection != null)
+			{
+				connection.unqueued(bytes);
+			}
 			ex.printStackTrace();
 		}
 	}
 
-	private Client findMuleForRequest(String[] groups, MuleRequestMessage request)
+	/**
+	 * @return the bytes of an unmasked, unfragmented frame, which is how a server sends them
+	 */
+	private static long frameSize(int payloadLength)
+	{
+		if (payloadLength <= 125)
+		{
+			return 2L + payloadLength;
+		}
+		return (payloadLength <= 0xFFFF ? 4L : 10L) + payloadLength;
+	}
+
+	/**
+	 * @return every metric in the Prometheus text format, the gauges read straight from the engine's state
+	 */
+	private String renderMetrics()
 	{
-		List<Client> validMules = new ArrayList<>();
-		for (Client muleClient : clients.values())
+		StringBuilder out = new StringBuilder(8192);
+		metrics.write(out);
+
+		int mules = groupIndex.getMules().size();
+		Metrics.writeGauge(out, "lostmule_clients", "Connected clients", clients.size());
+		Metrics.writeGauge(out, "lostmule_connections", "Open connections, counted against lostmule.maxConnections", connectionLimiter.getConnections());
+		Metrics.writeGauge(out, "lostmule_connection_addresses", "Remote addresses with open connections when they are capped", connectionLimiter.getAddresses());
+		Metrics.writeGauge(out, "lostmule_mules", "Connected mules", mules);
+		Metrics.writeGauge(out, "lostmule_bots", "Connected clients that aren't mules", clients.size() - mules);
+		Metrics.writeGauge(out, "lostmule_detached_clients", "Clients without a connection waiting for the player to reconnect", detachedClients.size() + sessionExpiries.size());
+		Metrics.writeGauge(out, "lostmule_open_requests", "Requests assigned to a mule and not completed yet", requests.size());
+		Metrics.writeGauge(out, "lostmule_waiting_requests", "Requests waiting for a mule to free up", waitQueue.size());
+		Metrics.writeGauge(out, "lostmule_fleet_subscribers", "Clients subscribed to fleet events", fleetSubscribers.size());
+		if (workers instanceof ThreadPoolExecutor)
+		{
+			Metrics.writeGauge(out, "lostmule_worker_queue", "Connection batches waiting for a worker", ((ThreadPoolExecutor) workers).getQueue().size());
+		}
+
+		Metrics.writeGauge(out, "lostmule_outbound_held_connections", "Connections whose messages are held back by a slow socket", heldFlushes.size());
+
+		Metrics.writeHeader(out, "lostmule_outbound_queue_buffers", "Frames queued for sending per connection", "gauge");
+		StringBuilder bytes = new StringBuilder();
+		StringBuilder pending = new StringBuilder();
+		for (Client client : clients.values())
 		{
-			if (!muleClient.isMule())
+			if (!(client.getConn() instanceof WebSocketImpl))
 			{
 				continue;
 			}
-
-			if (!muleClient.isInGroup(groups))
+			Queue<ByteBuffer> outQueue = ((WebSocketImpl) client.getConn()).outQueue;
+			Connection connection = client.getConn().getAttachment();
+			int pendingMessages = connection != null ? connection.getOutboundSize() : 0;
+			// idle connections are left out to keep the output small
+			if (outQueue.isEmpty() && pendingMessages == 0)
 			{
 				continue;
 			}
+			String player = client.getPlayerName().replace("\\", "\\\\").replace("\"", "\\\"");
+			String labels = "{player=\"" + player + "\",conn=\"" + client.getConnIndex() + "\"} ";
+			out.append("lostmule_outbound_queue_buffers").append(labels).append(outQueue.size()).append('\n');
+			bytes.append("lostmule_outbound_queue_bytes").append(labels).append(connection != null ? connection.getQueuedBytes() : 0L).append('\n');
+			pending.append("lostmule_outbound_pending_messages").append(labels).append(pendingMessages).append('\n');
+		}
+		Metrics.writeHeader(out, "lostmule_outbound_queue_bytes", "Bytes queued for sending per connection", "gauge");
+		out.append(bytes);
+		Metrics.writeHeader(out, "lostmule_outbound_pending_messages", "Messages waiting on the server to be written per connection", "gauge");
+		out.append(pending);
+		return out.toString();
+	}
+
+	/**
+	 * Renders the metrics on the engine thread for a caller on any other thread.
+	 */
+	private String renderMetricsOnEngine() throws Exception
+	{
+		CompletableFuture<String> rendered = new CompletableFuture<>();
+		engine.submit(() -> rendered.complete(renderMetrics()));
+		return rendered.get(5, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * @return the full mule list, rebuilt and re-encoded only if something changed since the last request for it
+	 */
+	private EncodedMessage getListMulesResponse()
+	{
+		if (listMulesResponse != null && listMulesVersion == stateVersion)
+		{
+			return listMulesResponse;
+		}
+
+		listMulesResponse = buildListMulesResponse();
+		listMulesVersion = stateVersion;
+		return listMulesResponse;
+	}
+
+	EncodedMessage buildListMulesResponse()
+	{
+		List<Mule> mules = new ArrayList<>();
+
+		for (Client muleClient : groupIndex.getMules())
+		{
+			mules.add(toMule(muleClient));
+		}
+
+		return new EncodedMessage(new ListMulesResponseMessage(true, null, mules));
+	}
+
+	/**
+	 * @return one page of the mules that pass all of the request's filters, ordered by connection
+	 */
+	private ListMulesResponseMessage listMules(ListMulesRequestMessage request)
+	{
+		String[] groups = request.group != null ? GroupIndex.normalizeGroups(request.group) : null;
+		boolean requiresItems = request.requiredItems != null && request.requiredItems.size() > 0;
+
+		// start from the narrowest index the filters allow, the remaining filters are checked on each of its mules
+		Collection<Client> candidates;
+		if (requiresItems)
+		{
+			candidates = itemIndex.findCandidates(request.requiredItems, groups != null ? groupIndex.getMules(groups) : null);
+		}
+		else
+		{
+			candidates = groups != null ? groupIndex.getMules(groups) : groupIndex.getMules();
+			if (request.world != 0)
+			{
+				Collection<Client> worldMules = groupIndex.getMulesInWorld(request.world);
+				if (worldMules.size() < candidates.size())
+				{
+					candidates = worldMules;
+				}
+			}
+		}
 
-			if (request.muleName != null && !muleClient.getPlayerName().equalsIgnoreCase(request.muleName))
+		List<Client> matches = new ArrayList<>();
+		for (Client muleClient : candidates)
+		{
+			if (muleClient.getConnIndex() < request.cursor)
+			{
+				continue;
+			}
+			if (groups != null && !muleClient.isInGroup(groups))
+			{
+				continue;
+			}
+			if (request.world != 0 && muleClient.getWorldId() != request.world)
+			{
+				continue;
+			}
+			if (request.member != null && muleClient.isMember() != request.member)
 			{
 				continue;
 			}
+			if (request.minFreeQueue > 0 && muleClient.getQueueSize() > 0
+					&& muleClient.getQueueSize() - requests.countByMule(muleClient) < request.minFreeQueue)
+			{
+				continue;
+			}
+			matches.add(muleClient);
+		}
+		matches.sort(Comparator.comparingLong(Client::getConnIndex));
+
+		long nextCursor = 0L;
+		if (request.limit > 0 && matches.size() > request.limit)
+		{
+			nextCursor = matches.get(request.limit).getConnIndex();
+			matches = matches.subList(0, request.limit);
+		}
+
+		List<Mule> mules = new ArrayList<>(matches.size());
+		for (Client muleClient : matches)
+		{
+			mules.add(toMule(muleClient, !request.omitItems));
+		}
+		return new ListMulesResponseMessage(true, null, mules, nextCursor, request.requestId);
+	}
+
+	private Mule toMule(Client muleClient)
+	{
+		return toMule(muleClient, true);
+	}
+
+	private Mule toMule(Client muleClient, boolean includeItems)
+	{
+		List<OwnedItem> remainingItems = null;
+		if (includeItems)
+		{
+			remainingItems = muleClient.getRemainingItems();
+			if (VERIFY_RESERVATIONS)
+			{
+				verifyRemainingItems(muleClient, remainingItems);
+			}
+		}
+
+		return new Mule(
+				muleClient.getPlayerName(),
+				muleClient.getGroups(),
+				muleClient.getWorldId(),
+				muleClient.getTile(),
+				muleClient.isMember(),
+				includeItems ? muleClient.getOwnedItems() : null,
+				remainingItems,
+				muleClient.getQueueSize(),
+				requests.countByMule(muleClient)
+		);
+	}
+
+	Client findMuleForRequest(String[] groups, MuleRequestMessage request)
+	{
+		long start = System.nanoTime();
+		try
+		{
+			// only the group's mules are worth looking at, and of those only the ones holding the required items
+			Collection<Client> candidates = request.requiredItems.size() > 0
+					? itemIndex.findCandidates(request.requiredItems, groupIndex.getMules(groups))
+					: groupIndex.getMules(groups);
 
-			if (muleClient.getQueueSize() > 0)
+			return getSelector(groups[0]).select(groups, request.requiredItems, candidates, muleClient ->
 			{
-				List<Request> muleRequests = requests.stream()
-						.filter(r -> r.getMule() == muleClient)
-						.collect(Collectors.toList());
-				if (muleRequests.size() >= muleClient.getQueueSize())
+				if (!muleClient.isInGroup(groups))
 				{
-					continue;
+					return false;
 				}
-			}
 
-			if (request.requiredItems.size() > 0 && !muleClient.hasRequiredItems(request.requiredItems, requests.stream()
-					.filter(r -> r.getMule() == muleClient)
-					.collect(Collectors.toList())))
+				if (request.muleName != null && !muleClient.getPlayerName().equalsIgnoreCase(request.muleName))
+				{
+					return false;
+				}
+
+				if (muleClient.getQueueSize() > 0 && requests.countByMule(muleClient) >= muleClient.getQueueSize())
+				{
+					return false;
+				}
+
+				if (VERIFY_RESERVATIONS && request.requiredItems.size() > 0)
+				{
+					verifyRequiredItems(muleClient, request, true);
+				}
+				return true;
+			});
+		}
+		finally
+		{
+			metrics.recordMatching(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * @return the selector configured for the group, the bot's first group decides for bots in several groups
+	 */
+	private MuleSelector getSelector(String group)
+	{
+		return selectors.computeIfAbsent(group, g ->
+		{
+			String name = System.getProperty("lostmule.selector." + g, DEFAULT_SELECTOR);
+			try
 			{
-				continue;
+				return MuleSelector.create(name, loadIndex);
 			}
+			catch (IllegalArgumentException ex)
+			{
+				Log.severe("Server", "%s for group %s, using random", ex.getMessage(), g);
+				return new RandomMuleSelector();
+			}
+		});
+	}
 
-			validMules.add(muleClient);
+	private void verifyRequiredItems(Client mule, MuleRequestMessage request, boolean hasRequiredItems)
+	{
+		if (mule.hasRequiredItems(request.requiredItems, requests.getByMule(mule)) != hasRequiredItems)
+		{
+			Log.severe(mule.getLoggingPrefix(), "Reservation ledger mismatch for request %s: ledger says %b", request.requestId, hasRequiredItems);
 		}
-		if (validMules.size() == 0)
+	}
+
+	private void verifyRemainingItems(Client mule, List<OwnedItem> remainingItems)
+	{
+		List<OwnedItem> expectedItems = mule.getRemainingItems(requests.getByMule(mule));
+		for (int i = 0; i < expectedItems.size(); i++)
 		{
-			return null;
+			if (i >= remainingItems.size()
+					|| expectedItems.get(i).getItemId() != remainingItems.get(i).getItemId()
+					|| expectedItems.get(i).getQuantity() != remainingItems.get(i).getQuantity())
+			{
+				Log.severe(mule.getLoggingPrefix(), "Reservation ledger mismatch for item %d", expectedItems.get(i).getItemId());
+				return;
+			}
 		}
-		return validMules.get(Random.asInt(0, validMules.size() - 1));
 	}
 }
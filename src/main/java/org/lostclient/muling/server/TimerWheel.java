@@ -0,0 +1,160 @@
+package org.lostclient.muling.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hashed timer wheel for large numbers of timeouts that are mostly cancelled before they fire. Scheduling and
+ * cancelling are O(1), and every tick only looks at the one bucket the tick maps to, so thousands of pending
+ * timeouts cost nothing until they are due. Timeouts fire up to one tick late. Only used from the engine thread.
+ */
+public class TimerWheel
+{
+	private final long tickMillis;
+	private final Timeout[] buckets;
+	private final int mask;
+	private final long startMillis;
+	// the next tick that hasn't been processed yet
+	private long currentTick = 0L;
+	private int size = 0;
+
+	public TimerWheel(long tickMillis, int ticksPerWheel)
+	{
+		this(tickMillis, ticksPerWheel, System.currentTimeMillis());
+	}
+
+	/**
+	 * @param startMillis the wall clock time of tick 0
+	 */
+	TimerWheel(long tickMillis, int ticksPerWheel, long startMillis)
+	{
+		if (Integer.bitCount(ticksPerWheel) != 1)
+		{
+			throw new IllegalArgumentException("ticksPerWheel must be a power of two: " + ticksPerWheel);
+		}
+		this.tickMillis = tickMillis;
+		this.buckets = new Timeout[ticksPerWheel];
+		this.mask = ticksPerWheel - 1;
+		this.startMillis = startMillis;
+	}
+
+	public class Timeout
+	{
+		private final Runnable task;
+		private final long deadlineTick;
+		private Timeout previous;
+		private Timeout next;
+		private boolean pending = true;
+
+		private Timeout(Runnable task, long deadlineTick)
+		{
+			this.task = task;
+			this.deadlineTick = deadlineTick;
+		}
+
+		/**
+		 * @return false if the timeout already fired or was cancelled before
+		 */
+		public boolean cancel()
+		{
+			if (!pending)
+			{
+				return false;
+			}
+			unlink(this);
+			return true;
+		}
+	}
+
+	/**
+	 * Schedules the task to run once the wall clock passed the deadline.
+	 */
+	public Timeout schedule(Runnable task, long deadlineMillis)
+	{
+		// rounded up, a timeout never fires early
+		long deadlineTick = Math.max(Math.floorDiv(deadlineMillis - startMillis + tickMillis - 1, tickMillis), currentTick);
+		Timeout timeout = new Timeout(task, deadlineTick);
+		int bucket = (int) (deadlineTick & mask);
+		timeout.next = buckets[bucket];
+		if (buckets[bucket] != null)
+		{
+			buckets[bucket].previous = timeout;
+		}
+		buckets[bucket] = timeout;
+		size++;
+		return timeout;
+	}
+
+	/**
+	 * Processes every tick up to the current time.
+	 *
+	 * @return the tasks of the timeouts that expired, to be run by the caller
+	 */
+	public List<Runnable> advance(long nowMillis)
+	{
+		long targetTick = Math.floorDiv(nowMillis - startMillis, tickMillis);
+		if (targetTick < currentTick || size == 0)
+		{
+			currentTick = Math.max(currentTick, targetTick + 1);
+			return List.of();
+		}
+
+		List<Runnable> expired = new ArrayList<>();
+		// after a long stall every bucket is visited once instead of once per missed tick
+		long ticks = Math.min(targetTick - currentTick + 1, buckets.length);
+		for (long tick = currentTick; tick < currentTick + ticks; tick++)
+		{
+			Timeout timeout = buckets[(int) (tick & mask)];
+			while (timeout != null)
+			{
+				Timeout next = timeout.next;
+				// timeouts more than one rotation away stay in the bucket
+				if (timeout.deadlineTick <= targetTick)
+				{
+					unlink(timeout);
+					expired.add(timeout.task);
+				}
+				timeout = next;
+			}
+		}
+		currentTick = targetTick + 1;
+		return expired;
+	}
+
+	/**
+	 * @return milliseconds until the next tick is due, or -1 if no timeout is pending
+	 */
+	public long millisUntilNextTick(long nowMillis)
+	{
+		if (size == 0)
+		{
+			return -1;
+		}
+		return Math.max(0L, startMillis + currentTick * tickMillis - nowMillis);
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	private void unlink(Timeout timeout)
+	{
+		if (timeout.previous != null)
+		{
+			timeout.previous.next = timeout.next;
+		}
+		else
+		{
+			buckets[(int) (timeout.deadlineTick & mask)] = timeout.next;
+		}
+		if (timeout.next != null)
+		{
+			timeout.next.previous = timeout.previous;
+		}
+		timeout.previous = null;
+		timeout.next = null;
+		timeout.pending = false;
+		size--;
+	}
+}
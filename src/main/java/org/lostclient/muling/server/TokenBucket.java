@@ -0,0 +1,49 @@
+package org.lostclient.muling.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket kept as the single instant at which it will be full again, so taking a token is one compare and
+ * set from any thread. Every token taken moves that instant one token's worth of time further out, and the bucket is
+ * empty once it lies more than the whole burst ahead of now.
+ */
+public class TokenBucket
+{
+	private final long nanosPerToken;
+	private final long burstNanos;
+	// System.nanoTime() values, only ever compared through their difference
+	private final AtomicLong fullAt;
+
+	public TokenBucket(double tokensPerSecond, int burst)
+	{
+		this.nanosPerToken = Math.max(1L, (long) (1_000_000_000L / tokensPerSecond));
+		this.burstNanos = nanosPerToken * Math.max(1, burst);
+		this.fullAt = new AtomicLong(System.nanoTime());
+	}
+
+	/**
+	 * @return 0 if a token was taken, otherwise the nanoseconds until the next one is there
+	 */
+	public long tryTake(long now)
+	{
+		while (true)
+		{
+			long full = fullAt.get();
+			long taken = (full - now < 0 ? now : full) + nanosPerToken;
+			long wait = taken - now - burstNanos;
+			if (wait > 0)
+			{
+				return wait;
+			}
+			if (fullAt.compareAndSet(full, taken))
+			{
+				return 0L;
+			}
+		}
+	}
+
+	public boolean isFull(long now)
+	{
+		return fullAt.get() - now <= 0;
+	}
+}
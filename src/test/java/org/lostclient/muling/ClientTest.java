@@ -0,0 +1,123 @@
+package org.lostclient.muling;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.lostclient.muling.messages.OwnedItem;
+import org.lostclient.muling.messages.client.MuleRequestMessage;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClientTest
+{
+	private Client mule;
+
+	@BeforeEach
+	void setUp()
+	{
+		mule = new Client(null, 1L, 0L, "user", new String[0], 0, "mule", true, true);
+		mule.setOwnedItems(Arrays.asList(new OwnedItem(995, 1000), new OwnedItem(314, 5)));
+	}
+
+	private Request request(RequiredItem... requiredItems)
+	{
+		Client bot = new Client(null, 2L, 0L, "user", new String[0], 0, "bot", false, true);
+		return new Request(bot, mule, new MuleRequestMessage("r", 0L, "bot", true, Arrays.asList(requiredItems),
+				Collections.emptyList(), "mule"));
+	}
+
+	@Test
+	void stacksOfSameItemAreAddedTogether()
+	{
+		mule.setOwnedItems(Arrays.asList(new OwnedItem(995, 600), new OwnedItem(995, 400)));
+
+		assertEquals(1000, mule.getAvailableQuantity(995));
+		assertEquals(1, mule.getOwnedItems().size());
+	}
+
+	@Test
+	void reserveAndReleaseKeepLedger()
+	{
+		List<RequiredItem> items = Arrays.asList(new RequiredItem(995, 300), new RequiredItem(314, 2));
+
+		mule.reserve(items);
+		mule.reserve(items);
+		assertEquals(600, mule.getReservedQuantity(995));
+		assertEquals(400, mule.getAvailableQuantity(995));
+		assertEquals(1, mule.getAvailableQuantity(314));
+
+		mule.release(items);
+		assertEquals(300, mule.getReservedQuantity(995));
+
+		mule.release(items);
+		mule.release(items);
+		assertEquals(0, mule.getReservedQuantity(995), "releasing more than is reserved clears the entry");
+		assertEquals(1000, mule.getAvailableQuantity(995));
+	}
+
+	@Test
+	void hasRequiredItemsAccountsForReservations()
+	{
+		assertTrue(mule.hasRequiredItems(Collections.singletonList(new RequiredItem(995, 1000))));
+
+		mule.reserve(Collections.singletonList(new RequiredItem(995, 300)));
+		assertTrue(mule.hasRequiredItems(Collections.singletonList(new RequiredItem(995, 700))));
+		assertFalse(mule.hasRequiredItems(Collections.singletonList(new RequiredItem(995, 701))));
+		assertFalse(mule.hasRequiredItems(Collections.singletonList(new RequiredItem(4151, 1))));
+	}
+
+	@Test
+	void hasRequiredItemsAddsUpEntriesOfSameItem()
+	{
+		List<RequiredItem> split = Arrays.asList(new RequiredItem(995, 600), new RequiredItem(995, 600));
+
+		assertFalse(mule.hasRequiredItems(split));
+		assertFalse(mule.hasRequiredItems(split, Collections.emptyList()));
+
+		List<RequiredItem> fits = Arrays.asList(new RequiredItem(995, 500), new RequiredItem(995, 500));
+		assertTrue(mule.hasRequiredItems(fits));
+		assertTrue(mule.hasRequiredItems(fits, Collections.emptyList()));
+	}
+
+	@Test
+	void ledgerMatchesRecomputationOverRequests()
+	{
+		Request first = request(new RequiredItem(995, 250), new RequiredItem(995, 250));
+		Request second = request(new RequiredItem(314, 4));
+		List<Request> requests = Arrays.asList(first, second);
+		requests.forEach(request -> mule.reserve(request.getMuleRequest().requiredItems));
+
+		for (int quantity : new int[]{1, 499, 500, 501})
+		{
+			List<RequiredItem> items = Collections.singletonList(new RequiredItem(995, quantity));
+			assertEquals(mule.hasRequiredItems(items, requests), mule.hasRequiredItems(items), "quantity " + quantity);
+		}
+		assertEquals(mule.hasRequiredItems(Collections.singletonList(new RequiredItem(314, 2)), requests),
+				mule.hasRequiredItems(Collections.singletonList(new RequiredItem(314, 2))));
+
+		List<OwnedItem> fromLedger = mule.getRemainingItems();
+		List<OwnedItem> recomputed = mule.getRemainingItems(requests);
+		assertEquals(recomputed.size(), fromLedger.size());
+		for (int i = 0; i < fromLedger.size(); i++)
+		{
+			assertEquals(recomputed.get(i).getItemId(), fromLedger.get(i).getItemId());
+			assertEquals(recomputed.get(i).getQuantity(), fromLedger.get(i).getQuantity());
+		}
+	}
+
+	@Test
+	void inventoryChangesSetNewTotals()
+	{
+		mule.applyOwnedItemChanges(Arrays.asList(new OwnedItem(995, 10), new OwnedItem(314, 0), new OwnedItem(4151, 1)));
+
+		assertEquals(10, mule.getAvailableQuantity(995));
+		assertEquals(0, mule.getAvailableQuantity(314));
+		assertEquals(1, mule.getAvailableQuantity(4151));
+		assertEquals(2, mule.getOwnedItems().size());
+	}
+}
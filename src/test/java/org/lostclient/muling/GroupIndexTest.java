@@ -0,0 +1,84 @@
+package org.lostclient.muling;
+
+import org.junit.jupiter.api.Test;
+import org.lostclient.muling.messages.OwnedItem;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GroupIndexTest
+{
+	private final GroupIndex groupIndex = new GroupIndex();
+	private final ItemIndex itemIndex = new ItemIndex();
+	private long nextConnIndex;
+
+	private Client mule(String groups, int coins)
+	{
+		Client mule = new Client(null, ++nextConnIndex, 0L, "user", GroupIndex.normalizeGroups(groups), 0, "mule" + nextConnIndex, true, true);
+		mule.setOwnedItems(Collections.singletonList(new OwnedItem(995, coins)));
+		groupIndex.add(mule);
+		itemIndex.update(mule);
+		return mule;
+	}
+
+	@Test
+	void normalizesGroups()
+	{
+		assertArrayEquals(new String[]{"main", "alts"}, GroupIndex.normalizeGroups(" Main ,ALTS,, main"));
+		assertArrayEquals(new String[]{GroupIndex.DEFAULT_GROUP}, GroupIndex.normalizeGroups(null));
+		assertArrayEquals(new String[]{GroupIndex.DEFAULT_GROUP}, GroupIndex.normalizeGroups(" , "));
+		assertSame("main", GroupIndex.normalizeGroups("MAIN")[0], "group names are interned");
+	}
+
+	@Test
+	void indexesMulesByGroup()
+	{
+		Client main = mule("main", 100);
+		Client both = mule("main,alts", 100);
+		Client alts = mule("alts", 100);
+
+		assertEquals(Arrays.asList(main, both), Arrays.asList(groupIndex.getMules(new String[]{"main"}).toArray()));
+		assertEquals(new HashSet<>(Arrays.asList(main, both, alts)), new HashSet<>(groupIndex.getMules(new String[]{"main", "alts"})));
+		assertTrue(groupIndex.getMules(new String[]{"other"}).isEmpty());
+
+		groupIndex.remove(both);
+		assertEquals(Collections.singletonList(main), Arrays.asList(groupIndex.getMules(new String[]{"main"}).toArray()));
+		assertEquals(new HashSet<>(Arrays.asList(main, alts)), new HashSet<>(groupIndex.getMules()));
+	}
+
+	@Test
+	void candidatesAreLimitedToGroups()
+	{
+		Client main = mule("main", 1000);
+		Client alts = mule("alts", 1000);
+		mule("alts", 10);
+		List<RequiredItem> required = Collections.singletonList(new RequiredItem(995, 500));
+
+		assertEquals(Collections.singletonList(main), itemIndex.findCandidates(required, groupIndex.getMules(new String[]{"main"})));
+		assertEquals(Collections.singletonList(alts), itemIndex.findCandidates(required, groupIndex.getMules(new String[]{"alts"})));
+		assertTrue(itemIndex.findCandidates(required, groupIndex.getMules(new String[]{"other"})).isEmpty());
+	}
+
+	@Test
+	void candidatesWalkSmallerSide()
+	{
+		// more holders of the item than mules in the group, so the group's mules are walked instead
+		for (int i = 0; i < 10; i++)
+		{
+			mule("main", 1000);
+		}
+		Client alts = mule("alts", 1000);
+		mule("alts", 10);
+		List<RequiredItem> required = Collections.singletonList(new RequiredItem(995, 500));
+
+		assertEquals(Collections.singletonList(alts), itemIndex.findCandidates(required, groupIndex.getMules(new String[]{"alts"})));
+		assertEquals(10, itemIndex.findCandidates(required, groupIndex.getMules(new String[]{"main"})).size());
+	}
+}
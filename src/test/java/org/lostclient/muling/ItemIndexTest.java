@@ -0,0 +1,104 @@
+package org.lostclient.muling;
+
+import org.junit.jupiter.api.Test;
+import org.lostclient.muling.messages.OwnedItem;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ItemIndexTest
+{
+	private final ItemIndex index = new ItemIndex();
+	private long nextConnIndex;
+
+	private Client mule(OwnedItem... ownedItems)
+	{
+		Client mule = new Client(null, ++nextConnIndex, 0L, "user", new String[0], 0, "mule" + nextConnIndex, true, true);
+		mule.setOwnedItems(Arrays.asList(ownedItems));
+		index.update(mule);
+		return mule;
+	}
+
+	private static List<RequiredItem> required(RequiredItem... requiredItems)
+	{
+		return Arrays.asList(requiredItems);
+	}
+
+	@Test
+	void findsMulesWithEveryRequiredItem()
+	{
+		Client both = mule(new OwnedItem(995, 1000), new OwnedItem(314, 10));
+		Client coinsOnly = mule(new OwnedItem(995, 5000));
+		Client feathersOnly = mule(new OwnedItem(314, 50));
+
+		assertEquals(Collections.singletonList(both), index.findCandidates(required(new RequiredItem(995, 100), new RequiredItem(314, 5))));
+		assertEquals(new HashSet<>(Arrays.asList(both, coinsOnly)), new HashSet<>(index.findCandidates(required(new RequiredItem(995, 1000)))));
+		assertEquals(Collections.singletonList(coinsOnly), index.findCandidates(required(new RequiredItem(995, 1001))));
+		assertEquals(Collections.singletonList(feathersOnly), index.findCandidates(required(new RequiredItem(314, 11))));
+	}
+
+	@Test
+	void unknownItemHasNoCandidates()
+	{
+		mule(new OwnedItem(995, 1000));
+
+		assertTrue(index.findCandidates(required(new RequiredItem(995, 1), new RequiredItem(4151, 1))).isEmpty());
+	}
+
+	@Test
+	void reservationsAreReindexed()
+	{
+		Client mule = mule(new OwnedItem(995, 1000));
+		List<RequiredItem> reserved = required(new RequiredItem(995, 600));
+
+		mule.reserve(reserved);
+		index.update(mule, reserved);
+		assertTrue(index.findCandidates(required(new RequiredItem(995, 500))).isEmpty());
+		assertEquals(Collections.singletonList(mule), index.findCandidates(required(new RequiredItem(995, 400))));
+
+		mule.release(reserved);
+		index.update(mule, reserved);
+		assertEquals(Collections.singletonList(mule), index.findCandidates(required(new RequiredItem(995, 1000))));
+	}
+
+	@Test
+	void fullyReservedItemIsUnindexed()
+	{
+		Client mule = mule(new OwnedItem(995, 100), new OwnedItem(314, 5));
+		List<RequiredItem> reserved = required(new RequiredItem(995, 100));
+
+		mule.reserve(reserved);
+		index.update(mule, reserved);
+		assertTrue(index.findCandidates(required(new RequiredItem(995, 1))).isEmpty());
+		assertEquals(Collections.singletonList(mule), index.findCandidates(required(new RequiredItem(314, 5))));
+	}
+
+	@Test
+	void inventoryUpdateDropsItemsNoLongerOwned()
+	{
+		Client mule = mule(new OwnedItem(995, 100), new OwnedItem(314, 5));
+
+		mule.setOwnedItems(Collections.singletonList(new OwnedItem(314, 20)));
+		index.update(mule);
+		assertTrue(index.findCandidates(required(new RequiredItem(995, 1))).isEmpty());
+		assertEquals(Collections.singletonList(mule), index.findCandidates(required(new RequiredItem(314, 20))));
+	}
+
+	@Test
+	void removedMuleIsNoCandidate()
+	{
+		Client removed = mule(new OwnedItem(995, 100));
+		Client kept = mule(new OwnedItem(995, 100));
+
+		index.remove(removed);
+		assertEquals(Collections.singletonList(kept), index.findCandidates(required(new RequiredItem(995, 100))));
+
+		index.remove(kept);
+		assertTrue(index.findCandidates(required(new RequiredItem(995, 1))).isEmpty());
+	}
+}
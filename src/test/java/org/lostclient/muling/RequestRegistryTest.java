@@ -0,0 +1,167 @@
+package org.lostclient.muling;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.lostclient.muling.messages.client.MuleRequestMessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestRegistryTest
+{
+	private final List<Request> added = new ArrayList<>();
+	private final List<Request> removed = new ArrayList<>();
+	private RequestRegistry registry;
+	private long nextConnIndex;
+
+	@BeforeEach
+	void setUp()
+	{
+		registry = new RequestRegistry(new RequestRegistry.Listener()
+		{
+			@Override
+			public void onRequestAdded(Request request)
+			{
+				added.add(request);
+			}
+
+			@Override
+			public void onRequestRemoved(Request request)
+			{
+				removed.add(request);
+			}
+		});
+	}
+
+	private Client client(String playerName, boolean isMule)
+	{
+		return new Client(null, ++nextConnIndex, 0L, "user", new String[0], 0, playerName, isMule, true);
+	}
+
+	private static Request request(Client bot, Client mule, String requestId, RequiredItem... requiredItems)
+	{
+		MuleRequestMessage muleRequest = new MuleRequestMessage(requestId, 0L, bot.getPlayerName(), true,
+				Arrays.asList(requiredItems), Collections.emptyList(), mule != null ? mule.getPlayerName() : null);
+		return new Request(bot, mule, muleRequest);
+	}
+
+	@Test
+	void indexesByIdPlayerAndMule()
+	{
+		Client bot = client("bot", false);
+		Client mule = client("mule", true);
+		Request request = request(bot, mule, "r1", new RequiredItem(995, 100));
+
+		assertTrue(registry.add(request).isEmpty());
+
+		assertSame(request, registry.getByRequestId("r1"));
+		assertSame(request, registry.getByPlayerName("bot"));
+		assertEquals(Collections.singletonList(request), registry.getByMule(mule));
+		assertEquals(1, registry.countByMule(mule));
+		assertEquals(1, registry.size());
+		assertEquals(Collections.singletonList(request), added);
+	}
+
+	@Test
+	void reservesOnAddAndReleasesOnComplete()
+	{
+		Client mule = client("mule", true);
+		Request first = request(client("bot1", false), mule, "r1", new RequiredItem(995, 100));
+		Request second = request(client("bot2", false), mule, "r2", new RequiredItem(995, 50), new RequiredItem(314, 3));
+
+		registry.add(first);
+		registry.add(second);
+		assertEquals(150, mule.getReservedQuantity(995));
+		assertEquals(3, mule.getReservedQuantity(314));
+
+		assertTrue(registry.complete(first));
+		assertTrue(first.isCompleted());
+		assertEquals(50, mule.getReservedQuantity(995));
+		assertEquals(1, registry.countByMule(mule));
+
+		assertFalse(registry.complete(first), "a request is only completed once");
+		assertEquals(50, mule.getReservedQuantity(995));
+
+		registry.complete(second);
+		assertEquals(0, mule.getReservedQuantity(995));
+		assertEquals(0, mule.getReservedQuantity(314));
+		assertEquals(0, registry.countByMule(mule));
+		assertEquals(Arrays.asList(first, second), removed);
+	}
+
+	@Test
+	void replacesRequestFromSamePlayer()
+	{
+		Client bot = client("bot", false);
+		Client mule = client("mule", true);
+		Request first = request(bot, mule, "r1", new RequiredItem(995, 100));
+		Request second = request(bot, mule, "r2", new RequiredItem(995, 20));
+
+		registry.add(first);
+		assertEquals(Collections.singletonList(first), registry.add(second));
+
+		assertTrue(first.isCompleted());
+		assertNull(registry.getByRequestId("r1"));
+		assertSame(second, registry.getByPlayerName("bot"));
+		assertEquals(20, mule.getReservedQuantity(995));
+		assertEquals(1, registry.size());
+	}
+
+	@Test
+	void replacesRequestWithSameId()
+	{
+		Client mule = client("mule", true);
+		Request first = request(client("bot1", false), mule, "r1", new RequiredItem(995, 100));
+		Request second = request(client("bot2", false), mule, "r1", new RequiredItem(995, 20));
+
+		registry.add(first);
+		assertEquals(Collections.singletonList(first), registry.add(second));
+
+		assertSame(second, registry.getByRequestId("r1"));
+		assertNull(registry.getByPlayerName("bot1"));
+		assertEquals(20, mule.getReservedQuantity(995));
+	}
+
+	@Test
+	void removeClientDropsRequestsOfBotAndMule()
+	{
+		Client bot = client("bot", false);
+		Client mule = client("mule", true);
+		Client otherMule = client("other", true);
+		Request fromBot = request(bot, otherMule, "r1", new RequiredItem(995, 10));
+		Request toMule = request(client("bot2", false), mule, "r2", new RequiredItem(995, 20));
+		Request unrelated = request(client("bot3", false), otherMule, "r3", new RequiredItem(995, 30));
+		registry.add(fromBot);
+		registry.add(toMule);
+		registry.add(unrelated);
+
+		assertEquals(Collections.singletonList(fromBot), registry.removeClient(bot));
+		assertEquals(30, otherMule.getReservedQuantity(995));
+
+		assertEquals(Collections.singletonList(toMule), registry.removeClient(mule));
+		assertEquals(0, mule.getReservedQuantity(995));
+
+		assertEquals(Collections.singletonList(unrelated), new ArrayList<>(registry.getAll()));
+		assertTrue(registry.removeClient(bot).isEmpty());
+	}
+
+	@Test
+	void requestWithoutMuleReservesNothing()
+	{
+		Client bot = client("bot", false);
+		Request request = request(bot, null, "r1", new RequiredItem(995, 10));
+
+		registry.add(request);
+		assertSame(request, registry.getByPlayerName("bot"));
+		assertEquals(Collections.singletonList(request), registry.removeClient(bot));
+		assertEquals(0, registry.size());
+	}
+}
@@ -0,0 +1,102 @@
+package org.lostclient.muling;
+
+import org.junit.jupiter.api.Test;
+import org.lostclient.muling.messages.client.MuleRequestMessage;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WaitQueueTest
+{
+	private final WaitQueue queue = new WaitQueue();
+	private long nextConnIndex;
+
+	private Client bot(String playerName)
+	{
+		return new Client(null, ++nextConnIndex, 0L, "user", new String[0], 0, playerName, false, true);
+	}
+
+	private static WaitingRequest waiter(Client bot, String requestId, String... groups)
+	{
+		return new WaitingRequest(bot, groups, new MuleRequestMessage(requestId, 0L, bot.getPlayerName(), true,
+				Collections.emptyList(), Collections.emptyList(), null, 60_000L));
+	}
+
+	@Test
+	void waitersAreServedInArrivalOrder()
+	{
+		WaitingRequest first = waiter(bot("a"), "r1", "main");
+		WaitingRequest second = waiter(bot("b"), "r2", "main");
+		WaitingRequest third = waiter(bot("c"), "r3", "main");
+		queue.add(first);
+		queue.add(second);
+		queue.add(third);
+
+		assertEquals(Arrays.asList(first, second, third), queue.getWaiting("main"));
+
+		assertTrue(queue.remove(second));
+		assertTrue(second.isDone());
+		assertEquals(Arrays.asList(first, third), queue.getWaiting("main"));
+		assertFalse(queue.remove(second), "a waiter is only removed once");
+		assertEquals(2, queue.size());
+	}
+
+	@Test
+	void groupsHaveTheirOwnOrder()
+	{
+		WaitingRequest main = waiter(bot("a"), "r1", "main");
+		WaitingRequest both = waiter(bot("b"), "r2", "alts", "main");
+		WaitingRequest alts = waiter(bot("c"), "r3", "alts");
+		queue.add(main);
+		queue.add(both);
+		queue.add(alts);
+
+		assertEquals(Arrays.asList(main, both), queue.getWaiting("main"));
+		assertEquals(Arrays.asList(both, alts), queue.getWaiting("alts"));
+		assertTrue(queue.getWaiting("other").isEmpty());
+
+		queue.remove(both);
+		assertEquals(Collections.singletonList(main), queue.getWaiting("main"));
+		assertEquals(Collections.singletonList(alts), queue.getWaiting("alts"));
+		assertEquals(1, queue.size("alts"));
+	}
+
+	@Test
+	void newRequestOfSamePlayerReplacesAndGoesLast()
+	{
+		Client bot = bot("a");
+		WaitingRequest first = waiter(bot, "r1", "main");
+		WaitingRequest other = waiter(bot("b"), "r2", "main");
+		WaitingRequest replacement = waiter(bot, "r3", "main");
+		queue.add(first);
+		queue.add(other);
+		queue.add(replacement);
+
+		assertTrue(first.isDone());
+		assertSame(replacement, queue.getByPlayerName("a"));
+		assertEquals(Arrays.asList(other, replacement), queue.getWaiting("main"));
+		assertEquals(2, queue.size());
+	}
+
+	@Test
+	void removeClientDropsItsWaiters()
+	{
+		Client bot = bot("a");
+		WaitingRequest waiter = waiter(bot, "r1", "main");
+		WaitingRequest other = waiter(bot("b"), "r2", "main");
+		queue.add(waiter);
+		queue.add(other);
+
+		assertEquals(Collections.singletonList(waiter), queue.removeClient(bot));
+		assertTrue(waiter.isDone());
+		assertNull(queue.getByPlayerName("a"));
+		assertEquals(Collections.singletonList(other), queue.getWaiting("main"));
+		assertTrue(queue.removeClient(bot).isEmpty());
+	}
+}
@@ -0,0 +1,146 @@
+package org.lostclient.muling.messages.codec;
+
+import org.junit.jupiter.api.Test;
+import org.lostclient.muling.OfferedItem;
+import org.lostclient.muling.RequiredItem;
+import org.lostclient.muling.messages.AbstractMessage;
+import org.lostclient.muling.messages.MessageType;
+import org.lostclient.muling.messages.Mule;
+import org.lostclient.muling.messages.MuleTile;
+import org.lostclient.muling.messages.OwnedItem;
+import org.lostclient.muling.messages.client.MuleRequestMessage;
+import org.lostclient.muling.messages.client.OwnedItemsUpdateMessage;
+import org.lostclient.muling.messages.server.ListMulesResponseMessage;
+import org.lostclient.muling.messages.server.MuleResponseMessage;
+import org.lostclient.muling.messages.server.RateLimitedMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryCodecTest
+{
+	@SuppressWarnings("unchecked")
+	private static <T extends AbstractMessage> T roundTrip(T message) throws IOException
+	{
+		AbstractMessage decoded = BinaryCodec.decode(BinaryCodec.encode(message));
+		assertEquals(message.type, decoded.type);
+		return (T) decoded;
+	}
+
+	private static ByteBuffer bytes(int... values)
+	{
+		byte[] bytes = new byte[values.length];
+		for (int i = 0; i < values.length; i++)
+		{
+			bytes[i] = (byte) values[i];
+		}
+		return ByteBuffer.wrap(bytes);
+	}
+
+	@Test
+	void muleRequestRoundTrips() throws IOException
+	{
+		MuleRequestMessage decoded = roundTrip(new MuleRequestMessage("r1", -5L, "bot", true,
+				Arrays.asList(new RequiredItem(995, Integer.MAX_VALUE), new RequiredItem(314, -1)),
+				null, null, 30_000L));
+
+		assertEquals("r1", decoded.requestId);
+		assertEquals(-5L, decoded.requestedAt);
+		assertEquals("bot", decoded.playerName);
+		assertTrue(decoded.hasMembership);
+		assertEquals(Integer.MAX_VALUE, decoded.requiredItems.get(0).getQuantity());
+		assertEquals(-1, decoded.requiredItems.get(1).getQuantity());
+		assertNull(decoded.offeredItems, "null lists stay null");
+		assertNull(decoded.muleName);
+		assertEquals(30_000L, decoded.waitTimeout);
+
+		MuleRequestMessage empty = roundTrip(new MuleRequestMessage("", 0L, "bot", false,
+				Collections.emptyList(), Collections.singletonList(new OfferedItem(1, 2)), "mule"));
+		assertEquals("", empty.requestId, "empty strings aren't decoded as null");
+		assertTrue(empty.requiredItems.isEmpty());
+		assertEquals(2, empty.offeredItems.get(0).getQuantity());
+	}
+
+	@Test
+	void responsesRoundTrip() throws IOException
+	{
+		MuleResponseMessage noTile = roundTrip(new MuleResponseMessage(false, "\u00dcn\u00efcode", 0, null));
+		assertFalse(noTile.success);
+		assertEquals("\u00dcn\u00efcode", noTile.errorMessage);
+		assertNull(noTile.location);
+
+		MuleResponseMessage withTile = roundTrip(new MuleResponseMessage(true, null, 301, new MuleTile(3200, -1, 2)));
+		assertEquals(-1, withTile.location.getY());
+
+		Mule mule = new Mule("mule", new String[]{"main", "alts"}, 301, new MuleTile(1, 2, 3), true,
+				Collections.singletonList(new OwnedItem(995, 10)), null, 4, 2);
+		ListMulesResponseMessage list = roundTrip(new ListMulesResponseMessage(true, null, Collections.singletonList(mule)));
+		Mule decoded = list.mules.get(0);
+		assertEquals("mule", decoded.getPlayerName());
+		assertArrayEquals(new String[]{"main", "alts"}, decoded.getGroups());
+		assertEquals(3, decoded.getTile().getZ());
+		assertEquals(10, decoded.getOwnedItems().get(0).getQuantity());
+		assertNull(decoded.getRemainingItems());
+		assertEquals(2, decoded.getRequestCount());
+	}
+
+	@Test
+	void rateLimitedWithoutRequestTypeRoundTrips() throws IOException
+	{
+		RateLimitedMessage withType = roundTrip(new RateLimitedMessage(MessageType.MULE_REQUEST, 250L, "Slow down"));
+		assertEquals(MessageType.MULE_REQUEST, withType.requestType);
+		assertEquals(250L, withType.retryAfterMillis);
+
+		RateLimitedMessage withoutType = roundTrip(new RateLimitedMessage(null, 250L, null));
+		assertNull(withoutType.requestType);
+		assertEquals(250L, withoutType.retryAfterMillis);
+	}
+
+	@Test
+	void unknownTypeDecodesToNull() throws IOException
+	{
+		assertNull(BinaryCodec.decode(bytes(0x7F)));
+	}
+
+	@Test
+	void truncatedMessageIsRejected()
+	{
+		ByteBuffer encoded = BinaryCodec.encode(new OwnedItemsUpdateMessage(
+				Arrays.asList(new OwnedItem(995, 1000), new OwnedItem(314, 5))));
+		for (int length = 0; length < encoded.remaining(); length++)
+		{
+			ByteBuffer truncated = encoded.duplicate();
+			truncated.limit(length);
+			assertThrows(IOException.class, () -> BinaryCodec.decode(truncated));
+		}
+	}
+
+	@Test
+	void oversizedLengthsAreRejected()
+	{
+		int tradeRequest = MessageType.TRADE_REQUEST.ordinal();
+		// string length varint of 2^32 - 1, which reads as a negative int
+		assertThrows(IOException.class, () -> BinaryCodec.decode(bytes(tradeRequest, 0xFF, 0xFF, 0xFF, 0xFF, 0x07)));
+		// string of 100 bytes in a 3 byte message
+		assertThrows(IOException.class, () -> BinaryCodec.decode(bytes(tradeRequest, 101, 'a')));
+
+		int ownedItemsUpdate = MessageType.OWNED_ITEMS_UPDATE.ordinal();
+		// list of a million items in a 5 byte message
+		assertThrows(IOException.class, () -> BinaryCodec.decode(bytes(ownedItemsUpdate, 0xC1, 0x84, 0x3D, 0)));
+	}
+
+	@Test
+	void malformedVarIntIsRejected()
+	{
+		assertThrows(IOException.class, () -> new BinaryReader(bytes(0x80, 0x80, 0x80, 0x80, 0x80, 0x01)).readVarInt());
+	}
+}
@@ -0,0 +1,113 @@
+package org.lostclient.muling.messages.codec;
+
+import org.junit.jupiter.api.Test;
+import org.lostclient.muling.OfferedItem;
+import org.lostclient.muling.RequiredItem;
+import org.lostclient.muling.messages.AbstractMessage;
+import org.lostclient.muling.messages.MessageType;
+import org.lostclient.muling.messages.MuleTile;
+import org.lostclient.muling.messages.OwnedItem;
+import org.lostclient.muling.messages.client.MuleRequestMessage;
+import org.lostclient.muling.messages.client.OwnedItemsUpdateMessage;
+import org.lostclient.muling.messages.client.TradeCompletedMessage;
+import org.lostclient.muling.messages.server.MuleResponseMessage;
+import org.lostclient.muling.messages.server.TradeResponseMessage;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonCodecTest
+{
+	@SuppressWarnings("unchecked")
+	private static <T extends AbstractMessage> T roundTrip(T message) throws IOException
+	{
+		AbstractMessage decoded = JsonCodec.decode(JsonCodec.encode(message));
+		assertEquals(message.type, decoded.type);
+		return (T) decoded;
+	}
+
+	@Test
+	void muleRequestRoundTrips() throws IOException
+	{
+		MuleRequestMessage decoded = roundTrip(new MuleRequestMessage("r1", 123L, "bot", true,
+				Arrays.asList(new RequiredItem(995, 1000), new RequiredItem(314, 5)),
+				Collections.singletonList(new OfferedItem(4151, 1)), "mule"));
+
+		assertEquals("r1", decoded.requestId);
+		assertEquals(123L, decoded.requestedAt);
+		assertEquals("bot", decoded.playerName);
+		assertTrue(decoded.hasMembership);
+		assertEquals(2, decoded.requiredItems.size());
+		assertEquals(314, decoded.requiredItems.get(1).getItemId());
+		assertEquals(5, decoded.requiredItems.get(1).getQuantity());
+		assertEquals(4151, decoded.offeredItems.get(0).getItemId());
+		assertEquals("mule", decoded.muleName);
+	}
+
+	@Test
+	void responsesRoundTrip() throws IOException
+	{
+		MuleResponseMessage mule = roundTrip(new MuleResponseMessage(true, null, 301, new MuleTile(3200, 3201, 1)));
+		assertTrue(mule.success);
+		assertNull(mule.errorMessage);
+		assertEquals(301, mule.world);
+		assertEquals(3200, mule.location.getX());
+		assertEquals(3201, mule.location.getY());
+		assertEquals(1, mule.location.getZ());
+
+		TradeResponseMessage trade = roundTrip(new TradeResponseMessage(false, "No mule", "r1", "bot"));
+		assertEquals("No mule", trade.errorMessage);
+		assertEquals("r1", trade.requestId);
+		assertEquals("bot", trade.playerName);
+
+		TradeCompletedMessage completed = roundTrip(new TradeCompletedMessage(true, "done", "r1"));
+		assertEquals("done", completed.reason);
+	}
+
+	@Test
+	void ownedItemsRoundTrip() throws IOException
+	{
+		OwnedItemsUpdateMessage decoded = roundTrip(new OwnedItemsUpdateMessage(
+				Arrays.asList(new OwnedItem(995, Integer.MAX_VALUE), new OwnedItem(314, 1))));
+
+		assertEquals(2, decoded.ownedItems.size());
+		assertEquals(Integer.MAX_VALUE, decoded.ownedItems.get(0).getQuantity());
+		assertEquals(314, decoded.ownedItems.get(1).getItemId());
+	}
+
+	@Test
+	void typeMayComeLastAndUnknownFieldsAreSkipped() throws IOException
+	{
+		AbstractMessage decoded = JsonCodec.decode("{\"requestId\":\"r1\",\"extra\":{\"nested\":[1,2]},\"playerName\":null,"
+				+ "\"requiredItems\":[{\"quantity\":3,\"itemId\":995}],\"type\":\"MULE_REQUEST\"}");
+
+		MuleRequestMessage request = (MuleRequestMessage) decoded;
+		assertEquals(MessageType.MULE_REQUEST, request.type);
+		assertEquals("r1", request.requestId);
+		assertNull(request.playerName);
+		assertEquals(995, request.requiredItems.get(0).getItemId());
+		assertEquals(3, request.requiredItems.get(0).getQuantity());
+	}
+
+	@Test
+	void unknownOrMissingTypeDecodesToNull() throws IOException
+	{
+		assertNull(JsonCodec.decode("{\"type\":\"NOT_A_TYPE\",\"requestId\":\"r1\"}"));
+		assertNull(JsonCodec.decode("{\"requestId\":\"r1\"}"));
+	}
+
+	@Test
+	void malformedInputIsRejected()
+	{
+		assertThrows(IOException.class, () -> JsonCodec.decode("{\"type\":\"TRADE_REQUEST\","));
+		assertThrows(IOException.class, () -> JsonCodec.decode(""));
+		assertThrows(IllegalStateException.class, () -> JsonCodec.decode("[]"));
+		assertThrows(RuntimeException.class, () -> JsonCodec.decode("{\"type\":\"MULE_REQUEST\",\"requestedAt\":\"soon\"}"));
+	}
+}
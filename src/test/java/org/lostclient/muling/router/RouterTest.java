@@ -0,0 +1,91 @@
+package org.lostclient.muling.router;
+
+import org.java_websocket.handshake.HandshakeImpl1Client;
+import org.junit.jupiter.api.Test;
+import org.lostclient.muling.GroupIndex;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class RouterTest
+{
+	@Test
+	void firstPageStartsAtFirstNode()
+	{
+		assertEquals(0, Router.cursorNode(0L));
+		assertEquals(0L, Router.nodeCursor(0L));
+	}
+
+	@Test
+	void cursorWithinNodeRoundTrips()
+	{
+		long cursor = Router.nextCursor(2, 4, 12345L);
+
+		assertEquals(2, Router.cursorNode(cursor));
+		assertEquals(12345L, Router.nodeCursor(cursor));
+
+		long largest = (1L << 48) - 1;
+		cursor = Router.nextCursor(3, 4, largest);
+		assertEquals(3, Router.cursorNode(cursor));
+		assertEquals(largest, Router.nodeCursor(cursor));
+	}
+
+	@Test
+	void exhaustedNodeMovesOnToNextNode()
+	{
+		long cursor = Router.nextCursor(1, 4, 0L);
+
+		assertEquals(2, Router.cursorNode(cursor));
+		assertEquals(0L, Router.nodeCursor(cursor));
+	}
+
+	@Test
+	void lastPageEndsWithZeroCursor()
+	{
+		assertEquals(0L, Router.nextCursor(3, 4, 0L));
+		assertEquals(0L, Router.nextCursor(0, 1, 0L));
+	}
+
+	@Test
+	void groupListMovesOnPastItsNode()
+	{
+		// a mule in alts and main sits on the node of alts, so a list of main can't end at the node of main
+		NodeMap nodes = new NodeMap(Arrays.asList(URI.create("ws://node0"), URI.create("ws://node1")));
+		int alts = nodes.getOwner(GroupIndex.normalizeGroups("alts, main"));
+		int main = nodes.getOwner(GroupIndex.normalizeGroups("main"));
+		assertEquals(0, alts);
+		assertEquals(1, main);
+
+		long cursor = Router.nextCursor(alts, nodes.size(), 0L);
+		assertEquals(main, Router.cursorNode(cursor));
+		assertEquals(0L, Router.nodeCursor(cursor));
+	}
+
+	@Test
+	void clientCantPassItselfOffAsRouter()
+	{
+		HandshakeImpl1Client handshake = new HandshakeImpl1Client();
+		handshake.put("Host", "router");
+		handshake.put("Sec-WebSocket-Key", "key");
+		handshake.put("playerName", "bot");
+		handshake.put("RouterSecret", "guessed");
+		handshake.put("forwardedFor", "10.0.0.99");
+		InetSocketAddress client = new InetSocketAddress("10.0.0.1", 50000);
+
+		Map<String, String> headers = Router.forwardedHeaders(handshake, client, "secret");
+		assertEquals("bot", headers.get("playerName"));
+		assertEquals("secret", headers.get("routerSecret"));
+		assertEquals("10.0.0.1", headers.get("forwardedFor"));
+		assertEquals(3, headers.size());
+
+		// without a secret of its own the router has no address to vouch for, and passes on neither
+		headers = Router.forwardedHeaders(handshake, client, null);
+		assertEquals(1, headers.size());
+		assertFalse(headers.containsKey("RouterSecret"));
+	}
+}
@@ -0,0 +1,54 @@
+package org.lostclient.muling.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ConnectionLimiterTest
+{
+	private static InetAddress address(int last) throws UnknownHostException
+	{
+		return InetAddress.getByAddress(new byte[]{10, 0, 0, (byte) last});
+	}
+
+	@Test
+	void capsConnectionsInTotal() throws UnknownHostException
+	{
+		ConnectionLimiter limiter = new ConnectionLimiter(2, 0);
+
+		assertNull(limiter.tryAcquire(address(1)));
+		assertNull(limiter.tryAcquire(address(2)));
+		assertNotNull(limiter.tryAcquire(address(3)));
+		assertEquals(2, limiter.getConnections());
+
+		limiter.release(address(1));
+		assertNull(limiter.tryAcquire(address(3)));
+	}
+
+	@Test
+	void capsConnectionsPerAddress() throws UnknownHostException
+	{
+		ConnectionLimiter limiter = new ConnectionLimiter(0, 2);
+
+		assertNull(limiter.tryAcquire(address(1)));
+		assertNull(limiter.tryAcquire(address(1)));
+		assertNotNull(limiter.tryAcquire(address(1)));
+		assertNull(limiter.tryAcquire(address(2)));
+		assertEquals(3, limiter.getConnections(), "a refused connection gives its slot back");
+		assertEquals(2, limiter.getAddresses());
+
+		limiter.release(address(1));
+		assertNull(limiter.tryAcquire(address(1)));
+
+		limiter.release(address(1));
+		limiter.release(address(1));
+		limiter.release(address(2));
+		assertEquals(0, limiter.getConnections());
+		assertEquals(0, limiter.getAddresses(), "addresses without connections are forgotten");
+	}
+}
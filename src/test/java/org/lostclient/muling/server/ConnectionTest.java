@@ -0,0 +1,122 @@
+package org.lostclient.muling.server;
+
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.handshake.HandshakeImpl1Client;
+import org.junit.jupiter.api.Test;
+import org.lostclient.muling.messages.codec.EncodedMessage;
+import org.lostclient.muling.messages.server.ListMulesResponseMessage;
+import org.lostclient.muling.messages.server.MetricsResponseMessage;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertIterableEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConnectionTest
+{
+	private static Handshake handshake() throws InvalidDataException
+	{
+		HandshakeImpl1Client handshake = new HandshakeImpl1Client();
+		handshake.put("clientUsername", "user");
+		handshake.put("playerName", "bot");
+		handshake.put("isMule", "false");
+		handshake.put("isMember", "true");
+		return Handshake.parse(handshake);
+	}
+
+	private static Connection connection() throws InvalidDataException
+	{
+		return new Connection(null, 1L, handshake(), null, Runnable::run, null);
+	}
+
+	private static EncodedMessage list()
+	{
+		return new EncodedMessage(new ListMulesResponseMessage(true, null, new ArrayList<>(), 0L, null));
+	}
+
+	private static EncodedMessage metrics()
+	{
+		return new EncodedMessage(new MetricsResponseMessage(""));
+	}
+
+	@Test
+	void onlyOneBatchIsWrittenAtATime() throws InvalidDataException
+	{
+		Connection connection = connection();
+
+		assertTrue(connection.startWrite());
+		assertFalse(connection.finishWrite(), "nothing was held back");
+
+		assertTrue(connection.startWrite());
+		assertFalse(connection.startWrite());
+		assertFalse(connection.startWrite(), "held back twice is still one batch to ask for");
+		assertTrue(connection.finishWrite());
+		assertTrue(connection.startWrite());
+	}
+
+	@Test
+	void snapshotReplacesWaitingSnapshotOfSameType() throws InvalidDataException
+	{
+		Connection connection = connection();
+		EncodedMessage first = list();
+		EncodedMessage reply = metrics();
+		EncodedMessage second = list();
+		EncodedMessage unrelated = list();
+
+		assertFalse(connection.enqueue(first, true));
+		assertFalse(connection.enqueue(reply, false));
+		assertTrue(connection.enqueue(second, true));
+		assertFalse(connection.enqueue(unrelated, false), "only snapshots replace each other");
+
+		assertIterableEquals(Arrays.asList(reply, second, unrelated), connection.drainOutbound());
+	}
+
+	@Test
+	void drainTakesEverythingWaiting() throws InvalidDataException
+	{
+		Connection connection = connection();
+		EncodedMessage first = list();
+		connection.enqueue(first, true);
+		connection.enqueue(metrics(), false);
+		assertEquals(2, connection.getOutboundSize());
+
+		List<EncodedMessage> drained = connection.drainOutbound();
+		assertEquals(2, drained.size());
+		assertEquals(0, connection.getOutboundSize());
+
+		// the drained snapshot is gone, a new one has nothing to replace
+		assertFalse(connection.enqueue(list(), true));
+		assertEquals(1, connection.drainOutbound().size());
+	}
+
+	@Test
+	void countsBytesOfWrappedSocketOnly() throws InvalidDataException, IOException
+	{
+		Connection unwrapped = connection();
+		unwrapped.queued(100);
+		assertEquals(0L, unwrapped.getQueuedBytes());
+
+		try (SocketChannel socket = SocketChannel.open())
+		{
+			// a WebSocket the server never started, wrapped like the ones it accepts
+			WebSocketImpl conn = new WebSocketImpl(new Server(0), new Draft_6455());
+			conn.setChannel(new CountingChannel(socket));
+			Connection connection = new Connection(conn, 1L, handshake(), null, Runnable::run, null);
+
+			connection.queued(100);
+			connection.queued(50);
+			assertEquals(150L, connection.getQueuedBytes());
+			// a batch the closed connection refused after an eviction is taken back in full
+			connection.unqueued(150);
+			assertEquals(0L, connection.getQueuedBytes());
+		}
+	}
+}
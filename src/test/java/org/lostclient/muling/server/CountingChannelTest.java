@@ -0,0 +1,51 @@
+package org.lostclient.muling.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CountingChannelTest
+{
+	@Test
+	void countsQueuedBytesUntilWritten() throws IOException
+	{
+		try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			 SocketChannel socket = SocketChannel.open(server.getLocalAddress());
+			 SocketChannel peer = server.accept())
+		{
+			CountingChannel channel = new CountingChannel(socket);
+			channel.queued(30);
+			assertEquals(30L, channel.getUnwritten());
+
+			assertEquals(20, channel.write(ByteBuffer.allocate(20)));
+			assertEquals(10L, channel.getUnwritten());
+			assertEquals(10, channel.write(ByteBuffer.allocate(10)));
+			assertEquals(0L, channel.getUnwritten());
+
+			// a ping the WebSocket sends on its own was never counted going in
+			channel.write(ByteBuffer.allocate(6));
+			assertEquals(0L, channel.getUnwritten());
+		}
+	}
+
+	@Test
+	void unqueuedNeverDropsBelowZero()
+	{
+		CountingChannel channel = new CountingChannel(null);
+		channel.queued(100);
+		channel.unqueued(40);
+		assertEquals(60L, channel.getUnwritten());
+
+		channel.unqueued(100);
+		assertEquals(0L, channel.getUnwritten());
+		channel.queued(5);
+		assertEquals(5L, channel.getUnwritten());
+	}
+}
@@ -0,0 +1,144 @@
+package org.lostclient.muling.server;
+
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.handshake.HandshakeImpl1Client;
+import org.junit.jupiter.api.Test;
+import org.lostclient.muling.messages.codec.Protocol;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HandshakeTest
+{
+	private static HandshakeImpl1Client bot()
+	{
+		HandshakeImpl1Client handshake = new HandshakeImpl1Client();
+		handshake.put("clientUsername", "user");
+		handshake.put("playerName", "bot");
+		handshake.put("isMule", "false");
+		handshake.put("isMember", "true");
+		return handshake;
+	}
+
+	private static HandshakeImpl1Client mule()
+	{
+		HandshakeImpl1Client handshake = bot();
+		handshake.put("isMule", "true");
+		handshake.put("worldId", "301");
+		handshake.put("tileX", "3200");
+		handshake.put("tileY", " 3201 ");
+		handshake.put("tileZ", "0");
+		return handshake;
+	}
+
+	private static int closeCode(HandshakeImpl1Client handshake)
+	{
+		return assertThrows(InvalidDataException.class, () -> Handshake.parse(handshake)).getCloseCode();
+	}
+
+	@Test
+	void parsesBotWithDefaults() throws InvalidDataException
+	{
+		Handshake handshake = Handshake.parse(bot());
+
+		assertEquals("user", handshake.getClientUsername());
+		assertEquals("bot", handshake.getPlayerName());
+		assertFalse(handshake.isMule());
+		assertTrue(handshake.isMember());
+		assertArrayEquals(new String[]{"default"}, handshake.getGroups());
+		assertEquals(0, handshake.getQueueSize());
+		assertEquals(Protocol.JSON, handshake.getProtocol());
+		assertNull(handshake.getTile());
+		assertFalse(handshake.isSession());
+		assertNull(handshake.getSessionToken());
+		assertNull(handshake.getRouterSecret());
+		assertNull(handshake.getForwardedFor());
+	}
+
+	@Test
+	void parsesMule() throws InvalidDataException
+	{
+		HandshakeImpl1Client headers = mule();
+		headers.put("groups", "Main, alts");
+		headers.put("queueSize", "4");
+		headers.put("protocol", "BINARY");
+		Handshake handshake = Handshake.parse(headers);
+
+		assertTrue(handshake.isMule());
+		assertArrayEquals(new String[]{"main", "alts"}, handshake.getGroups());
+		assertEquals(4, handshake.getQueueSize());
+		assertEquals(Protocol.BINARY, handshake.getProtocol());
+		assertEquals(301, handshake.getWorldId());
+		assertEquals(3200, handshake.getTile().getX());
+		assertEquals(3201, handshake.getTile().getY());
+		assertEquals(0, handshake.getTile().getZ());
+	}
+
+	@Test
+	void sessionIsOptIn() throws InvalidDataException
+	{
+		HandshakeImpl1Client asked = bot();
+		asked.put("session", "true");
+		assertTrue(Handshake.parse(asked).isSession());
+
+		HandshakeImpl1Client resumed = bot();
+		resumed.put("sessionToken", "token");
+		Handshake handshake = Handshake.parse(resumed);
+		assertTrue(handshake.isSession());
+		assertEquals("token", handshake.getSessionToken());
+	}
+
+	@Test
+	void routerConnectionsAreToldApartByForwardedAddress() throws InvalidDataException
+	{
+		assertFalse(Handshake.parse(bot()).isRouter());
+
+		HandshakeImpl1Client control = bot();
+		control.put("routerSecret", "secret");
+		assertTrue(Handshake.parse(control).isRouter());
+
+		HandshakeImpl1Client passedThrough = bot();
+		passedThrough.put("routerSecret", "secret");
+		passedThrough.put("forwardedFor", "10.0.0.1");
+		Handshake handshake = Handshake.parse(passedThrough);
+		assertFalse(handshake.isRouter());
+		assertEquals("10.0.0.1", handshake.getForwardedFor());
+	}
+
+	@Test
+	void missingHeadersAreRefused()
+	{
+		for (String header : new String[]{"clientUsername", "playerName", "isMule", "isMember"})
+		{
+			HandshakeImpl1Client handshake = bot();
+			handshake.put(header, "");
+			assertEquals(Handshake.INVALID_HANDSHAKE, closeCode(handshake), header);
+		}
+		for (String header : new String[]{"worldId", "tileX", "tileY", "tileZ"})
+		{
+			HandshakeImpl1Client handshake = mule();
+			handshake.put(header, "");
+			assertEquals(Handshake.INVALID_MULE_HANDSHAKE, closeCode(handshake), header);
+		}
+	}
+
+	@Test
+	void malformedNumbersAreRefused()
+	{
+		HandshakeImpl1Client queueSize = bot();
+		queueSize.put("queueSize", "lots");
+		assertEquals(Handshake.INVALID_HANDSHAKE, closeCode(queueSize));
+
+		HandshakeImpl1Client negative = bot();
+		negative.put("queueSize", "-1");
+		assertEquals(Handshake.INVALID_HANDSHAKE, closeCode(negative));
+
+		HandshakeImpl1Client tile = mule();
+		tile.put("tileX", "3200.5");
+		assertEquals(Handshake.INVALID_MULE_HANDSHAKE, closeCode(tile));
+	}
+}
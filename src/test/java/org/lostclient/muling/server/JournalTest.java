@@ -0,0 +1,236 @@
+package org.lostclient.muling.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.lostclient.muling.Client;
+import org.lostclient.muling.Request;
+import org.lostclient.muling.RequiredItem;
+import org.lostclient.muling.messages.MuleTile;
+import org.lostclient.muling.messages.OwnedItem;
+import org.lostclient.muling.messages.client.MuleRequestMessage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JournalTest
+{
+	@TempDir
+	Path dir;
+
+	private long nextConnIndex;
+	// the live state the snapshot of a compaction is written from
+	private final List<Client> mules = new ArrayList<>();
+	private final Map<String, Request> requests = new LinkedHashMap<>();
+
+	private Journal journal(Path path, int capacity)
+	{
+		return new Journal(path, capacity, journal ->
+		{
+			for (Client mule : mules)
+			{
+				journal.appendMule(mule);
+				journal.appendInventory(mule);
+			}
+			requests.values().forEach(journal::appendRequestAdded);
+		});
+	}
+
+	private JournalRecovery replay(Path path) throws IOException
+	{
+		JournalRecovery recovery = new JournalRecovery(() -> ++nextConnIndex);
+		new Journal(path, 4096, journal -> {}).replay(recovery);
+		return recovery;
+	}
+
+	private Client mule(String playerName, OwnedItem... ownedItems)
+	{
+		Client mule = new Client(null, ++nextConnIndex, 0L, "user", new String[]{"main", "alts"}, 3, playerName, true, true);
+		mule.setWorldId(301);
+		mule.setTile(new MuleTile(3200, 3201, 0));
+		mule.setOwnedItems(Arrays.asList(ownedItems));
+		mule.setInventorySequence(1L);
+		mules.add(mule);
+		return mule;
+	}
+
+	private Request request(String requestId, String playerName, Client mule, int coins)
+	{
+		Client bot = new Client(null, ++nextConnIndex, 0L, "user", new String[]{"main"}, 0, playerName, false, true);
+		Request request = new Request(bot, mule, new MuleRequestMessage(requestId, 123L, playerName, true,
+				Collections.singletonList(new RequiredItem(995, coins)), Collections.emptyList(), mule.getPlayerName()));
+		requests.put(requestId, request);
+		return request;
+	}
+
+	@Test
+	void replaysMulesInventoriesAndOpenRequests() throws IOException
+	{
+		Path path = dir.resolve("journal");
+		Journal journal = journal(path, 1 << 16);
+		Client mule = mule("mule", new OwnedItem(995, 1000), new OwnedItem(314, 5));
+		journal.appendMule(mule);
+		journal.appendInventory(mule);
+		mule.applyOwnedItemChanges(Collections.singletonList(new OwnedItem(314, 0)));
+		mule.setInventorySequence(2L);
+		journal.appendInventoryDelta(mule, Collections.singletonList(new OwnedItem(314, 0)));
+		Request open = request("r1", "bot1", mule, 100);
+		Request done = request("r2", "bot2", mule, 200);
+		journal.appendRequestAdded(open);
+		journal.appendRequestAdded(done);
+		journal.appendRequestRemoved(done);
+
+		JournalRecovery recovery = replay(path);
+
+		Client recovered = recovery.getMule("mule");
+		assertArrayEquals(new String[]{"main", "alts"}, recovered.getGroups());
+		assertEquals(3, recovered.getQueueSize());
+		assertEquals(301, recovered.getWorldId());
+		assertEquals(3201, recovered.getTile().getY());
+		assertEquals(2L, recovered.getInventorySequence());
+		assertEquals(1000, recovered.getAvailableQuantity(995));
+		assertEquals(0, recovered.getAvailableQuantity(314));
+
+		List<JournalRecovery.RecoveredRequest> recoveredRequests = recovery.getRequests();
+		assertEquals(1, recoveredRequests.size());
+		assertEquals("r1", recoveredRequests.get(0).muleRequest.requestId);
+		assertEquals("mule", recoveredRequests.get(0).mulePlayerName);
+		assertEquals(100, recoveredRequests.get(0).muleRequest.requiredItems.get(0).getQuantity());
+		assertEquals("bot1", recovery.getBot("bot1").getPlayerName());
+	}
+
+	@Test
+	void requestsOfRemovedMulesAreDropped() throws IOException
+	{
+		Path path = dir.resolve("journal");
+		Journal journal = journal(path, 1 << 16);
+		Client mule = mule("mule", new OwnedItem(995, 1000));
+		journal.appendMule(mule);
+		journal.appendRequestAdded(request("r1", "bot", mule, 100));
+		journal.appendMuleRemoved(mule);
+
+		JournalRecovery recovery = replay(path);
+
+		assertNull(recovery.getMule("mule"));
+		assertTrue(recovery.getRequests().isEmpty());
+	}
+
+	@Test
+	void corruptRecordEndsReplay() throws IOException
+	{
+		Path path = dir.resolve("journal");
+		Journal journal = journal(path, 1 << 16);
+		journal.appendMule(mule("first"));
+		byte[] before = Files.readAllBytes(path);
+		journal.appendMule(mule("second"));
+		journal.appendMule(mule("third"));
+		byte[] after = Files.readAllBytes(path);
+
+		int second = 0;
+		while (before[second] == after[second])
+		{
+			second++;
+		}
+		// the length comes first and is followed by the CRC32, flip a byte of the payload behind them
+		after[second + 8] ^= 0x55;
+		Files.write(path, after);
+
+		JournalRecovery recovery = replay(path);
+		assertEquals("first", recovery.getMule("first").getPlayerName());
+		assertNull(recovery.getMule("second"));
+		assertNull(recovery.getMule("third"));
+	}
+
+	@Test
+	void recordThatFillsJournalSurvivesCompaction() throws IOException
+	{
+		Client filler = new Client(null, ++nextConnIndex, 0L, "user", new String[]{"main"}, 0, "x", true, true);
+		// short filler records step towards the end of the file, until the removal is the record that doesn't fit
+		// and has the journal compacted from a snapshot that still holds the mule
+		for (int fillers = 0; fillers < 400; fillers++)
+		{
+			Path path = dir.resolve("journal" + fillers);
+			mules.clear();
+			Journal journal = journal(path, 4096);
+			Client mule = mule("mule-with-a-longer-name");
+			journal.appendMule(mule);
+			for (int i = 0; i < fillers; i++)
+			{
+				journal.appendMuleRemoved(filler);
+			}
+			journal.appendMuleRemoved(mule);
+			mules.remove(mule);
+
+			assertNull(replay(path).getMule("mule-with-a-longer-name"), fillers + " fillers");
+		}
+	}
+
+	@Test
+	void missingJournalReplaysNothingAndForeignFileIsRefused() throws IOException
+	{
+		assertTrue(replay(dir.resolve("missing")).getRequests().isEmpty());
+
+		Path foreign = dir.resolve("foreign");
+		Files.write(foreign, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+		assertThrows(IOException.class, () -> replay(foreign));
+	}
+
+	@Test
+	void compactionKeepsOnlyLiveState() throws IOException
+	{
+		Path path = dir.resolve("journal");
+		Journal journal = journal(path, 1 << 16);
+		Client mule = mule("mule", new OwnedItem(995, 1000));
+		journal.appendMule(mule);
+		journal.appendInventory(mule);
+		for (int i = 0; i < 100; i++)
+		{
+			Request request = request("r" + i, "bot" + i, mule, i + 1);
+			journal.appendRequestAdded(request);
+			if (i % 10 != 0)
+			{
+				requests.remove(request.getMuleRequest().requestId);
+				journal.appendRequestRemoved(request);
+			}
+		}
+
+		journal.compact();
+
+		JournalRecovery recovery = replay(path);
+		assertEquals(1000, recovery.getMule("mule").getAvailableQuantity(995));
+		List<String> requestIds = new ArrayList<>();
+		recovery.getRequests().forEach(request -> requestIds.add(request.muleRequest.requestId));
+		assertEquals(new ArrayList<>(requests.keySet()), requestIds);
+	}
+
+	@Test
+	void fullJournalCompactsAndGrows() throws IOException
+	{
+		Path path = dir.resolve("journal");
+		Journal journal = journal(path, 4096);
+		Client mule = mule("mule", new OwnedItem(995, 1_000_000));
+		journal.appendMule(mule);
+		// every request stays open, so the snapshot outgrows the initial capacity
+		for (int i = 0; i < 500; i++)
+		{
+			journal.appendRequestAdded(request("r" + i, "bot" + i, mule, i + 1));
+		}
+
+		assertTrue(Files.size(path) > 4096);
+		JournalRecovery recovery = replay(path);
+		assertEquals(500, recovery.getRequests().size());
+		assertEquals("r499", recovery.getRequests().get(499).muleRequest.requestId);
+	}
+}
@@ -0,0 +1,110 @@
+package org.lostclient.muling.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SerialExecutorTest
+{
+	@Test
+	void runsTasksOneAtATimeInOrder() throws InterruptedException
+	{
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try
+		{
+			SerialExecutor executor = new SerialExecutor(pool);
+			List<Integer> ran = new ArrayList<>();
+			AtomicInteger running = new AtomicInteger();
+			AtomicInteger overlaps = new AtomicInteger();
+			CountDownLatch done = new CountDownLatch(1000);
+			for (int i = 0; i < 1000; i++)
+			{
+				int task = i;
+				executor.execute(() ->
+				{
+					if (running.incrementAndGet() > 1)
+					{
+						overlaps.incrementAndGet();
+					}
+					ran.add(task);
+					running.decrementAndGet();
+					done.countDown();
+				});
+			}
+
+			assertTrue(done.await(5, TimeUnit.SECONDS));
+			assertEquals(0, overlaps.get());
+			for (int i = 0; i < ran.size(); i++)
+			{
+				assertEquals(i, (int) ran.get(i));
+			}
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	void busyExecutorGivesUpItsTurn()
+	{
+		Queue<Runnable> turns = new ArrayDeque<>();
+		SerialExecutor executor = new SerialExecutor(turns::add);
+		AtomicInteger ran = new AtomicInteger();
+		for (int i = 0; i < 100; i++)
+		{
+			executor.execute(ran::incrementAndGet);
+		}
+		assertEquals(1, turns.size(), "one turn is asked for however many tasks are waiting");
+
+		turns.poll().run();
+		assertEquals(64, ran.get());
+		assertEquals(1, turns.size(), "the rest waits for another turn");
+
+		turns.poll().run();
+		assertEquals(100, ran.get());
+		assertTrue(turns.isEmpty());
+	}
+
+	@Test
+	void failingTaskDoesNotStopTheOthers()
+	{
+		Queue<Runnable> turns = new ArrayDeque<>();
+		SerialExecutor executor = new SerialExecutor(turns::add);
+		AtomicInteger ran = new AtomicInteger();
+		executor.execute(() ->
+		{
+			throw new IllegalStateException("expected by the test");
+		});
+		executor.execute(ran::incrementAndGet);
+
+		turns.poll().run();
+		assertEquals(1, ran.get());
+	}
+
+	@Test
+	void shutDownExecutorDropsTasks()
+	{
+		AtomicInteger ran = new AtomicInteger();
+		SerialExecutor executor = new SerialExecutor(task ->
+		{
+			throw new RejectedExecutionException();
+		});
+
+		executor.execute(ran::incrementAndGet);
+		executor.execute(ran::incrementAndGet);
+		assertEquals(0, ran.get());
+	}
+}
@@ -0,0 +1,243 @@
+package org.lostclient.muling.server;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.handshake.ServerHandshake;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ServerSessionTest
+{
+	private Server server;
+
+	private static class Peer extends WebSocketClient
+	{
+		private final BlockingQueue<JsonObject> received = new LinkedBlockingQueue<>();
+
+		Peer(int port, Map<String, String> headers)
+		{
+			super(URI.create("ws://localhost:" + port), headers);
+		}
+
+		@Override
+		public void onOpen(ServerHandshake handshake)
+		{
+		}
+
+		@Override
+		public void onMessage(String message)
+		{
+			received.add(new JsonParser().parse(message).getAsJsonObject());
+		}
+
+		@Override
+		public void onClose(int code, String reason, boolean remote)
+		{
+		}
+
+		@Override
+		public void onError(Exception ex)
+		{
+		}
+
+		JsonObject next(String type) throws InterruptedException
+		{
+			JsonObject message = received.poll(5, TimeUnit.SECONDS);
+			assertNotNull(message, "no " + type + " received");
+			assertEquals(type, message.get("type").getAsString());
+			return message;
+		}
+
+		/**
+		 * Drops the connection without a close frame, the way a client losing its network would.
+		 */
+		void drop()
+		{
+			getConnection().closeConnection(CloseFrame.ABNORMAL_CLOSE, "dropped");
+		}
+	}
+
+	private void start(long sessionGraceMillis) throws InterruptedException
+	{
+		server = new Server(0, sessionGraceMillis);
+		server.start();
+		long deadline = System.currentTimeMillis() + 5000;
+		// the port is only known once the server thread bound it
+		while (server.getPort() <= 0 && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(10);
+		}
+	}
+
+	@AfterEach
+	void stop() throws InterruptedException
+	{
+		server.stop(1000);
+	}
+
+	private Peer connect(Map<String, String> headers) throws InterruptedException
+	{
+		Peer peer = new Peer(server.getPort(), headers);
+		assertTrue(peer.connectBlocking(5, TimeUnit.SECONDS));
+		return peer;
+	}
+
+	private Peer connectMule() throws InterruptedException
+	{
+		Map<String, String> headers = new HashMap<>();
+		headers.put("clientUsername", "user");
+		headers.put("playerName", "mule");
+		headers.put("isMule", "true");
+		headers.put("isMember", "true");
+		headers.put("queueSize", "2");
+		headers.put("worldId", "301");
+		headers.put("tileX", "3200");
+		headers.put("tileY", "3201");
+		headers.put("tileZ", "0");
+		Peer mule = connect(headers);
+		mule.send("{\"ownedItems\":[{\"itemId\":995,\"quantity\":1000}],\"sequence\":1,\"type\":\"OWNED_ITEMS_UPDATE\"}");
+		return mule;
+	}
+
+	private static Map<String, String> bot(String clientUsername, String sessionToken)
+	{
+		Map<String, String> headers = new HashMap<>();
+		headers.put("clientUsername", clientUsername);
+		headers.put("playerName", "bot");
+		headers.put("isMule", "false");
+		headers.put("isMember", "true");
+		if (sessionToken != null)
+		{
+			headers.put("sessionToken", sessionToken);
+		}
+		else
+		{
+			headers.put("session", "true");
+		}
+		return headers;
+	}
+
+	/**
+	 * @param playerName the player to trade with, a player has one open request at a time
+	 */
+	private static void request(Peer bot, String requestId, String playerName)
+	{
+		bot.send("{\"requestId\":\"" + requestId + "\",\"requestedAt\":" + System.currentTimeMillis()
+				+ ",\"playerName\":\"" + playerName + "\",\"hasMembership\":true,"
+				+ "\"requiredItems\":[{\"itemId\":995,\"quantity\":100}],\"offeredItems\":[],\"type\":\"MULE_REQUEST\"}");
+	}
+
+	/**
+	 * Asks the server for its metrics until the number of detached clients is reached. Messages of one connection are
+	 * handled in order, so everything the peer sent before has been handled once the answer comes back.
+	 */
+	private static void awaitDetached(Peer peer, int detached) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 5000;
+		while (true)
+		{
+			peer.send("{\"type\":\"METRICS_REQUEST\"}");
+			String metrics = peer.next("METRICS_RESPONSE").get("metrics").getAsString();
+			if (metrics.contains("\nlostmule_detached_clients " + detached + "\n"))
+			{
+				return;
+			}
+			assertTrue(System.currentTimeMillis() < deadline, "detached clients never reached " + detached);
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	void resumedSessionReplaysBufferedMessagesInOrder() throws InterruptedException
+	{
+		start(30_000);
+		Peer mule = connectMule();
+		Peer bot = connect(bot("user", null));
+		JsonObject session = bot.next("SESSION");
+		assertFalse(session.get("resumed").getAsBoolean());
+		String token = session.get("sessionToken").getAsString();
+		request(bot, "r1", "bot");
+		request(bot, "r2", "alt");
+		bot.next("MULE_RESPONSE");
+		bot.next("MULE_RESPONSE");
+		mule.next("MULE_REQUEST");
+		mule.next("MULE_REQUEST");
+
+		bot.drop();
+		awaitDetached(mule, 1);
+		mule.send("{\"success\":true,\"requestId\":\"r1\",\"type\":\"TRADE_COMPLETED\"}");
+		mule.send("{\"success\":true,\"requestId\":\"r2\",\"type\":\"TRADE_COMPLETED\"}");
+		awaitDetached(mule, 1);
+
+		Peer resumed = connect(bot("user", token));
+		session = resumed.next("SESSION");
+		assertTrue(session.get("resumed").getAsBoolean());
+		assertEquals(token, session.get("sessionToken").getAsString());
+		assertEquals("r1", resumed.next("TRADE_COMPLETED").get("requestId").getAsString());
+		assertEquals("r2", resumed.next("TRADE_COMPLETED").get("requestId").getAsString());
+		awaitDetached(mule, 0);
+	}
+
+	@Test
+	void wrongTokenStartsNewSession() throws InterruptedException
+	{
+		start(30_000);
+		Peer mule = connectMule();
+		Peer bot = connect(bot("user", null));
+		String token = bot.next("SESSION").get("sessionToken").getAsString();
+		bot.drop();
+		awaitDetached(mule, 1);
+
+		// a token the server never handed out, then the right token from another player
+		Peer guessed = connect(bot("other", "0123456789abcdef0123456789abcdef"));
+		JsonObject session = guessed.next("SESSION");
+		assertFalse(session.get("resumed").getAsBoolean());
+		assertNotEquals(token, session.get("sessionToken").getAsString());
+		Map<String, String> stolen = bot("other", token);
+		stolen.put("playerName", "other");
+		session = connect(stolen).next("SESSION");
+		assertFalse(session.get("resumed").getAsBoolean());
+		assertNotEquals(token, session.get("sessionToken").getAsString());
+
+		// neither ended the session
+		awaitDetached(mule, 1);
+		assertTrue(connect(bot("user", token)).next("SESSION").get("resumed").getAsBoolean());
+	}
+
+	@Test
+	void sessionEndsAfterGracePeriod() throws InterruptedException
+	{
+		start(200);
+		Peer mule = connectMule();
+		Peer bot = connect(bot("user", null));
+		String token = bot.next("SESSION").get("sessionToken").getAsString();
+		request(bot, "r1", "bot");
+		bot.next("MULE_RESPONSE");
+		mule.next("MULE_REQUEST");
+
+		bot.drop();
+		// the request is held while the bot is detached and failed once its session ends
+		JsonObject completed = mule.next("TRADE_COMPLETED");
+		assertEquals("r1", completed.get("requestId").getAsString());
+		assertFalse(completed.get("success").getAsBoolean());
+		awaitDetached(mule, 0);
+
+		JsonObject session = connect(bot("user", token)).next("SESSION");
+		assertFalse(session.get("resumed").getAsBoolean());
+	}
+}
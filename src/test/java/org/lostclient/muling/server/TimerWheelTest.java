@@ -0,0 +1,119 @@
+package org.lostclient.muling.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimerWheelTest
+{
+	private static final long START = 1_000_000L;
+	private static final long TICK = 10L;
+	private static final int TICKS_PER_WHEEL = 8;
+
+	private final TimerWheel wheel = new TimerWheel(TICK, TICKS_PER_WHEEL, START);
+	private final List<String> fired = new ArrayList<>();
+
+	private TimerWheel.Timeout schedule(String name, long deadlineMillis)
+	{
+		return wheel.schedule(() -> fired.add(name), START + deadlineMillis);
+	}
+
+	private void advance(long nowMillis)
+	{
+		wheel.advance(START + nowMillis).forEach(Runnable::run);
+	}
+
+	@Test
+	void firesOnceDeadlinePassed()
+	{
+		schedule("a", 25);
+
+		advance(29);
+		assertTrue(fired.isEmpty(), "never fires early");
+		advance(30);
+		assertEquals(Arrays.asList("a"), fired);
+		assertEquals(0, wheel.size());
+
+		advance(1000);
+		assertEquals(1, fired.size(), "fires only once");
+	}
+
+	@Test
+	void timeoutsMoreThanOneRotationAwayWaitForTheirRotation()
+	{
+		long rotation = TICK * TICKS_PER_WHEEL;
+		schedule("near", 20);
+		schedule("far", 20 + 2 * rotation);
+
+		for (long now = 0; now < 20 + 2 * rotation; now += TICK)
+		{
+			advance(now);
+		}
+		assertEquals(Arrays.asList("near"), fired);
+		assertEquals(1, wheel.size());
+
+		advance(20 + 2 * rotation);
+		assertEquals(Arrays.asList("near", "far"), fired);
+	}
+
+	@Test
+	void longStallFiresEverythingDue()
+	{
+		long rotation = TICK * TICKS_PER_WHEEL;
+		for (int i = 0; i < 3 * TICKS_PER_WHEEL; i++)
+		{
+			schedule("t" + i, i * TICK);
+		}
+		schedule("later", 10 * rotation);
+
+		advance(5 * rotation);
+		assertEquals(3 * TICKS_PER_WHEEL, fired.size());
+		assertEquals(1, wheel.size());
+
+		advance(10 * rotation);
+		assertEquals("later", fired.get(fired.size() - 1));
+	}
+
+	@Test
+	void cancelledTimeoutNeverFires()
+	{
+		TimerWheel.Timeout cancelled = schedule("cancelled", 20);
+		schedule("kept", 20);
+
+		assertTrue(cancelled.cancel());
+		assertFalse(cancelled.cancel());
+		assertEquals(1, wheel.size());
+
+		advance(20);
+		assertEquals(Arrays.asList("kept"), fired);
+	}
+
+	@Test
+	void pastDeadlineFiresOnNextTick()
+	{
+		advance(100);
+		schedule("late", 50);
+
+		advance(100);
+		assertTrue(fired.isEmpty(), "the current tick was already processed");
+		advance(110);
+		assertEquals(Arrays.asList("late"), fired);
+	}
+
+	@Test
+	void reportsTimeUntilNextTick()
+	{
+		assertEquals(-1L, wheel.millisUntilNextTick(START));
+
+		schedule("a", 100);
+		assertEquals(0L, wheel.millisUntilNextTick(START));
+		advance(3);
+		assertEquals(7L, wheel.millisUntilNextTick(START + 3));
+	}
+}
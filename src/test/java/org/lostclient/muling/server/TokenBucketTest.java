@@ -0,0 +1,101 @@
+package org.lostclient.muling.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketTest
+{
+	private static final long MILLIS = 1_000_000L;
+
+	private static int takeAll(TokenBucket bucket, long now)
+	{
+		int taken = 0;
+		while (bucket.tryTake(now) == 0L)
+		{
+			taken++;
+		}
+		return taken;
+	}
+
+	@Test
+	void startsFullWithWholeBurst()
+	{
+		TokenBucket bucket = new TokenBucket(10, 5);
+		long start = System.nanoTime();
+
+		assertTrue(bucket.isFull(start));
+		assertEquals(5, takeAll(bucket, start));
+		assertFalse(bucket.isFull(start));
+	}
+
+	@Test
+	void reportsWaitUntilNextToken()
+	{
+		TokenBucket bucket = new TokenBucket(10, 5);
+		long start = System.nanoTime();
+		takeAll(bucket, start);
+
+		assertEquals(100 * MILLIS, bucket.tryTake(start));
+		assertEquals(40 * MILLIS, bucket.tryTake(start + 60 * MILLIS));
+	}
+
+	@Test
+	void refillsOneTokenPerInterval()
+	{
+		TokenBucket bucket = new TokenBucket(10, 5);
+		long start = System.nanoTime();
+		takeAll(bucket, start);
+
+		assertEquals(0, takeAll(bucket, start + 99 * MILLIS));
+		assertEquals(1, takeAll(bucket, start + 100 * MILLIS));
+		assertEquals(2, takeAll(bucket, start + 300 * MILLIS));
+		assertFalse(bucket.isFull(start + 300 * MILLIS));
+		assertTrue(bucket.isFull(start + 800 * MILLIS));
+	}
+
+	@Test
+	void idleTimeNeverBuildsMoreThanBurst()
+	{
+		TokenBucket bucket = new TokenBucket(10, 5);
+		long start = System.nanoTime();
+		takeAll(bucket, start);
+
+		assertEquals(5, takeAll(bucket, start + 60_000 * MILLIS));
+	}
+
+	@Test
+	void fractionalRatesAndMinimumBurst()
+	{
+		TokenBucket bucket = new TokenBucket(0.5, 0);
+		long start = System.nanoTime();
+
+		assertEquals(1, takeAll(bucket, start), "a burst below one still allows one token");
+		assertEquals(2_000 * MILLIS, bucket.tryTake(start));
+		assertEquals(1, takeAll(bucket, start + 2_000 * MILLIS));
+	}
+
+	@Test
+	void concurrentTakersNeverExceedBurst() throws InterruptedException
+	{
+		TokenBucket bucket = new TokenBucket(1, 1000);
+		long start = System.nanoTime();
+		AtomicInteger taken = new AtomicInteger();
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++)
+		{
+			threads[i] = new Thread(() -> taken.addAndGet(takeAll(bucket, start)));
+			threads[i].start();
+		}
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+
+		assertEquals(1000, taken.get());
+	}
+}